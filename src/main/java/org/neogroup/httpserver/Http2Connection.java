@@ -0,0 +1,1021 @@
+package org.neogroup.httpserver;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Http/2 connection (RFC 7540) over a cleartext connection.
+ * Frames are read by the reactor thread of the connection, every request is
+ * assembled in its own stream and dispatched to the server executor when it
+ * is complete, so that many requests are handled concurrently over the same
+ * connection. Frames written by the workers are serialized with a write lock
+ * and DATA frames respect the flow control windows of the client
+ */
+public class Http2Connection {
+
+    public static final String HTTP_2_VERSION = "HTTP/2.0";
+
+    public static final int PREFACE_MISMATCH = 0;
+    public static final int PREFACE_PARTIAL = 1;
+    public static final int PREFACE_MATCH = 2;
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+    private static final int PREFACE_MIN_MATCH_SIZE = 4;
+
+    private static final int FRAME_HEADER_SIZE = 9;
+    private static final int FRAME_DATA = 0x0;
+    private static final int FRAME_HEADERS = 0x1;
+    private static final int FRAME_PRIORITY = 0x2;
+    private static final int FRAME_RST_STREAM = 0x3;
+    private static final int FRAME_SETTINGS = 0x4;
+    private static final int FRAME_PUSH_PROMISE = 0x5;
+    private static final int FRAME_PING = 0x6;
+    private static final int FRAME_GOAWAY = 0x7;
+    private static final int FRAME_WINDOW_UPDATE = 0x8;
+    private static final int FRAME_CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+    private static final int SETTING_SIZE = 6;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    private static final int MAX_FRAME_SIZE_LIMIT = 16777215;
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+    private static final int WINDOW_UPDATE_THRESHOLD = DEFAULT_WINDOW_SIZE / 2;
+    private static final int HEADER_TABLE_SIZE = 4096;
+    private static final int MAX_HEADER_LIST_SIZE = 65536;
+    private static final int PRIORITY_SIZE = 5;
+    private static final int PING_SIZE = 8;
+    private static final String PSEUDO_HEADER_PREFIX = ":";
+    private static final String METHOD_PSEUDO_HEADER = ":method";
+    private static final String PATH_PSEUDO_HEADER = ":path";
+    private static final String SCHEME_PSEUDO_HEADER = ":scheme";
+    private static final String AUTHORITY_PSEUDO_HEADER = ":authority";
+    private static final String COOKIE_SEPARATOR = "; ";
+
+    private final HttpConnection connection;
+    private final HttpServer server;
+    private final Object writeLock;
+    private final Map<Integer, Http2Stream> streams;
+    private final Http2HeaderDecoder headerDecoder;
+    private final int maxConcurrentStreams;
+    private volatile boolean closed;
+    private boolean goAwayReceived;
+
+    private int prefaceIndex;
+    private final byte[] frameHeader;
+    private int frameHeaderSize;
+    private byte[] framePayload;
+    private int framePayloadSize;
+    private int frameLength;
+    private int frameType;
+    private int frameFlags;
+    private int frameStreamId;
+    private byte[] headerBlock;
+    private int headerBlockSize;
+    private int headerBlockStreamId;
+    private boolean headerBlockEndStream;
+    private int lastStreamId;
+    private int receivedSize;
+
+    private int sendWindow;
+    private int peerInitialWindowSize;
+    private int peerMaxFrameSize;
+
+    /**
+     * Constructor for the http/2 connection
+     * @param connection connection that carries the http/2 frames
+     */
+    protected Http2Connection(HttpConnection connection) {
+        this.connection = connection;
+        this.server = connection.getServer();
+        this.writeLock = new Object();
+        this.streams = new HashMap<>();
+        this.headerDecoder = new Http2HeaderDecoder(HEADER_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+        this.maxConcurrentStreams = server.getProperty(HttpServer.HTTP2_MAX_CONCURRENT_STREAMS_PROPERTY_NAME, HttpServer.DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS);
+        this.closed = false;
+        this.goAwayReceived = false;
+        this.prefaceIndex = 0;
+        this.frameHeader = new byte[FRAME_HEADER_SIZE];
+        this.frameHeaderSize = 0;
+        this.framePayload = new byte[DEFAULT_MAX_FRAME_SIZE];
+        this.headerBlock = new byte[DEFAULT_MAX_FRAME_SIZE];
+        this.headerBlockSize = 0;
+        this.headerBlockStreamId = 0;
+        this.lastStreamId = 0;
+        this.receivedSize = 0;
+        this.sendWindow = DEFAULT_WINDOW_SIZE;
+        this.peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+        this.peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    }
+
+    /**
+     * Checks if the available bytes of a buffer start with the http/2 connection preface
+     * @param buffer buffer in read mode
+     * @return PREFACE_MATCH, PREFACE_MISMATCH or PREFACE_PARTIAL if more bytes are needed
+     */
+    public static int matchPreface(ByteBuffer buffer) {
+        int size = Math.min(buffer.remaining(), PREFACE.length);
+        for (int i = 0; i < size; i++) {
+            if (buffer.get(buffer.position() + i) != PREFACE[i]) {
+                return PREFACE_MISMATCH;
+            }
+        }
+        return size >= PREFACE_MIN_MATCH_SIZE? PREFACE_MATCH : PREFACE_PARTIAL;
+    }
+
+    /**
+     * Obtains the connection that carries the http/2 frames
+     * @return http connection
+     */
+    public HttpConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Obtains the amount of open streams
+     * @return amount of streams
+     */
+    public synchronized int getStreamsCount() {
+        return streams.size();
+    }
+
+    /**
+     * Indicates if the connection is closed
+     * @return boolean
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Starts the connection sending the server settings
+     */
+    protected void start() {
+        ByteBuffer settings = ByteBuffer.allocate(SETTING_SIZE * 2);
+        settings.putShort((short)SETTINGS_MAX_CONCURRENT_STREAMS).putInt(maxConcurrentStreams);
+        settings.putShort((short)SETTINGS_MAX_HEADER_LIST_SIZE).putInt(MAX_HEADER_LIST_SIZE);
+        settings.flip();
+        synchronized (writeLock) {
+            writeFrame(FRAME_SETTINGS, 0, 0, settings);
+        }
+    }
+
+    /**
+     * Creates the stream of a request that upgraded a http/1.1 connection.
+     * The upgraded request is handled as the stream 1 and its body is taken from the exchange
+     * @param exchange exchange of the http/1.1 request
+     * @return http/2 stream
+     */
+    protected Http2Stream createUpgradeStream(HttpExchange exchange) {
+        HttpHeaders headers = new HttpHeaders(exchange.getRequestHeaderTable());
+        headers.remove(HttpHeader.CONNECTION);
+        headers.remove(HttpHeader.UPGRADE);
+        headers.remove(HttpHeader.HTTP2_SETTINGS);
+        HttpRequestBody body = exchange.takeRequestBody();
+        if (body == null) {
+            body = new HttpRequestBody(server.getProperty(HttpServer.REQUEST_BODY_MEMORY_THRESHOLD_PROPERTY_NAME, HttpServer.DEFAULT_REQUEST_BODY_MEMORY_THRESHOLD), 0);
+        }
+        Http2Stream stream;
+        synchronized (this) {
+            stream = new Http2Stream(1, this, peerInitialWindowSize);
+            streams.put(stream.getId(), stream);
+            lastStreamId = stream.getId();
+        }
+        stream.setRequest(exchange.getRequestMethod(), exchange.getRequestUri(), headers, body);
+        stream.setRemoteClosed(true);
+        stream.setDispatched(true);
+        stream.startExchange();
+        return stream;
+    }
+
+    /**
+     * Consumes the available bytes of the buffer, processing the completed frames
+     * @param buffer buffer in read mode
+     */
+    protected void read(ByteBuffer buffer) {
+        try {
+            while (!closed && prefaceIndex < PREFACE.length && buffer.hasRemaining()) {
+                if (buffer.get() != PREFACE[prefaceIndex++]) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface !!");
+                }
+            }
+            while (!closed && prefaceIndex == PREFACE.length && buffer.hasRemaining()) {
+                if (frameHeaderSize < FRAME_HEADER_SIZE) {
+                    int readSize = Math.min(buffer.remaining(), FRAME_HEADER_SIZE - frameHeaderSize);
+                    buffer.get(frameHeader, frameHeaderSize, readSize);
+                    frameHeaderSize += readSize;
+                    if (frameHeaderSize == FRAME_HEADER_SIZE) {
+                        frameLength = ((frameHeader[0] & 0xFF) << 16) | ((frameHeader[1] & 0xFF) << 8) | (frameHeader[2] & 0xFF);
+                        frameType = frameHeader[3] & 0xFF;
+                        frameFlags = frameHeader[4] & 0xFF;
+                        frameStreamId = getInt(frameHeader, 5) & MAX_WINDOW_SIZE;
+                        framePayloadSize = 0;
+                        if (frameLength > framePayload.length) {
+                            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame too large !!");
+                        }
+                    }
+                }
+                if (frameHeaderSize == FRAME_HEADER_SIZE) {
+                    int readSize = Math.min(buffer.remaining(), frameLength - framePayloadSize);
+                    buffer.get(framePayload, framePayloadSize, readSize);
+                    framePayloadSize += readSize;
+                    if (framePayloadSize == frameLength) {
+                        frameHeaderSize = 0;
+                        processFrame();
+                    }
+                }
+            }
+        }
+        catch (Http2Exception ex) {
+            goAway(ex.getErrorCode());
+        }
+    }
+
+    /**
+     * Processes the frame that was completely read
+     * @throws Http2Exception if the frame is a connection error
+     */
+    private void processFrame() throws Http2Exception {
+
+        //A header block must be followed only by its continuation frames
+        if (headerBlockStreamId != 0 && (frameType != FRAME_CONTINUATION || frameStreamId != headerBlockStreamId)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Expected continuation frame !!");
+        }
+        switch (frameType) {
+            case FRAME_DATA:
+                processData();
+                break;
+            case FRAME_HEADERS:
+                processHeaders();
+                break;
+            case FRAME_PRIORITY:
+                if (frameStreamId == 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid priority frame !!");
+                }
+                if (frameLength != PRIORITY_SIZE) {
+                    resetStream(frameStreamId, Http2Exception.FRAME_SIZE_ERROR);
+                }
+                break;
+            case FRAME_RST_STREAM:
+                processResetStream();
+                break;
+            case FRAME_SETTINGS:
+                processSettings();
+                break;
+            case FRAME_PUSH_PROMISE:
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Push promise not allowed !!");
+            case FRAME_PING:
+                processPing();
+                break;
+            case FRAME_GOAWAY:
+                processGoAway();
+                break;
+            case FRAME_WINDOW_UPDATE:
+                processWindowUpdate();
+                break;
+            case FRAME_CONTINUATION:
+                if (headerBlockStreamId == 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected continuation frame !!");
+                }
+                appendHeaderBlock(0, frameLength);
+                if ((frameFlags & FLAG_END_HEADERS) != 0) {
+                    processHeaderBlock();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Processes a DATA frame, the data is appended to the body of the stream
+     * @throws Http2Exception if the frame is a connection error
+     */
+    private void processData() throws Http2Exception {
+
+        if (frameStreamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid data frame !!");
+        }
+        int dataOffset = 0;
+        int dataLength = frameLength;
+        if ((frameFlags & FLAG_PADDED) != 0) {
+            if (frameLength == 0) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid padding !!");
+            }
+            dataOffset = 1;
+            dataLength -= (framePayload[0] & 0xFF) + 1;
+            if (dataLength < 0) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid padding !!");
+            }
+        }
+
+        //The connection window is replenished even if the stream is closed
+        receivedSize += frameLength;
+        if (receivedSize >= WINDOW_UPDATE_THRESHOLD) {
+            writeWindowUpdate(0, receivedSize);
+            receivedSize = 0;
+        }
+
+        Http2Stream stream;
+        synchronized (this) {
+            stream = streams.get(frameStreamId);
+        }
+        if (stream == null || stream.isRemoteClosed()) {
+            if (frameStreamId > lastStreamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Data frame on idle stream !!");
+            }
+            resetStream(frameStreamId, Http2Exception.STREAM_CLOSED);
+        }
+        else {
+            stream.getRequestBody().write(ByteBuffer.wrap(framePayload, dataOffset, dataLength), dataLength);
+            if ((frameFlags & FLAG_END_STREAM) != 0) {
+                endRequest(stream);
+            }
+            else {
+                int streamReceivedSize = stream.getReceivedSize() + frameLength;
+                if (streamReceivedSize >= WINDOW_UPDATE_THRESHOLD) {
+                    writeWindowUpdate(stream.getId(), streamReceivedSize);
+                    streamReceivedSize = 0;
+                }
+                stream.setReceivedSize(streamReceivedSize);
+            }
+        }
+    }
+
+    /**
+     * Processes a HEADERS frame, the fragment starts a new header block
+     * @throws Http2Exception if the frame is a connection error
+     */
+    private void processHeaders() throws Http2Exception {
+
+        if (frameStreamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid headers frame !!");
+        }
+        int fragmentOffset = 0;
+        int fragmentLength = frameLength;
+        int paddingLength = 0;
+        if ((frameFlags & FLAG_PADDED) != 0) {
+            if (frameLength == 0) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid padding !!");
+            }
+            paddingLength = framePayload[0] & 0xFF;
+            fragmentOffset++;
+            fragmentLength--;
+        }
+        if ((frameFlags & FLAG_PRIORITY) != 0) {
+            fragmentOffset += PRIORITY_SIZE;
+            fragmentLength -= PRIORITY_SIZE;
+        }
+        fragmentLength -= paddingLength;
+        if (fragmentLength < 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid headers frame !!");
+        }
+        headerBlockSize = 0;
+        headerBlockStreamId = frameStreamId;
+        headerBlockEndStream = (frameFlags & FLAG_END_STREAM) != 0;
+        appendHeaderBlock(fragmentOffset, fragmentLength);
+        if ((frameFlags & FLAG_END_HEADERS) != 0) {
+            processHeaderBlock();
+        }
+    }
+
+    /**
+     * Appends a fragment of the frame payload to the header block
+     * @param offset offset of the fragment in the payload
+     * @param length length of the fragment
+     * @throws Http2Exception if the header block is too large
+     */
+    private void appendHeaderBlock(int offset, int length) throws Http2Exception {
+        if (headerBlockSize + length > headerBlock.length) {
+            if (headerBlockSize + length > MAX_HEADER_LIST_SIZE) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block too large !!");
+            }
+            headerBlock = Arrays.copyOf(headerBlock, Math.min(Math.max(headerBlock.length * 2, headerBlockSize + length), MAX_HEADER_LIST_SIZE));
+        }
+        System.arraycopy(framePayload, offset, headerBlock, headerBlockSize, length);
+        headerBlockSize += length;
+    }
+
+    /**
+     * Processes a complete header block, starting a new stream or ending the request of a stream
+     * @throws Http2Exception if the header block is a connection error
+     */
+    private void processHeaderBlock() throws Http2Exception {
+
+        //Header blocks are always decoded to keep the decoder table in sync
+        List<String[]> fields = headerDecoder.decode(headerBlock, headerBlockSize);
+        int streamId = headerBlockStreamId;
+        headerBlockStreamId = 0;
+        headerBlockSize = 0;
+
+        Http2Stream stream;
+        synchronized (this) {
+            stream = streams.get(streamId);
+        }
+        if (stream != null) {
+            //Trailers of a request, they are ignored
+            if (stream.isRemoteClosed() || !headerBlockEndStream) {
+                resetStream(streamId, Http2Exception.PROTOCOL_ERROR);
+            }
+            else {
+                endRequest(stream);
+            }
+        }
+        else if (streamId <= lastStreamId || (streamId & 1) == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid stream identifier !!");
+        }
+        else {
+            lastStreamId = streamId;
+            if (!goAwayReceived) {
+                synchronized (this) {
+                    if (streams.size() < maxConcurrentStreams) {
+                        stream = new Http2Stream(streamId, this, peerInitialWindowSize);
+                    }
+                }
+                if (stream == null) {
+                    resetStream(streamId, Http2Exception.REFUSED_STREAM);
+                }
+                else if (!setRequest(stream, fields)) {
+                    resetStream(streamId, Http2Exception.PROTOCOL_ERROR);
+                }
+                else {
+                    synchronized (this) {
+                        streams.put(streamId, stream);
+                    }
+                    if (headerBlockEndStream) {
+                        endRequest(stream);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Indicates if a header field name has uppercase characters
+     * @param name name of the header field
+     * @return boolean
+     */
+    private static boolean hasUppercase(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char character = name.charAt(i);
+            if (character >= 'A' && character <= 'Z') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the request of a stream with the decoded header fields
+     * @param stream stream of the request
+     * @param fields decoded header fields
+     * @return boolean false if the request is malformed
+     */
+    private boolean setRequest(Http2Stream stream, List<String[]> fields) {
+
+        String method = null;
+        String path = null;
+        String scheme = null;
+        String authority = null;
+        StringBuilder cookie = null;
+        boolean regularHeaderFound = false;
+        HttpHeaders headers = new HttpHeaders();
+        for (String[] field : fields) {
+            String name = field[0];
+            String value = field[1];
+            //Field names must be lowercase in http2
+            if (hasUppercase(name)) {
+                return false;
+            }
+            if (name.startsWith(PSEUDO_HEADER_PREFIX)) {
+                if (regularHeaderFound) {
+                    return false;
+                }
+                switch (name) {
+                    case METHOD_PSEUDO_HEADER: method = value; break;
+                    case PATH_PSEUDO_HEADER: path = value; break;
+                    case SCHEME_PSEUDO_HEADER: scheme = value; break;
+                    case AUTHORITY_PSEUDO_HEADER: authority = value; break;
+                    default: return false;
+                }
+            }
+            else {
+                regularHeaderFound = true;
+                if (name.equalsIgnoreCase(HttpHeader.COOKIE)) {
+                    //Cookies may be split in many fields
+                    if (cookie == null) {
+                        cookie = new StringBuilder(value);
+                    }
+                    else {
+                        cookie.append(COOKIE_SEPARATOR).append(value);
+                    }
+                }
+                else {
+                    headers.add(name, value);
+                }
+            }
+        }
+        if (method == null || path == null || scheme == null) {
+            return false;
+        }
+        if (cookie != null) {
+            headers.add(HttpHeader.COOKIE, cookie.toString());
+        }
+        if (authority != null && !headers.contains(HttpHeader.HOST)) {
+            headers.add(HttpHeader.HOST, authority);
+        }
+
+        try {
+            HttpMethod requestMethod = HttpMethod.valueOf(method);
+            URI requestUri = new URI(path);
+            long contentLength = -1;
+            String contentLengthValue = headers.get(HttpHeader.CONTENT_LENGTH);
+            if (contentLengthValue != null) {
+                contentLength = Long.parseLong(contentLengthValue);
+            }
+            HttpRequestBody body = new HttpRequestBody(server.getProperty(HttpServer.REQUEST_BODY_MEMORY_THRESHOLD_PROPERTY_NAME, HttpServer.DEFAULT_REQUEST_BODY_MEMORY_THRESHOLD), contentLength);
+            stream.setRequest(requestMethod, requestUri, headers, body);
+        }
+        catch (IllegalArgumentException | URISyntaxException ex) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Ends the request of a stream and dispatches the stream to the server executor
+     * @param stream stream of the request
+     */
+    private void endRequest(Http2Stream stream) {
+        stream.setRemoteClosed(true);
+        stream.setDispatched(true);
+        stream.startExchange();
+        server.dispatchStream(stream);
+    }
+
+    /**
+     * Processes a RST_STREAM frame
+     * @throws Http2Exception if the frame is a connection error
+     */
+    private void processResetStream() throws Http2Exception {
+
+        if (frameStreamId == 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid reset frame !!");
+        }
+        if (frameLength != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid reset frame !!");
+        }
+        if (frameStreamId > lastStreamId) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Reset of idle stream !!");
+        }
+        removeStream(frameStreamId);
+    }
+
+    /**
+     * Processes a SETTINGS frame, the settings are acknowledged once applied
+     * @throws Http2Exception if the frame is a connection error
+     */
+    private void processSettings() throws Http2Exception {
+
+        if (frameStreamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid settings frame !!");
+        }
+        if ((frameFlags & FLAG_ACK) != 0) {
+            if (frameLength != 0) {
+                throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid settings frame !!");
+            }
+        }
+        else {
+            applySettings(framePayload, 0, frameLength);
+            synchronized (writeLock) {
+                writeFrame(FRAME_SETTINGS, FLAG_ACK, 0, null);
+            }
+        }
+    }
+
+    /**
+     * Applies the settings of the client
+     * @param settings bytes with the settings
+     * @param offset offset of the settings
+     * @param length length of the settings
+     * @throws Http2Exception if the settings are not valid
+     */
+    protected void applySettings(byte[] settings, int offset, int length) throws Http2Exception {
+
+        if (length % SETTING_SIZE != 0) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid settings !!");
+        }
+        for (int index = offset; index < offset + length; index += SETTING_SIZE) {
+            int id = ((settings[index] & 0xFF) << 8) | (settings[index + 1] & 0xFF);
+            int value = getInt(settings, index + 2);
+            switch (id) {
+                case SETTINGS_ENABLE_PUSH:
+                    if (value != 0 && value != 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid enable push setting !!");
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Invalid initial window size !!");
+                    }
+                    synchronized (this) {
+                        int delta = value - peerInitialWindowSize;
+                        peerInitialWindowSize = value;
+                        for (Http2Stream stream : streams.values()) {
+                            stream.setSendWindow(stream.getSendWindow() + delta);
+                        }
+                        notifyAll();
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid max frame size !!");
+                    }
+                    synchronized (this) {
+                        peerMaxFrameSize = value;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Processes a PING frame, answering it with the same payload
+     * @throws Http2Exception if the frame is a connection error
+     */
+    private void processPing() throws Http2Exception {
+
+        if (frameStreamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid ping frame !!");
+        }
+        if (frameLength != PING_SIZE) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid ping frame !!");
+        }
+        if ((frameFlags & FLAG_ACK) == 0) {
+            synchronized (writeLock) {
+                writeFrame(FRAME_PING, FLAG_ACK, 0, ByteBuffer.wrap(Arrays.copyOf(framePayload, PING_SIZE)));
+            }
+        }
+    }
+
+    /**
+     * Processes a GOAWAY frame, the connection is closed when its streams are completed
+     * @throws Http2Exception if the frame is a connection error
+     */
+    private void processGoAway() throws Http2Exception {
+
+        if (frameStreamId != 0) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid go away frame !!");
+        }
+        boolean closeConnection;
+        synchronized (this) {
+            goAwayReceived = true;
+            closeConnection = streams.isEmpty();
+        }
+        if (closeConnection) {
+            connection.closeWhenWritten();
+        }
+    }
+
+    /**
+     * Processes a WINDOW_UPDATE frame, waking up the workers waiting for the window
+     * @throws Http2Exception if the frame is a connection error
+     */
+    private void processWindowUpdate() throws Http2Exception {
+
+        if (frameLength != 4) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Invalid window update frame !!");
+        }
+        int increment = getInt(framePayload, 0) & MAX_WINDOW_SIZE;
+        int streamErrorCode = -1;
+        synchronized (this) {
+            if (frameStreamId == 0) {
+                if (increment == 0) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Invalid window increment !!");
+                }
+                if ((long)sendWindow + increment > MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Window size overflow !!");
+                }
+                sendWindow += increment;
+            }
+            else {
+                Http2Stream stream = streams.get(frameStreamId);
+                if (stream != null) {
+                    if (increment == 0) {
+                        streamErrorCode = Http2Exception.PROTOCOL_ERROR;
+                    }
+                    else if ((long)stream.getSendWindow() + increment > MAX_WINDOW_SIZE) {
+                        streamErrorCode = Http2Exception.FLOW_CONTROL_ERROR;
+                    }
+                    else {
+                        stream.setSendWindow(stream.getSendWindow() + increment);
+                    }
+                }
+            }
+            notifyAll();
+        }
+        if (streamErrorCode >= 0) {
+            resetStream(frameStreamId, streamErrorCode);
+        }
+    }
+
+    /**
+     * Resets a stream, sending a RST_STREAM frame to the client
+     * @param streamId identifier of the stream
+     * @param errorCode http/2 error code
+     */
+    protected void resetStream(int streamId, int errorCode) {
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        payload.putInt(errorCode).flip();
+        synchronized (writeLock) {
+            writeFrame(FRAME_RST_STREAM, 0, streamId, payload);
+        }
+        removeStream(streamId);
+    }
+
+    /**
+     * Marks a stream as reset. Streams that were not dispatched are removed,
+     * dispatched streams are removed when their worker completes them
+     * @param streamId identifier of the stream
+     */
+    private void removeStream(int streamId) {
+        synchronized (this) {
+            Http2Stream stream = streams.get(streamId);
+            if (stream != null) {
+                stream.setReset(true);
+                if (!stream.isDispatched()) {
+                    streams.remove(streamId);
+                    stream.release();
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Completes a stream whose exchange was handled.
+     * Streams whose response was not ended are reset
+     * @param stream stream to complete
+     */
+    protected void onStreamComplete(Http2Stream stream) {
+        try {
+            if (!closed && !stream.isReset() && !stream.isEndStreamSent()) {
+                resetStream(stream.getId(), Http2Exception.INTERNAL_ERROR);
+            }
+        }
+        catch (Exception ex) {}
+        stream.release();
+        boolean closeConnection;
+        synchronized (this) {
+            streams.remove(stream.getId());
+            closeConnection = goAwayReceived && streams.isEmpty();
+        }
+        if (closeConnection) {
+            connection.closeWhenWritten();
+        }
+    }
+
+    /**
+     * Sends a GOAWAY frame and closes the connection
+     * @param errorCode http/2 error code
+     */
+    private void goAway(int errorCode) {
+        try {
+            ByteBuffer payload = ByteBuffer.allocate(8);
+            payload.putInt(lastStreamId).putInt(errorCode).flip();
+            synchronized (writeLock) {
+                writeFrame(FRAME_GOAWAY, 0, 0, payload);
+            }
+        }
+        catch (Exception ex) {}
+        connection.closeWhenWritten();
+    }
+
+    /**
+     * Closes the http/2 connection, waking up the workers waiting for a window
+     */
+    protected void close() {
+        closed = true;
+        synchronized (this) {
+            for (Http2Stream stream : new ArrayList<>(streams.values())) {
+                if (!stream.isDispatched()) {
+                    streams.remove(stream.getId());
+                    stream.release();
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes the response headers of a stream, split in continuation frames if needed
+     * @param stream stream of the response
+     * @param headerBlock encoded header block
+     * @param endStream indicates if the response has no content
+     */
+    protected void writeHeaders(Http2Stream stream, byte[] headerBlock, boolean endStream) {
+        int maxFrameSize;
+        synchronized (this) {
+            maxFrameSize = peerMaxFrameSize;
+        }
+        synchronized (writeLock) {
+            checkStream(stream);
+            int offset = 0;
+            int type = FRAME_HEADERS;
+            do {
+                int length = Math.min(headerBlock.length - offset, maxFrameSize);
+                int flags = 0;
+                if (offset + length == headerBlock.length) {
+                    flags |= FLAG_END_HEADERS;
+                }
+                if (type == FRAME_HEADERS && endStream) {
+                    flags |= FLAG_END_STREAM;
+                }
+                writeFrame(type, flags, stream.getId(), ByteBuffer.wrap(headerBlock, offset, length));
+                offset += length;
+                type = FRAME_CONTINUATION;
+            } while (offset < headerBlock.length);
+            if (endStream) {
+                stream.setEndStreamSent(true);
+            }
+        }
+    }
+
+    /**
+     * Writes content of a stream in DATA frames.
+     * If the flow control windows are exhausted the calling thread waits
+     * until the client updates them
+     * @param stream stream of the response
+     * @param content buffer with the content in read mode, or null
+     * @param endStream indicates if this is the last content of the response
+     */
+    protected void writeData(Http2Stream stream, ByteBuffer content, boolean endStream) {
+        if (content == null || !content.hasRemaining()) {
+            synchronized (writeLock) {
+                checkStream(stream);
+                writeFrame(FRAME_DATA, endStream? FLAG_END_STREAM : 0, stream.getId(), null);
+                stream.setEndStreamSent(endStream);
+            }
+        }
+        else {
+            while (content.hasRemaining()) {
+                int size = acquireSendWindow(stream, content.remaining());
+                ByteBuffer frameContent = content.duplicate();
+                frameContent.limit(content.position() + size);
+                content.position(content.position() + size);
+                boolean lastFrame = endStream && !content.hasRemaining();
+                synchronized (writeLock) {
+                    checkStream(stream);
+                    writeFrame(FRAME_DATA, lastFrame? FLAG_END_STREAM : 0, stream.getId(), frameContent);
+                    stream.setEndStreamSent(lastFrame);
+                }
+            }
+        }
+    }
+
+    /**
+     * Transfers a region of a file in DATA frames without copying it to the heap.
+     * If the flow control windows are exhausted the calling thread waits
+     * until the client updates them
+     * @param stream stream of the response
+     * @param fileChannel channel of the file
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    protected void transferData(Http2Stream stream, FileChannel fileChannel, long position, long count) {
+        while (count > 0) {
+            int size = acquireSendWindow(stream, (int)Math.min(count, Integer.MAX_VALUE));
+            synchronized (writeLock) {
+                checkStream(stream);
+                writeFrame(FRAME_DATA, 0, stream.getId(), null, size);
+                connection.transferFrom(fileChannel, position, size);
+            }
+            position += size;
+            count -= size;
+        }
+    }
+
+    /**
+     * Reserves space of the connection and stream send windows, waiting
+     * until the client updates them if they are exhausted. Reactor threads
+     * fail instead of waiting, because they are the ones that read the updates
+     * @param stream stream of the response
+     * @param requestedSize amount of bytes to send
+     * @return amount of bytes that can be sent in a frame
+     */
+    private synchronized int acquireSendWindow(Http2Stream stream, int requestedSize) {
+        long timeout = server.getProperty(HttpServer.CONNECTION_MAX_INACTIVE_INTERVAL_PROPERTY_NAME, HttpServer.DEFAULT_CONNECTION_MAX_INACTIVE_INTERVAL);
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            checkStream(stream);
+            int window = Math.min(sendWindow, stream.getSendWindow());
+            if (window > 0) {
+                int size = Math.min(Math.min(window, requestedSize), peerMaxFrameSize);
+                sendWindow -= size;
+                stream.setSendWindow(stream.getSendWindow() - size);
+                return size;
+            }
+            long remainingTime = deadline - System.currentTimeMillis();
+            if (remainingTime <= 0) {
+                throw new HttpException("Write timeout !!");
+            }
+
+            //The reactor never waits for the window, it is the only thread that reads the window updates
+            if (connection.getReactor().isReactorThread()) {
+                throw new HttpException("Flow control window exhausted in the reactor thread !!");
+            }
+            try {
+                wait(remainingTime);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new HttpException("Write interrupted !!", ex);
+            }
+        }
+    }
+
+    /**
+     * Checks that a stream can be written
+     * @param stream stream to check
+     */
+    private void checkStream(Http2Stream stream) {
+        if (closed) {
+            throw new HttpException("Connection closed !!");
+        }
+        if (stream.isReset()) {
+            throw new HttpException("Stream reset !!");
+        }
+    }
+
+    /**
+     * Writes a WINDOW_UPDATE frame
+     * @param streamId identifier of the stream, or 0 for the connection
+     * @param increment window size increment
+     */
+    private void writeWindowUpdate(int streamId, int increment) {
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        payload.putInt(increment).flip();
+        synchronized (writeLock) {
+            writeFrame(FRAME_WINDOW_UPDATE, 0, streamId, payload);
+        }
+    }
+
+    /**
+     * Writes a frame, the write lock must be held
+     * @param type type of the frame
+     * @param flags flags of the frame
+     * @param streamId identifier of the stream
+     * @param payload payload of the frame in read mode, or null
+     */
+    private void writeFrame(int type, int flags, int streamId, ByteBuffer payload) {
+        writeFrame(type, flags, streamId, payload, payload != null? payload.remaining() : 0);
+    }
+
+    /**
+     * Writes a frame, the write lock must be held.
+     * If the payload is null only the frame header is written
+     * @param type type of the frame
+     * @param flags flags of the frame
+     * @param streamId identifier of the stream
+     * @param payload payload of the frame in read mode, or null
+     * @param length length of the payload
+     */
+    private void writeFrame(int type, int flags, int streamId, ByteBuffer payload, int length) {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        header.put((byte)(length >>> 16)).put((byte)(length >>> 8)).put((byte)length);
+        header.put((byte)type).put((byte)flags).putInt(streamId);
+        header.flip();
+        if (payload != null) {
+            connection.write(header, payload);
+        }
+        else {
+            connection.write(header);
+        }
+    }
+
+    /**
+     * Reads a big endian integer
+     * @param bytes bytes to read
+     * @param index index of the integer
+     * @return integer value
+     */
+    private static int getInt(byte[] bytes, int index) {
+        return ((bytes[index] & 0xFF) << 24) | ((bytes[index + 1] & 0xFF) << 16) | ((bytes[index + 2] & 0xFF) << 8) | (bytes[index + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,37 @@
+package org.neogroup.httpserver;
+
+/**
+ * Http/2 protocol exception
+ */
+public class Http2Exception extends HttpException {
+
+    public static final int NO_ERROR = 0x0;
+    public static final int PROTOCOL_ERROR = 0x1;
+    public static final int INTERNAL_ERROR = 0x2;
+    public static final int FLOW_CONTROL_ERROR = 0x3;
+    public static final int STREAM_CLOSED = 0x5;
+    public static final int FRAME_SIZE_ERROR = 0x6;
+    public static final int REFUSED_STREAM = 0x7;
+    public static final int CANCEL = 0x8;
+    public static final int COMPRESSION_ERROR = 0x9;
+
+    private final int errorCode;
+
+    /**
+     * Constructor for the http/2 exception
+     * @param errorCode http/2 error code
+     * @param msg message of the exception
+     */
+    public Http2Exception(int errorCode, String msg) {
+        super(msg);
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Obtains the http/2 error code
+     * @return error code
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+}
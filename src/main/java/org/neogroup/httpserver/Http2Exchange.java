@@ -0,0 +1,96 @@
+package org.neogroup.httpserver;
+
+import org.neogroup.util.MimeUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Http exchange of a http/2 stream.
+ * The response head is sent as a HEADERS frame and the content as DATA
+ * frames, the end of the response is signaled with the end of the stream
+ */
+public class Http2Exchange extends HttpExchange {
+
+    private final Http2Stream stream;
+
+    /**
+     * Constructor for the http/2 exchange
+     * @param stream stream associated with the exchange
+     */
+    protected Http2Exchange(Http2Stream stream) {
+        super(stream.getConnection().getConnection());
+        this.stream = stream;
+    }
+
+    /**
+     * Obtains the stream associated with the exchange
+     * @return http/2 stream
+     */
+    public Http2Stream getStream() {
+        return stream;
+    }
+
+    /**
+     * Writes the buffered content in DATA frames
+     * @param complete indicates if this is the last content of the response
+     */
+    @Override
+    protected void writeBuffer(boolean complete) {
+
+        ByteBuffer content = getResponseBodyContent();
+        boolean hasContent = content != null && content.hasRemaining();
+        try {
+            if (!isResponseHeadersSent()) {
+                saveSession();
+                if (!hasResponseHeader(HttpHeader.CONTENT_TYPE)) {
+                    addResponseHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
+                }
+                if (complete && !hasResponseHeader(HttpHeader.CONTENT_LENGTH)) {
+                    addResponseHeader(HttpHeader.CONTENT_LENGTH, String.valueOf(getResponseBodySize()));
+                }
+                String date = hasResponseHeader(HttpHeader.DATE)? null : HttpServerUtils.getCurrentDate();
+                byte[] headerBlock = Http2HeaderEncoder.encode(getResponseCode(), getResponseHeaderTable(), date);
+                setResponseHeadersSent(true);
+                stream.writeHeaders(headerBlock, complete && !hasContent);
+            }
+            if (hasContent || (complete && !stream.isEndStreamSent())) {
+                stream.writeData(content, complete);
+            }
+        }
+        finally {
+            clearResponseBodyContent(complete);
+        }
+    }
+
+    /**
+     * Transfers a region of a file in DATA frames.
+     * Streams are never handled in the reactor threads, so the file is not deferred
+     * @param file file to transfer
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    @Override
+    protected void transferResponseBody(File file, long position, long count) {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            stream.transferData(fileChannel, position, count);
+        }
+        catch (IOException ex) {
+            throw new HttpException("Error reading file \"" + file + "\" !!", ex);
+        }
+    }
+
+    /**
+     * Transfers a region of a file in DATA frames
+     * @param fileChannel channel of the file
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    @Override
+    protected void transferResponseBody(FileChannel fileChannel, long position, long count) {
+        stream.transferData(fileChannel, position, count);
+    }
+}
@@ -0,0 +1,142 @@
+package org.neogroup.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decoder of http/2 header blocks (RFC 7541).
+ * The decoder keeps the dynamic table of the connection, so all the header
+ * blocks of a connection must be decoded in the order they were received
+ */
+public class Http2HeaderDecoder {
+
+    private static final int INDEXED_FIELD_MASK = 0x80;
+    private static final int INCREMENTAL_INDEXING_MASK = 0xC0;
+    private static final int INCREMENTAL_INDEXING_PATTERN = 0x40;
+    private static final int TABLE_SIZE_UPDATE_MASK = 0xE0;
+    private static final int TABLE_SIZE_UPDATE_PATTERN = 0x20;
+    private static final int HUFFMAN_MASK = 0x80;
+    private static final int MAX_INTEGER_SHIFT = 28;
+
+    private final Http2HeaderTable table;
+    private final int maxTableSize;
+    private final int maxHeaderListSize;
+    private byte[] block;
+    private int position;
+    private int limit;
+
+    /**
+     * Constructor for the header decoder
+     * @param maxTableSize maximum size of the dynamic table
+     * @param maxHeaderListSize maximum size of a decoded header list
+     */
+    protected Http2HeaderDecoder(int maxTableSize, int maxHeaderListSize) {
+        this.table = new Http2HeaderTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    /**
+     * Decodes a header block
+     * @param block bytes of the header block
+     * @param length length of the header block
+     * @return list of fields, each field is an array with its name and its value
+     * @throws Http2Exception if the block is not valid
+     */
+    public List<String[]> decode(byte[] block, int length) throws Http2Exception {
+
+        this.block = block;
+        this.position = 0;
+        this.limit = length;
+        List<String[]> fields = new ArrayList<>();
+        int headerListSize = 0;
+        try {
+            while (position < limit) {
+                int firstByte = block[position] & 0xFF;
+                String name;
+                String value;
+                if ((firstByte & INDEXED_FIELD_MASK) != 0) {
+                    String[] field = table.get(readInteger(7));
+                    name = field[0];
+                    value = field[1];
+                }
+                else if ((firstByte & INCREMENTAL_INDEXING_MASK) == INCREMENTAL_INDEXING_PATTERN) {
+                    int nameIndex = readInteger(6);
+                    name = nameIndex > 0? table.get(nameIndex)[0] : readString();
+                    value = readString();
+                    table.add(name, value);
+                }
+                else if ((firstByte & TABLE_SIZE_UPDATE_MASK) == TABLE_SIZE_UPDATE_PATTERN) {
+                    int tableSize = readInteger(5);
+                    if (tableSize > maxTableSize) {
+                        throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid header table size !!");
+                    }
+                    table.setMaxSize(tableSize);
+                    continue;
+                }
+                else {
+                    //Literal field without indexing or never indexed
+                    int nameIndex = readInteger(4);
+                    name = nameIndex > 0? table.get(nameIndex)[0] : readString();
+                    value = readString();
+                }
+                headerListSize += name.length() + value.length() + 32;
+                if (headerListSize > maxHeaderListSize) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header list too large !!");
+                }
+                fields.add(new String[] {name, value});
+            }
+        }
+        finally {
+            this.block = null;
+        }
+        return fields;
+    }
+
+    /**
+     * Reads an integer with the given prefix size
+     * @param prefixBits size of the prefix in bits
+     * @return integer value
+     * @throws Http2Exception if the integer is not valid
+     */
+    private int readInteger(int prefixBits) throws Http2Exception {
+        int prefixMask = (1 << prefixBits) - 1;
+        int value = block[position++] & prefixMask;
+        if (value == prefixMask) {
+            int shift = 0;
+            int currentByte;
+            do {
+                if (position >= limit || shift > MAX_INTEGER_SHIFT) {
+                    throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid header integer !!");
+                }
+                currentByte = block[position++] & 0xFF;
+                value += (currentByte & 0x7F) << shift;
+                shift += 7;
+            } while ((currentByte & 0x80) != 0);
+            if (value < 0) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid header integer !!");
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads a string literal
+     * @return string value
+     * @throws Http2Exception if the string is not valid
+     */
+    private String readString() throws Http2Exception {
+        if (position >= limit) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid header string !!");
+        }
+        boolean huffmanEncoded = (block[position] & HUFFMAN_MASK) != 0;
+        int length = readInteger(7);
+        if (length > limit - position) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid header string !!");
+        }
+        String value = huffmanEncoded? Http2Huffman.decode(block, position, length) : new String(block, position, length, StandardCharsets.ISO_8859_1);
+        position += length;
+        return value;
+    }
+}
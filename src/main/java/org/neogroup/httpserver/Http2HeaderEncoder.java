@@ -0,0 +1,121 @@
+package org.neogroup.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Encoder of http/2 header blocks (RFC 7541).
+ * Fields are encoded with references to the static table and plain literals
+ * that are never added to the dynamic table. The encoder keeps no state, so
+ * header blocks of different streams can be encoded concurrently and sent
+ * in any order
+ */
+public final class Http2HeaderEncoder {
+
+    private static final String STATUS_PSEUDO_HEADER = ":status";
+    private static final int INDEXED_FIELD_PATTERN = 0x80;
+    private static final int LITERAL_FIELD_PATTERN = 0x00;
+    private static final String[] CONNECTION_HEADERS = {
+        HttpHeader.CONNECTION.toLowerCase(Locale.US),
+        HttpHeader.TRANSFER_ENCODING.toLowerCase(Locale.US),
+        "keep-alive",
+        "proxy-connection",
+        HttpHeader.UPGRADE.toLowerCase(Locale.US)
+    };
+
+    private Http2HeaderEncoder() {}
+
+    /**
+     * Encodes the headers of a response
+     * @param responseCode response code
+     * @param headers headers of the response
+     * @param date date of the response, or null if the headers contain the date
+     * @return encoded header block
+     */
+    public static byte[] encode(int responseCode, HttpHeaders headers, String date) {
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        String status = String.valueOf(responseCode);
+        int statusIndex = Http2HeaderTable.getStaticIndex(STATUS_PSEUDO_HEADER, status);
+        if (statusIndex > 0) {
+            writeInteger(block, INDEXED_FIELD_PATTERN, 7, statusIndex);
+        }
+        else {
+            writeField(block, STATUS_PSEUDO_HEADER, status);
+        }
+        if (date != null) {
+            writeField(block, HttpHeader.DATE.toLowerCase(Locale.US), date);
+        }
+        for (int i = 0; i < headers.size(); i++) {
+            String headerName = headers.getName(i).toLowerCase(Locale.US);
+            if (!isConnectionHeader(headerName)) {
+                writeField(block, headerName, headers.getValue(i));
+            }
+        }
+        return block.toByteArray();
+    }
+
+    /**
+     * Indicates if a header is specific of a http/1.1 connection, these headers must not be sent in http/2
+     * @param headerName lower case name of the header
+     * @return boolean
+     */
+    private static boolean isConnectionHeader(String headerName) {
+        for (String connectionHeader : CONNECTION_HEADERS) {
+            if (connectionHeader.equals(headerName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes a literal field without indexing
+     * @param block block to write the field
+     * @param name lower case name of the field
+     * @param value value of the field
+     */
+    private static void writeField(ByteArrayOutputStream block, String name, String value) {
+        int nameIndex = Http2HeaderTable.getStaticNameIndex(name);
+        writeInteger(block, LITERAL_FIELD_PATTERN, 4, nameIndex);
+        if (nameIndex == 0) {
+            writeString(block, name);
+        }
+        writeString(block, value);
+    }
+
+    /**
+     * Writes a plain string literal
+     * @param block block to write the string
+     * @param value string value
+     */
+    private static void writeString(ByteArrayOutputStream block, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        writeInteger(block, 0, 7, bytes.length);
+        block.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes an integer with the given prefix size
+     * @param block block to write the integer
+     * @param pattern bits of the first byte that are not part of the prefix
+     * @param prefixBits size of the prefix in bits
+     * @param value integer value
+     */
+    private static void writeInteger(ByteArrayOutputStream block, int pattern, int prefixBits, int value) {
+        int prefixMask = (1 << prefixBits) - 1;
+        if (value < prefixMask) {
+            block.write(pattern | value);
+        }
+        else {
+            block.write(pattern | prefixMask);
+            value -= prefixMask;
+            while (value >= 0x80) {
+                block.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            block.write(value);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.neogroup.httpserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Header table of the http/2 header compression (RFC 7541).
+ * The table is formed by the static table followed by a dynamic table whose
+ * entries are evicted when its size exceeds the maximum size
+ */
+public class Http2HeaderTable {
+
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[][] STATIC_TABLE = {
+        {":authority", ""},
+        {":method", "GET"},
+        {":method", "POST"},
+        {":path", "/"},
+        {":path", "/index.html"},
+        {":scheme", "http"},
+        {":scheme", "https"},
+        {":status", "200"},
+        {":status", "204"},
+        {":status", "206"},
+        {":status", "304"},
+        {":status", "400"},
+        {":status", "404"},
+        {":status", "500"},
+        {"accept-charset", ""},
+        {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""},
+        {"accept-ranges", ""},
+        {"accept", ""},
+        {"access-control-allow-origin", ""},
+        {"age", ""},
+        {"allow", ""},
+        {"authorization", ""},
+        {"cache-control", ""},
+        {"content-disposition", ""},
+        {"content-encoding", ""},
+        {"content-language", ""},
+        {"content-length", ""},
+        {"content-location", ""},
+        {"content-range", ""},
+        {"content-type", ""},
+        {"cookie", ""},
+        {"date", ""},
+        {"etag", ""},
+        {"expect", ""},
+        {"expires", ""},
+        {"from", ""},
+        {"host", ""},
+        {"if-match", ""},
+        {"if-modified-since", ""},
+        {"if-none-match", ""},
+        {"if-range", ""},
+        {"if-unmodified-since", ""},
+        {"last-modified", ""},
+        {"link", ""},
+        {"location", ""},
+        {"max-forwards", ""},
+        {"proxy-authenticate", ""},
+        {"proxy-authorization", ""},
+        {"range", ""},
+        {"referer", ""},
+        {"refresh", ""},
+        {"retry-after", ""},
+        {"server", ""},
+        {"set-cookie", ""},
+        {"strict-transport-security", ""},
+        {"transfer-encoding", ""},
+        {"user-agent", ""},
+        {"vary", ""},
+        {"via", ""},
+        {"www-authenticate", ""}
+    };
+
+    private static final Map<String, Integer> staticNameIndexes;
+    private static final Map<String, Integer> staticFieldIndexes;
+
+    static {
+        staticNameIndexes = new HashMap<>();
+        staticFieldIndexes = new HashMap<>();
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            staticNameIndexes.put(STATIC_TABLE[i][0], i + 1);
+            staticFieldIndexes.put(STATIC_TABLE[i][0] + ":" + STATIC_TABLE[i][1], i + 1);
+        }
+    }
+
+    private final List<String[]> dynamicTable;
+    private int size;
+    private int maxSize;
+
+    /**
+     * Constructor for the header table
+     * @param maxSize maximum size of the dynamic table
+     */
+    protected Http2HeaderTable(int maxSize) {
+        this.dynamicTable = new ArrayList<>();
+        this.size = 0;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Obtains the index of a field in the static table
+     * @param name name of the field
+     * @param value value of the field
+     * @return index of the field, or 0 if the field is not in the table
+     */
+    public static int getStaticIndex(String name, String value) {
+        Integer index = staticFieldIndexes.get(name + ":" + value);
+        return index != null? index : 0;
+    }
+
+    /**
+     * Obtains the index of a field name in the static table
+     * @param name name of the field
+     * @return index of the name, or 0 if the name is not in the table
+     */
+    public static int getStaticNameIndex(String name) {
+        Integer index = staticNameIndexes.get(name);
+        return index != null? index : 0;
+    }
+
+    /**
+     * Obtains a field of the table
+     * @param index index of the field (starting at 1)
+     * @return array with the name and the value of the field
+     * @throws Http2Exception if the index is not valid
+     */
+    public String[] get(int index) throws Http2Exception {
+        String[] field;
+        if (index > 0 && index <= STATIC_TABLE.length) {
+            field = STATIC_TABLE[index - 1];
+        }
+        else if (index > STATIC_TABLE.length && index <= STATIC_TABLE.length + dynamicTable.size()) {
+            field = dynamicTable.get(dynamicTable.size() - (index - STATIC_TABLE.length));
+        }
+        else {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Invalid header index !!");
+        }
+        return field;
+    }
+
+    /**
+     * Adds a field to the dynamic table
+     * @param name name of the field
+     * @param value value of the field
+     */
+    public void add(String name, String value) {
+        int fieldSize = name.length() + value.length() + ENTRY_OVERHEAD;
+        if (fieldSize > maxSize) {
+            dynamicTable.clear();
+            size = 0;
+        }
+        else {
+            size += fieldSize;
+            dynamicTable.add(new String[] {name, value});
+            evict();
+        }
+    }
+
+    /**
+     * Sets the maximum size of the dynamic table
+     * @param maxSize maximum size
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Evicts the oldest fields until the table fits in its maximum size
+     */
+    private void evict() {
+        while (size > maxSize) {
+            String[] field = dynamicTable.remove(0);
+            size -= field[0].length() + field[1].length() + ENTRY_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.neogroup.httpserver;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream of a http/2 connection.
+ * A stream carries a single request and its response, the request is
+ * assembled by the reactor thread and the response is written by the
+ * worker thread that handles the stream
+ */
+public class Http2Stream {
+
+    private final int id;
+    private final Http2Connection connection;
+    private final Http2Exchange exchange;
+    private int sendWindow;
+    private int receivedSize;
+    private boolean remoteClosed;
+    private boolean dispatched;
+    private volatile boolean reset;
+    private volatile boolean endStreamSent;
+
+    private HttpMethod requestMethod;
+    private URI requestUri;
+    private HttpHeaders requestHeaders;
+    private HttpRequestBody requestBody;
+
+    /**
+     * Constructor for a stream
+     * @param id identifier of the stream
+     * @param connection http/2 connection of the stream
+     * @param sendWindow initial size of the send window
+     */
+    protected Http2Stream(int id, Http2Connection connection, int sendWindow) {
+        this.id = id;
+        this.connection = connection;
+        this.sendWindow = sendWindow;
+        this.exchange = new Http2Exchange(this);
+        this.receivedSize = 0;
+        this.remoteClosed = false;
+        this.dispatched = false;
+        this.reset = false;
+        this.endStreamSent = false;
+    }
+
+    /**
+     * Obtains the identifier of the stream
+     * @return id of the stream
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Obtains the http/2 connection of the stream
+     * @return http/2 connection
+     */
+    public Http2Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Obtains the exchange of the stream
+     * @return http exchange
+     */
+    public HttpExchange getExchange() {
+        return exchange;
+    }
+
+    /**
+     * Obtains the size of the send window, guarded by the connection
+     * @return size in bytes
+     */
+    protected int getSendWindow() {
+        return sendWindow;
+    }
+
+    /**
+     * Sets the size of the send window, guarded by the connection
+     * @param sendWindow size in bytes
+     */
+    protected void setSendWindow(int sendWindow) {
+        this.sendWindow = sendWindow;
+    }
+
+    /**
+     * Obtains the amount of data bytes received and not acknowledged with a window update
+     * @return size in bytes
+     */
+    protected int getReceivedSize() {
+        return receivedSize;
+    }
+
+    /**
+     * Sets the amount of data bytes received and not acknowledged with a window update
+     * @param receivedSize size in bytes
+     */
+    protected void setReceivedSize(int receivedSize) {
+        this.receivedSize = receivedSize;
+    }
+
+    /**
+     * Indicates if the client finished sending the request
+     * @return boolean
+     */
+    protected boolean isRemoteClosed() {
+        return remoteClosed;
+    }
+
+    /**
+     * Sets if the client finished sending the request
+     * @param remoteClosed boolean
+     */
+    protected void setRemoteClosed(boolean remoteClosed) {
+        this.remoteClosed = remoteClosed;
+    }
+
+    /**
+     * Indicates if the stream was dispatched to a worker
+     * @return boolean
+     */
+    protected boolean isDispatched() {
+        return dispatched;
+    }
+
+    /**
+     * Sets if the stream was dispatched to a worker
+     * @param dispatched boolean
+     */
+    protected void setDispatched(boolean dispatched) {
+        this.dispatched = dispatched;
+    }
+
+    /**
+     * Indicates if the stream was reset
+     * @return boolean
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * Sets if the stream was reset
+     * @param reset boolean
+     */
+    protected void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+    /**
+     * Indicates if the end of the response was sent
+     * @return boolean
+     */
+    public boolean isEndStreamSent() {
+        return endStreamSent;
+    }
+
+    /**
+     * Sets if the end of the response was sent
+     * @param endStreamSent boolean
+     */
+    protected void setEndStreamSent(boolean endStreamSent) {
+        this.endStreamSent = endStreamSent;
+    }
+
+    /**
+     * Sets the request received in the stream
+     * @param requestMethod method of the request
+     * @param requestUri uri of the request
+     * @param requestHeaders headers of the request
+     * @param requestBody body of the request
+     */
+    protected void setRequest(HttpMethod requestMethod, URI requestUri, HttpHeaders requestHeaders, HttpRequestBody requestBody) {
+        this.requestMethod = requestMethod;
+        this.requestUri = requestUri;
+        this.requestHeaders = requestHeaders;
+        this.requestBody = requestBody;
+    }
+
+    /**
+     * Obtains the body of the request that is being received
+     * @return request body
+     */
+    protected HttpRequestBody getRequestBody() {
+        return requestBody;
+    }
+
+    /**
+     * Starts the exchange of the stream with the received request
+     */
+    protected void startExchange() {
+        requestBody.complete();
+        exchange.startNewExchange(requestMethod, requestUri, Http2Connection.HTTP_2_VERSION, requestHeaders, requestBody);
+        requestMethod = null;
+        requestUri = null;
+        requestHeaders = null;
+        requestBody = null;
+    }
+
+    /**
+     * Releases the resources held by the stream
+     */
+    protected void release() {
+        if (requestBody != null) {
+            requestBody.release();
+            requestBody = null;
+        }
+        exchange.release();
+    }
+
+    /**
+     * Writes the response headers
+     * @param headerBlock encoded header block
+     * @param endStream indicates if the response has no content
+     */
+    protected void writeHeaders(byte[] headerBlock, boolean endStream) {
+        connection.writeHeaders(this, headerBlock, endStream);
+    }
+
+    /**
+     * Writes content of the response
+     * @param content buffer with the content in read mode, or null
+     * @param endStream indicates if this is the last content of the response
+     */
+    protected void writeData(ByteBuffer content, boolean endStream) {
+        connection.writeData(this, content, endStream);
+    }
+
+    /**
+     * Transfers a region of a file as content of the response
+     * @param fileChannel channel of the file
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    protected void transferData(FileChannel fileChannel, long position, long count) {
+        connection.transferData(this, fileChannel, position, count);
+    }
+}
@@ -0,0 +1,142 @@
+package org.neogroup.httpserver;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct byte buffers shared by the server connections.
+ * Buffers are sliced from big direct slabs and are borrowed by the
+ * connections only while they are reading or writing, so that idle
+ * connections do not hold buffer memory and socket writes do not need
+ * the extra copy to a temporary direct buffer.
+ * The pool retains at most a maximum amount of buffers, beyond that the
+ * buffers are allocated on demand and left to the garbage collector when
+ * they are returned, so that a burst of slow clients does not keep its
+ * memory for the life of the server
+ */
+public class HttpBufferPool {
+
+    private final int bufferSize;
+    private final int slabBuffers;
+    private final int maxBuffers;
+    private final Queue<ByteBuffer> buffers;
+    private final AtomicInteger availableBuffers;
+    private int allocatedBuffers;
+
+    /**
+     * Constructor for the buffer pool
+     * @param bufferSize size of the pooled buffers
+     * @param slabBuffers amount of buffers allocated in each slab
+     * @param maxBuffers maximum amount of buffers retained by the pool
+     */
+    protected HttpBufferPool(int bufferSize, int slabBuffers, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.slabBuffers = slabBuffers;
+        this.maxBuffers = Math.max(slabBuffers, maxBuffers);
+        this.buffers = new ConcurrentLinkedQueue<>();
+        this.availableBuffers = new AtomicInteger();
+        this.allocatedBuffers = 0;
+    }
+
+    /**
+     * Obtains the size of the pooled buffers
+     * @return size in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Obtains the maximum amount of buffers retained by the pool
+     * @return amount of buffers
+     */
+    public int getMaxBuffers() {
+        return maxBuffers;
+    }
+
+    /**
+     * Obtains the amount of buffers allocated by the pool
+     * @return amount of buffers
+     */
+    public synchronized int getAllocatedBuffers() {
+        return allocatedBuffers;
+    }
+
+    /**
+     * Obtains the amount of buffers that are not borrowed
+     * @return amount of buffers
+     */
+    public int getAvailableBuffers() {
+        return availableBuffers.get();
+    }
+
+    /**
+     * Borrows a buffer from the pool
+     * @return cleared direct buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = poll();
+        if (buffer == null) {
+            buffer = allocateSlab();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool
+     * @param buffer buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            //Buffers beyond the maximum are dropped, the check is not atomic so the maximum may be exceeded by a few buffers
+            if (availableBuffers.get() < maxBuffers) {
+                availableBuffers.incrementAndGet();
+                buffers.add(buffer);
+            }
+        }
+    }
+
+    /**
+     * Takes an available buffer of the pool
+     * @return buffer or null if there are no available buffers
+     */
+    private ByteBuffer poll() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            availableBuffers.decrementAndGet();
+        }
+        return buffer;
+    }
+
+    /**
+     * Allocates a new slab and slices it in buffers, once the pool allocated
+     * the maximum amount of buffers a single buffer is allocated instead
+     * @return one of the buffers of the new slab
+     */
+    private synchronized ByteBuffer allocateSlab() {
+        ByteBuffer buffer = poll();
+        if (buffer == null && allocatedBuffers + slabBuffers > maxBuffers) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        else if (buffer == null) {
+            ByteBuffer slab = ByteBuffer.allocateDirect(bufferSize * slabBuffers);
+            for (int i = 0; i < slabBuffers; i++) {
+                slab.limit((i + 1) * bufferSize);
+                slab.position(i * bufferSize);
+                ByteBuffer slabBuffer = slab.slice();
+                if (buffer == null) {
+                    buffer = slabBuffer;
+                }
+                else {
+                    availableBuffers.incrementAndGet();
+                    buffers.add(slabBuffer);
+                }
+            }
+            allocatedBuffers += slabBuffers;
+        }
+        return buffer;
+    }
+}
@@ -1,16 +1,41 @@
 
 package org.neogroup.httpserver;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /**
  * Class that holds all the information of a connection
  */
 public class HttpConnection {
 
+    private static final byte[] CONTINUE_STATUS_LINE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
+
     private final HttpServer server;
+    private final HttpReactor reactor;
     private final HttpExchange exchange;
     private final SocketChannel channel;
+    private final HttpSecureChannel secureChannel;
+    private final HttpRequestParser requestParser;
+    private final HttpWriteQueue writeQueue;
+    private final Deque<DeferredWrite> deferredWrites;
+    private final HttpTimerWheel.Timeout timeout;
+    private volatile Http2Connection http2Connection;
+    private ByteBuffer readBuffer;
+    private ByteBuffer batchBuffer;
+    private boolean batchingWrites;
+    private SelectionKey selectionKey;
+    private boolean resumePending;
+    private boolean closePending;
     private boolean closed;
     private long creationTimestamp;
     private long lastActivityTimestamp;
@@ -18,12 +43,27 @@ public class HttpConnection {
     /**
      * Constructor for a connection
      * @param server http server associated with the connection
+     * @param reactor reactor that handles the connection
      * @param channel socket channel associated with the connection
      */
-    protected HttpConnection(HttpServer server, SocketChannel channel) {
+    protected HttpConnection(HttpServer server, HttpReactor reactor, SocketChannel channel) {
         this.server = server;
+        this.reactor = reactor;
         this.channel = channel;
+        this.requestParser = new HttpRequestParser(server.getProperty(HttpServer.REQUEST_BODY_MEMORY_THRESHOLD_PROPERTY_NAME, HttpServer.DEFAULT_REQUEST_BODY_MEMORY_THRESHOLD));
         this.exchange = new HttpExchange(this);
+        this.writeQueue = new HttpWriteQueue(this);
+        this.deferredWrites = new ArrayDeque<>();
+        this.timeout = new HttpTimerWheel.Timeout(this);
+        SSLContext sslContext = server.getSSLContext();
+        if (sslContext != null) {
+            SSLEngine engine = sslContext.createSSLEngine(channel.socket().getInetAddress().getHostAddress(), channel.socket().getPort());
+            engine.setUseClientMode(false);
+            this.secureChannel = new HttpSecureChannel(this, engine);
+        }
+        else {
+            this.secureChannel = null;
+        }
         closed = false;
         long timestamp = System.currentTimeMillis();
         creationTimestamp = timestamp;
@@ -38,6 +78,14 @@ public class HttpConnection {
         return server;
     }
 
+    /**
+     * Obtains the reactor that handles the connection
+     * @return http reactor
+     */
+    public HttpReactor getReactor() {
+        return reactor;
+    }
+
     /**
      * Obtains the socket channel associated with the connection
      * @return SocketChannel from the connection
@@ -46,6 +94,684 @@ public class HttpConnection {
         return channel;
     }
 
+    /**
+     * Obtains the tls layer of the connection
+     * @return secure channel, or null if the connection is not secure
+     */
+    public HttpSecureChannel getSecureChannel() {
+        return secureChannel;
+    }
+
+    /**
+     * Indicates if the connection is secured with tls
+     * @return boolean
+     */
+    public boolean isSecure() {
+        return secureChannel != null;
+    }
+
+    /**
+     * Obtains the selection key of the connection in the reactor selector
+     * @return selection key
+     */
+    protected SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    /**
+     * Sets the selection key of the connection in the reactor selector
+     * @param selectionKey selection key
+     */
+    protected void setSelectionKey(SelectionKey selectionKey) {
+        this.selectionKey = selectionKey;
+    }
+
+    /**
+     * Obtains the timeout of the connection in the timer wheel of its reactor
+     * @return timeout
+     */
+    protected HttpTimerWheel.Timeout getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Obtains the request parser of the connection
+     * @return http request parser
+     */
+    protected HttpRequestParser getRequestParser() {
+        return requestParser;
+    }
+
+    /**
+     * Obtains the http/2 connection carried by the connection
+     * @return http/2 connection, or null if the connection was not upgraded
+     */
+    public Http2Connection getHttp2Connection() {
+        return http2Connection;
+    }
+
+    /**
+     * Sets the http/2 connection carried by the connection.
+     * From then on the read data is consumed by the http/2 connection
+     * @param http2Connection http/2 connection
+     */
+    protected void setHttp2Connection(Http2Connection http2Connection) {
+        this.http2Connection = http2Connection;
+    }
+
+    /**
+     * Indicates if the connection has http/2 streams that are being handled
+     * @return boolean
+     */
+    protected boolean hasActiveStreams() {
+        Http2Connection currentHttp2Connection = http2Connection;
+        return currentHttp2Connection != null && currentHttp2Connection.getStreamsCount() > 0;
+    }
+
+    /**
+     * Reads the available data of the channel and feeds the request parser.
+     * This method never blocks, if the request is not completed it must be
+     * called again when the channel is readable.
+     * The read buffer is borrowed from the server pool and it is returned
+     * as soon as all its data was consumed
+     * @return true if a request is ready to be processed
+     */
+    protected synchronized boolean readRequest() {
+        lastActivityTimestamp = System.currentTimeMillis();
+        boolean requestReady = false;
+        if (closed) {
+            return false;
+        }
+        if (readBuffer == null) {
+            readBuffer = server.getBufferPool().acquire();
+        }
+        try {
+            int readSize;
+            do {
+                readSize = secureChannel != null? secureChannel.read(readBuffer, true) : channel.read(readBuffer);
+                if (readSize == -1) {
+                    close();
+                    break;
+                }
+                requestReady = parseReadBuffer();
+            } while (!requestReady && readSize > 0 && !closed);
+        }
+        catch (Exception ex) {
+            close();
+        }
+        releaseReadBuffer();
+        return requestReady;
+    }
+
+    /**
+     * Returns the read buffer to the pool if all its data was consumed
+     */
+    private void releaseReadBuffer() {
+        if (readBuffer != null && (closed || readBuffer.position() == 0)) {
+            server.getBufferPool().release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    /**
+     * Feeds the request parser with the data that is buffered in the connection
+     * @return true if a request is ready to be processed
+     */
+    protected synchronized boolean parseBufferedRequest() {
+        boolean requestReady = false;
+        if (secureChannel != null && secureChannel.hasBufferedData() && !closed) {
+            if (readBuffer == null) {
+                readBuffer = server.getBufferPool().acquire();
+            }
+            try {
+                secureChannel.read(readBuffer, false);
+            }
+            catch (Exception ex) {
+                close();
+                return false;
+            }
+        }
+        if (readBuffer != null) {
+            requestReady = parseReadBuffer();
+            releaseReadBuffer();
+        }
+        return requestReady;
+    }
+
+    /**
+     * Feeds the request parser with the data of the read buffer.
+     * A connection that starts with the http/2 preface is switched to http/2,
+     * from then on the data is consumed by the http/2 connection and requests
+     * are dispatched as streams
+     * @return true if a request is ready to be processed
+     */
+    private boolean parseReadBuffer() {
+        readBuffer.flip();
+        if (http2Connection == null && requestParser.isIdle() && server.getProperty(HttpServer.HTTP2_ENABLED_PROPERTY_NAME, HttpServer.DEFAULT_HTTP2_ENABLED)) {
+            int prefaceMatch = Http2Connection.matchPreface(readBuffer);
+            if (prefaceMatch == Http2Connection.PREFACE_PARTIAL) {
+                readBuffer.compact();
+                return false;
+            }
+            if (prefaceMatch == Http2Connection.PREFACE_MATCH) {
+                Http2Connection newHttp2Connection = new Http2Connection(this);
+                http2Connection = newHttp2Connection;
+                newHttp2Connection.start();
+            }
+        }
+        if (http2Connection != null) {
+            http2Connection.read(readBuffer);
+            if (!closed) {
+                readBuffer.compact();
+            }
+            return false;
+        }
+        boolean requestReady = requestParser.parse(readBuffer);
+        readBuffer.compact();
+        if (!requestReady && requestParser.checkContinueExpected()) {
+            try {
+                flushBatch();
+                writeBuffers(new ByteBuffer[] {ByteBuffer.wrap(CONTINUE_STATUS_LINE)}, 0, 1);
+            }
+            catch (Exception ex) {
+                throw new HttpException("Error writing continue status !!", ex);
+            }
+        }
+        return requestReady;
+    }
+
+    /**
+     * Indicates if the connection has buffered data not consumed by the parser
+     * @return boolean
+     */
+    protected boolean hasBufferedData() {
+        return (readBuffer != null && readBuffer.position() > 0) || (secureChannel != null && secureChannel.hasBufferedData());
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffers in the channel.
+     * The bytes that the socket can not take are queued and written by the reactor
+     * @param buffers buffers to write
+     */
+    protected void write(ByteBuffer... buffers) {
+        write(buffers, 0, buffers.length);
+    }
+
+    /**
+     * Indicates if the writes must be batched. While batching, small writes are
+     * collected in a buffer so that the responses of pipelined requests are
+     * sent together
+     * @param batchingWrites boolean
+     */
+    protected void setBatchingWrites(boolean batchingWrites) {
+        this.batchingWrites = batchingWrites;
+    }
+
+    /**
+     * Writes the bytes collected while batching writes
+     */
+    protected void flushBatch() {
+        if (batchBuffer != null) {
+            if (batchBuffer.position() > 0) {
+                batchBuffer.flip();
+                writeBuffers(new ByteBuffer[] {batchBuffer}, 0, 1);
+            }
+            releaseBatchBuffer();
+        }
+    }
+
+    /**
+     * Returns the batch buffer to the pool
+     */
+    private void releaseBatchBuffer() {
+        if (batchBuffer != null) {
+            server.getBufferPool().release(batchBuffer);
+            batchBuffer = null;
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffers in the channel
+     * with gathering writes.
+     * While batching, the bytes are collected if they fit in the batch buffer,
+     * otherwise they are written together with the collected bytes.
+     * The bytes that the socket can not take are queued and written by the reactor
+     * @param buffers buffers to write
+     * @param offset index of the first buffer to write
+     * @param length amount of buffers to write
+     */
+    protected void write(ByteBuffer[] buffers, int offset, int length) {
+        if (batchingWrites) {
+            long writeSize = 0;
+            for (int i = offset; i < offset + length; i++) {
+                writeSize += buffers[i].remaining();
+            }
+            if (batchBuffer == null && writeSize <= server.getBufferPool().getBufferSize()) {
+                batchBuffer = server.getBufferPool().acquire();
+            }
+            if (batchBuffer != null && writeSize <= batchBuffer.remaining()) {
+                for (int i = offset; i < offset + length; i++) {
+                    batchBuffer.put(buffers[i]);
+                }
+                return;
+            }
+        }
+        if (batchBuffer != null && batchBuffer.position() > 0) {
+            ByteBuffer[] batchBuffers = new ByteBuffer[length + 1];
+            batchBuffer.flip();
+            batchBuffers[0] = batchBuffer;
+            System.arraycopy(buffers, offset, batchBuffers, 1, length);
+            writeBuffers(batchBuffers, 0, batchBuffers.length);
+            releaseBatchBuffer();
+        }
+        else {
+            writeBuffers(buffers, offset, length);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffers, encrypting them if the connection is secure.
+     * While there are deferred writes the bytes are copied behind them
+     * @param buffers buffers to write
+     * @param offset index of the first buffer to write
+     * @param length amount of buffers to write
+     */
+    private void writeBuffers(ByteBuffer[] buffers, int offset, int length) {
+        if (!deferWrite(buffers, offset, length)) {
+            sendBuffers(buffers, offset, length);
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of the given buffers behind the deferred writes, if there are any.
+     * The bytes are deferred before they are encrypted so that the tls records keep their order
+     * @param buffers buffers to write
+     * @param offset index of the first buffer to write
+     * @param length amount of buffers to write
+     * @return true if the bytes were deferred
+     */
+    private boolean deferWrite(ByteBuffer[] buffers, int offset, int length) {
+        synchronized (deferredWrites) {
+            if (deferredWrites.isEmpty()) {
+                return false;
+            }
+            int writeSize = 0;
+            for (int i = offset; i < offset + length; i++) {
+                writeSize += buffers[i].remaining();
+            }
+            ByteBuffer deferredBuffer = ByteBuffer.allocate(writeSize);
+            for (int i = offset; i < offset + length; i++) {
+                deferredBuffer.put(buffers[i]);
+            }
+            deferredBuffer.flip();
+            deferredWrites.addLast(new DeferredWrite(deferredBuffer));
+            return true;
+        }
+    }
+
+    /**
+     * Sends the remaining bytes of the given buffers, encrypting them if the connection is secure
+     * @param buffers buffers to write
+     * @param offset index of the first buffer to write
+     * @param length amount of buffers to write
+     */
+    private void sendBuffers(ByteBuffer[] buffers, int offset, int length) {
+        if (secureChannel != null) {
+            secureChannel.write(buffers, offset, length);
+        }
+        else {
+            writeChannel(buffers, offset, length);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffers in the channel
+     * with gathering writes, through the outbound queue of the connection
+     * @param buffers buffers to write
+     * @param offset index of the first buffer to write
+     * @param length amount of buffers to write
+     */
+    protected void writeChannel(ByteBuffer[] buffers, int offset, int length) {
+        try {
+            writeQueue.write(buffers, offset, length);
+        }
+        catch (HttpException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new HttpException("Error writing data !!", ex);
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer in the channel only if the outbound
+     * queue is empty, used for the last bytes of a connection that is being closed
+     * @param buffer buffer to write
+     * @return true if the queue was empty
+     */
+    protected boolean writeChannelIfEmpty(ByteBuffer buffer) {
+        try {
+            return writeQueue.writeIfEmpty(buffer);
+        }
+        catch (Exception ex) {
+            throw new HttpException("Error writing data !!", ex);
+        }
+    }
+
+    /**
+     * Transfers a region of a file to the channel without copying it to the heap.
+     * The connection opens its own channel of the file, so if the region is
+     * transferred in the reactor thread and the outbound queue reaches the
+     * high water mark, the rest of the region is deferred and transferred
+     * when the reactor drains the queue, instead of being copied to the queue
+     * @param file file to transfer
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    protected void transferFrom(File file, long position, long count) {
+        flushBatch();
+        DeferredWrite transfer;
+        try {
+            transfer = new DeferredWrite(FileChannel.open(file.toPath(), StandardOpenOption.READ), position, count);
+        }
+        catch (IOException ex) {
+            throw new HttpException("Error reading file \"" + file + "\" !!", ex);
+        }
+        boolean deferred = false;
+        try {
+            synchronized (deferredWrites) {
+                if (!deferredWrites.isEmpty()) {
+                    deferredWrites.addLast(transfer);
+                    deferred = true;
+                }
+            }
+            if (!deferred) {
+                //Only the reactor thread stops at the high water mark, other threads wait for the queue to be drained
+                transferRegion(transfer, reactor.isReactorThread());
+                if (transfer.count > 0) {
+                    synchronized (deferredWrites) {
+                        deferredWrites.addLast(transfer);
+                    }
+                    deferred = true;
+                }
+            }
+        }
+        finally {
+            if (!deferred) {
+                transfer.close();
+            }
+        }
+    }
+
+    /**
+     * Transfers a region of a file to the channel without copying it to the heap.
+     * The channel belongs to the caller, so the region is transferred completely
+     * even in the reactor thread, and if there are deferred writes the region is
+     * read in memory behind them. Use the file variant to let the reactor defer it
+     * @param fileChannel file channel to transfer
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    protected void transferFrom(FileChannel fileChannel, long position, long count) {
+        flushBatch();
+        synchronized (deferredWrites) {
+            if (!deferredWrites.isEmpty()) {
+                deferredWrites.addLast(new DeferredWrite(readRegion(fileChannel, position, count)));
+                return;
+            }
+        }
+        transferRegion(new DeferredWrite(fileChannel, position, count), false);
+    }
+
+    /**
+     * Reads a region of a file in memory
+     * @param fileChannel file channel to read
+     * @param position position of the region in the file
+     * @param count size of the region
+     * @return buffer with the region
+     */
+    private ByteBuffer readRegion(FileChannel fileChannel, long position, long count) {
+        if (count > Integer.MAX_VALUE) {
+            throw new HttpException("File region too large to be deferred !!");
+        }
+        ByteBuffer regionBuffer = ByteBuffer.allocate((int)count);
+        try {
+            while (regionBuffer.hasRemaining()) {
+                if (fileChannel.read(regionBuffer, position + regionBuffer.position()) < 0) {
+                    throw new HttpException("Unexpected end of file !!");
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new HttpException("Error transferring file !!", ex);
+        }
+        regionBuffer.flip();
+        return regionBuffer;
+    }
+
+    /**
+     * Transfers a file region until it is completed, or until the outbound
+     * queue reaches the high water mark if the transfer is bounded.
+     * While the outbound queue has pending bytes, or if the socket send buffer
+     * is full, the file is read in a pooled buffer and queued instead
+     * @param transfer file region to transfer, its position and count are advanced
+     * @param bounded indicates if the transfer stops at the high water mark
+     */
+    private void transferRegion(DeferredWrite transfer, boolean bounded) {
+        if (secureChannel != null) {
+            transferSecureRegion(transfer, bounded);
+            return;
+        }
+        ByteBuffer fileBuffer = null;
+        try {
+            while (transfer.count > 0 && !(bounded && writeQueue.isFull())) {
+                long transferredSize = writeQueue.hasPendingWrites()? 0 : transfer.fileChannel.transferTo(transfer.position, transfer.count, channel);
+                if (transferredSize <= 0) {
+                    if (fileBuffer == null) {
+                        fileBuffer = server.getBufferPool().acquire();
+                    }
+                    fileBuffer.clear();
+                    fileBuffer.limit((int)Math.min(fileBuffer.capacity(), transfer.count));
+                    transferredSize = transfer.fileChannel.read(fileBuffer, transfer.position);
+                    if (transferredSize < 0) {
+                        throw new HttpException("Unexpected end of file !!");
+                    }
+                    fileBuffer.flip();
+                    writeQueue.write(new ByteBuffer[] {fileBuffer}, 0, 1);
+                }
+                transfer.position += transferredSize;
+                transfer.count -= transferredSize;
+            }
+        }
+        catch (HttpException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new HttpException("Error transferring file !!", ex);
+        }
+        finally {
+            server.getBufferPool().release(fileBuffer);
+        }
+    }
+
+    /**
+     * Transfers a file region to a secure channel.
+     * The file must be encrypted, so it is read in a pooled buffer
+     * @param transfer file region to transfer, its position and count are advanced
+     * @param bounded indicates if the transfer stops at the high water mark
+     */
+    private void transferSecureRegion(DeferredWrite transfer, boolean bounded) {
+        ByteBuffer fileBuffer = server.getBufferPool().acquire();
+        ByteBuffer[] fileBuffers = { fileBuffer };
+        try {
+            while (transfer.count > 0 && !(bounded && writeQueue.isFull())) {
+                fileBuffer.clear();
+                fileBuffer.limit((int)Math.min(fileBuffer.capacity(), transfer.count));
+                int readSize = transfer.fileChannel.read(fileBuffer, transfer.position);
+                if (readSize < 0) {
+                    throw new HttpException("Unexpected end of file !!");
+                }
+                fileBuffer.flip();
+                secureChannel.write(fileBuffers, 0, 1);
+                transfer.position += readSize;
+                transfer.count -= readSize;
+            }
+        }
+        catch (HttpException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new HttpException("Error transferring file !!", ex);
+        }
+        finally {
+            server.getBufferPool().release(fileBuffer);
+        }
+    }
+
+    /**
+     * Writes the deferred writes while the outbound queue is below the high water mark,
+     * called by the reactor when the queue is drained. Once all of them are written,
+     * the connection is resumed or closed if that was pending
+     */
+    private void writeDeferred() {
+        boolean resume;
+        boolean close;
+        synchronized (deferredWrites) {
+            while (!deferredWrites.isEmpty() && !writeQueue.isFull()) {
+                DeferredWrite deferredWrite = deferredWrites.peekFirst();
+                if (deferredWrite.buffer != null) {
+                    //Deferred bytes are sent in pieces so that the queue does not grow beyond the high water mark
+                    ByteBuffer buffer = deferredWrite.buffer;
+                    ByteBuffer pieceBuffer = buffer.duplicate();
+                    pieceBuffer.limit(Math.min(buffer.limit(), buffer.position() + server.getBufferPool().getBufferSize()));
+                    sendBuffers(new ByteBuffer[] {pieceBuffer}, 0, 1);
+                    buffer.position(pieceBuffer.position());
+                    if (buffer.hasRemaining()) {
+                        continue;
+                    }
+                }
+                else {
+                    transferRegion(deferredWrite, true);
+                    if (deferredWrite.count > 0) {
+                        break;
+                    }
+                }
+                deferredWrites.pollFirst().close();
+            }
+            if (!deferredWrites.isEmpty()) {
+                return;
+            }
+            resume = resumePending;
+            close = closePending;
+            resumePending = false;
+            closePending = false;
+        }
+        if (close) {
+            closeWhenWritten();
+        }
+        else if (resume) {
+            reactor.resumeConnection(this);
+        }
+    }
+
+    /**
+     * Indicates if the connection has writes deferred by the reactor thread
+     * @return boolean
+     */
+    protected boolean hasDeferredWrites() {
+        synchronized (deferredWrites) {
+            return !deferredWrites.isEmpty();
+        }
+    }
+
+    /**
+     * Indicates if the outbound queue has bytes not written yet, or if there are deferred writes
+     * @return boolean
+     */
+    protected boolean hasPendingWrites() {
+        return writeQueue.hasPendingWrites() || hasDeferredWrites();
+    }
+
+    /**
+     * Obtains the timestamp of the last write that made progress
+     * @return timestamp in milliseconds
+     */
+    protected long getLastWriteTimestamp() {
+        return writeQueue.getLastWriteTimestamp();
+    }
+
+    /**
+     * Writes the queued bytes, called by the reactor when the channel is writable.
+     * Once the queue is drained the deferred writes are resumed.
+     * The connection is closed if a close was pending and the queue was emptied
+     * @return true if the outbound queue was emptied and there are no deferred writes
+     */
+    protected boolean flushWrites() {
+        boolean empty;
+        try {
+            empty = writeQueue.flush();
+            if (hasDeferredWrites()) {
+                writeDeferred();
+                empty = !hasPendingWrites();
+            }
+        }
+        catch (Exception ex) {
+            close();
+            return true;
+        }
+        if (empty && writeQueue.isClosePending()) {
+            close();
+        }
+        return empty;
+    }
+
+    /**
+     * Closes the connection after the queued bytes are written.
+     * While the bytes are being written the timeout of the connection is
+     * scheduled, so it is closed anyway if the client stops reading
+     */
+    public void closeWhenWritten() {
+        boolean deferred;
+        synchronized (deferredWrites) {
+            deferred = !deferredWrites.isEmpty();
+            closePending = deferred;
+        }
+        if (deferred) {
+            reactor.scheduleTimeout(this);
+            return;
+        }
+
+        //The close notification of the tls layer is queued behind the last response
+        if (secureChannel != null) {
+            secureChannel.closeOutbound();
+        }
+        if (writeQueue.closeWhenEmpty()) {
+            close();
+        }
+        else {
+            reactor.scheduleTimeout(this);
+        }
+    }
+
+    /**
+     * Returns the connection to its reactor once the deferred writes are written,
+     * so that the next request is not read while the previous response is produced.
+     * While the deferred writes are being written the timeout of the connection is scheduled
+     */
+    public void resumeWhenWritten() {
+        boolean deferred;
+        synchronized (deferredWrites) {
+            deferred = !deferredWrites.isEmpty();
+            resumePending = deferred;
+        }
+        if (deferred) {
+            reactor.scheduleTimeout(this);
+        }
+        else {
+            reactor.resumeConnection(this);
+        }
+    }
+
     /**
      * Creates a new http exchanges
      * @return http exchange
@@ -94,6 +820,9 @@ public class HttpConnection {
     public synchronized void close() {
 
         if (!closed) {
+            if (secureChannel != null) {
+                secureChannel.close();
+            }
             try {
                 channel.shutdownInput();
             } catch (Exception ex) {}
@@ -106,6 +835,20 @@ public class HttpConnection {
                 channel.close();
             } catch (Exception ex) {}
             closed = true;
+            writeQueue.release();
+            synchronized (deferredWrites) {
+                while (!deferredWrites.isEmpty()) {
+                    deferredWrites.pollFirst().close();
+                }
+            }
+            requestParser.release();
+            exchange.release();
+            if (http2Connection != null) {
+                http2Connection.close();
+            }
+            releaseReadBuffer();
+            releaseBatchBuffer();
+            reactor.removeConnection(this);
         }
     }
 
@@ -123,4 +866,41 @@ public class HttpConnection {
         str.append("]");
         return str.toString();
     }
+
+    /**
+     * Write deferred by the reactor thread until the outbound queue is drained.
+     * It is either a region of a file whose channel is owned by the connection,
+     * or a copy of the bytes of a write that came after a deferred region
+     */
+    private static class DeferredWrite {
+
+        private final FileChannel fileChannel;
+        private final ByteBuffer buffer;
+        private long position;
+        private long count;
+
+        public DeferredWrite(FileChannel fileChannel, long position, long count) {
+            this.fileChannel = fileChannel;
+            this.buffer = null;
+            this.position = position;
+            this.count = count;
+        }
+
+        public DeferredWrite(ByteBuffer buffer) {
+            this.fileChannel = null;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Closes the file channel of the write
+         */
+        public void close() {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                }
+                catch (Exception ex) {}
+            }
+        }
+    }
 }
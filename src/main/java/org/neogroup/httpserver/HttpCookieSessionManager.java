@@ -0,0 +1,265 @@
+package org.neogroup.httpserver;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DeflaterOutputStream;
+import java.util.logging.Level;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Session manager that keeps the sessions in the clients.
+ * The attributes of a session are serialized in a cookie signed with a
+ * HMAC-SHA256 of a secret key, so the server holds no session state and
+ * the sessions are valid in every server that shares the key. Large
+ * payloads are compressed with deflate. Only String, Integer, Long,
+ * Double and Boolean attribute values are supported, and the session is
+ * only saved if it is modified before the response headers are sent
+ */
+public class HttpCookieSessionManager extends HttpSessionManager {
+
+    public static final int MAX_COOKIE_SIZE = 4096;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int PAYLOAD_VERSION = 1;
+    private static final int COMPRESSION_THRESHOLD = 256;
+    private static final int COMPRESSED_FLAG = 0x01;
+    private static final int MAX_PAYLOAD_SIZE = 65536;
+    private static final String SESSION_SAVE_ERROR_MESSAGE = "Session \"{0}\" could not be saved in the cookie: {1}";
+
+    private final SecretKeySpec secretKey;
+    private final ThreadLocal<Mac> macs;
+    private final HttpSessionSerializer serializer;
+
+    /**
+     * Constructor for the cookie session manager
+     * @param secretKey secret key used to sign the cookies, at least 32 bytes are recommended
+     */
+    public HttpCookieSessionManager(byte[] secretKey) {
+        if (secretKey == null || secretKey.length == 0) {
+            throw new IllegalArgumentException("A secret key is required to sign the session cookies !!");
+        }
+        this.secretKey = new SecretKeySpec(secretKey.clone(), HMAC_ALGORITHM);
+        this.macs = new ThreadLocal<>();
+        this.serializer = new HttpSessionSerializer(false);
+        sign(new byte[0]);
+    }
+
+    /**
+     * Creates a new session, its id is only an identifier because the
+     * authenticity of the session is given by the signature of the cookie
+     * @param exchange http exchange
+     * @return new http session
+     */
+    @Override
+    protected HttpSession createSession(HttpExchange exchange) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        HttpSession session = new HttpSession(new UUID(random.nextLong(), random.nextLong()));
+        session.setMaxInactiveInterval(exchange.getConnection().getServer().getProperty(HttpServer.SESSION_MAX_INACTIVE_INTERVAL_PROPERTY_NAME, HttpServer.DEFAULT_SESSION_MAX_INACTIVE_INTERVAL));
+        return session;
+    }
+
+    /**
+     * Obtains the session serialized in the cookie of the request
+     * @param exchange http exchange
+     * @return http session or null if the cookie is missing, not authentic or expired
+     */
+    @Override
+    protected HttpSession getSession(HttpExchange exchange) {
+        HttpCookie sessionCookie = exchange.getCookie(getSessionName(exchange));
+        if (sessionCookie == null || sessionCookie.getValue() == null || sessionCookie.getValue().isEmpty()) {
+            return null;
+        }
+        try {
+            return decodeSession(sessionCookie.getValue());
+        }
+        catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Serializes the session in the session cookie of the response,
+     * an invalidated session removes the cookie
+     * @param exchange http exchange
+     * @param session session to save
+     */
+    @Override
+    protected void saveSession(HttpExchange exchange, HttpSession session) {
+        HttpCookie cookie;
+        if (session.isValid()) {
+            //A session that can not be encoded keeps the previous cookie, the response must not fail because of it
+            String value;
+            try {
+                value = encodeSession(exchange, session);
+            }
+            catch (HttpException ex) {
+                exchange.getConnection().getServer().log(Level.WARNING, SESSION_SAVE_ERROR_MESSAGE, session.getId(), ex.getMessage());
+                return;
+            }
+            cookie = new HttpCookie(getSessionName(exchange), value);
+        }
+        else {
+            cookie = new HttpCookie(getSessionName(exchange), "");
+            cookie.setMaxAge(0);
+        }
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        exchange.addCookie(cookie);
+        session.setModified(false);
+    }
+
+    /**
+     * Serializes and signs a session
+     * @param exchange http exchange
+     * @param session session to serialize
+     * @return cookie value
+     */
+    protected String encodeSession(HttpExchange exchange, HttpSession session) {
+        try {
+            ByteArrayOutputStream payloadStream = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(payloadStream);
+            List<String> skippedAttributes = serializer.writeSession(payload, session);
+            if (!skippedAttributes.isEmpty()) {
+                exchange.getConnection().getServer().log(Level.WARNING, HttpSessionSerializer.ATTRIBUTES_SKIPPED_MESSAGE, session.getId(), skippedAttributes);
+            }
+            payload.flush();
+
+            //Compress the payload only if it is worth it, the payload must not exceed the size accepted when the cookie is decoded
+            byte[] payloadBytes = payloadStream.toByteArray();
+            if (payloadBytes.length > MAX_PAYLOAD_SIZE) {
+                throw new HttpException("Session too large to be stored in a cookie !!");
+            }
+            int flags = 0;
+            if (payloadBytes.length > COMPRESSION_THRESHOLD) {
+                ByteArrayOutputStream compressedStream = new ByteArrayOutputStream();
+                try (DeflaterOutputStream deflater = new DeflaterOutputStream(compressedStream)) {
+                    deflater.write(payloadBytes);
+                }
+                if (compressedStream.size() < payloadBytes.length) {
+                    payloadBytes = compressedStream.toByteArray();
+                    flags |= COMPRESSED_FLAG;
+                }
+            }
+
+            byte[] data = new byte[payloadBytes.length + 2];
+            data[0] = (byte)PAYLOAD_VERSION;
+            data[1] = (byte)flags;
+            System.arraycopy(payloadBytes, 0, data, 2, payloadBytes.length);
+            Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+            String value = encoder.encodeToString(data) + "." + encoder.encodeToString(sign(data));
+            if (value.length() > MAX_COOKIE_SIZE) {
+                throw new HttpException("Session too large to be stored in a cookie !!");
+            }
+            return value;
+        }
+        catch (IOException ex) {
+            throw new HttpException("Error encoding session !!", ex);
+        }
+    }
+
+    /**
+     * Verifies and deserializes a session
+     * @param value cookie value
+     * @return http session or null if the cookie is not authentic or the session expired
+     * @throws IOException
+     */
+    protected HttpSession decodeSession(String value) throws IOException {
+        int separatorIndex = value.indexOf('.');
+        if (separatorIndex <= 0) {
+            return null;
+        }
+        Base64.Decoder decoder = Base64.getUrlDecoder();
+        byte[] data = decoder.decode(value.substring(0, separatorIndex));
+        byte[] signature = decoder.decode(value.substring(separatorIndex + 1));
+        if (!MessageDigest.isEqual(signature, sign(data)) || data.length < 2 || data[0] != PAYLOAD_VERSION) {
+            return null;
+        }
+
+        InputStream payloadStream = new ByteArrayInputStream(data, 2, data.length - 2);
+        if ((data[1] & COMPRESSED_FLAG) != 0) {
+            payloadStream = new InflaterInputStream(payloadStream);
+        }
+        try (DataInputStream payload = new DataInputStream(new LimitedInputStream(payloadStream, MAX_PAYLOAD_SIZE))) {
+            HttpSession session = serializer.readSession(payload);
+            long time = System.currentTimeMillis();
+            if (session.getExpirationTimestamp() <= time) {
+                return null;
+            }
+
+            //The cookie is issued again once half of its lifetime has passed, so that active sessions do not expire
+            session.checkSession();
+            session.setModified(session.isActivitySaveRequired());
+            return session;
+        }
+    }
+
+    /**
+     * Calculates the signature of some data
+     * @param data data to sign
+     * @return HMAC of the data
+     */
+    private byte[] sign(byte[] data) {
+        try {
+            Mac mac = macs.get();
+            if (mac == null) {
+                mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(secretKey);
+                macs.set(mac);
+            }
+            return mac.doFinal(data);
+        }
+        catch (Exception ex) {
+            throw new HttpException("Error signing session !!", ex);
+        }
+    }
+
+    /**
+     * Input stream that fails if more than a maximum amount of bytes is read,
+     * protects the inflater against compressed payloads that expand too much
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private int remaining;
+
+        public LimitedInputStream(InputStream in, int limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Session payload too large !!");
+            }
+            int value = super.read();
+            if (value >= 0) {
+                remaining--;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                throw new IOException("Session payload too large !!");
+            }
+            int readSize = super.read(buffer, offset, Math.min(length, remaining));
+            if (readSize > 0) {
+                remaining -= readSize;
+            }
+            return readSize;
+        }
+    }
+}
@@ -3,11 +3,14 @@ package org.neogroup.httpserver;
 
 import org.neogroup.util.MimeUtils;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.ByteBuffer;
-import java.text.MessageFormat;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.util.*;
 
 public class HttpExchange {
@@ -16,15 +19,14 @@ public class HttpExchange {
     private static final String QUERY_PARAMETER_VALUES_REGEX = "[=]";
     private static final String FILE_ENCODING_SYSTEM_PROPERTY_NAME = "file.encoding";
     private static final String URI_SEPARATOR = "/";
-    private static final int REQUEST_READ_BUFFER_SIZE = 2048;
     private static final byte LINE_SEPARATOR_CR = '\r';
     private static final byte LINE_SEPARATOR_LF = '\n';
-    private static final String STATUS_LINE_FIELD_SEPARATOR = " ";
-    private static final String STATUS_LINE_TEMPLATE = "HTTP/1.1 {0} {1}\r\n";
-    private static final String HEADER_LINE_TEMPLATE = "{0}: {1}\r\n";
-    private static final int HEADER_SEPARATOR = ':';
-    private static final int HEADERS_WRITE_BUFFER_SIZE = 2048;
-    private static final int BODY_WRITE_BUFFER_SIZE = 8192;
+    private static final String HTTP_1_1_VERSION = "HTTP/1.1";
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+    private static final byte[] CHUNK_TRAILER = "\r\n".getBytes();
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes();
+    private static final int CHUNK_HEADER_RESERVED_SIZE = 10;
+    private static final int CHUNK_TRAILER_RESERVED_SIZE = CHUNK_TRAILER.length + LAST_CHUNK.length;
 
     private final HttpConnection connection;
     private HttpSession session;
@@ -33,15 +35,20 @@ public class HttpExchange {
     private HttpMethod requestMethod;
     private URI requestUri;
     private String requestVersion;
-    private Map<String, List<String>> requestHeaders;
+    private HttpHeaders requestHeaders;
     private Map<String,String> requestParameters;
-    private byte[] requestBody;
+    private Map<String,String> requestPathParameters;
+    private HttpRequestBody requestBody;
 
     private int responseCode;
-    private Map<String, List<String>> responseHeaders;
+    private final HttpHeaders responseHeaders;
     private ByteBuffer responseBodyBuffer;
-    private int responseBodySize;
+    private long responseBodySize;
     private boolean responseHeadersSent;
+    private boolean responseChunked;
+    private ByteBuffer responseHeadersBuffer;
+    private final HttpResponseSerializer responseSerializer;
+    private final ByteBuffer[] writeBuffers;
 
     /**
      * Constructor for the http exchange
@@ -50,129 +57,80 @@ public class HttpExchange {
     protected HttpExchange(HttpConnection connection) {
 
         this.connection = connection;
-        this.requestHeaders = new LinkedHashMap<>();
-        this.responseHeaders = new LinkedHashMap<>();
-        this.responseBodyBuffer = ByteBuffer.allocate(BODY_WRITE_BUFFER_SIZE);
+        this.responseHeaders = new HttpHeaders();
+        this.responseSerializer = new HttpResponseSerializer(connection.getServer().getBufferPool());
+        this.writeBuffers = new ByteBuffer[2];
     }
 
     /**
-     * Starts the new http exchange
+     * Obtains the connection associated with the exchange
+     * @return http connection
+     */
+    protected HttpConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Starts the new http exchange with the request parsed by the connection
      */
     protected void startNewExchange() throws HttpBadRequestException {
 
+        //Take the request parsed by the connection
+        HttpRequestParser requestParser = connection.getRequestParser();
+        try {
+            startNewExchange(requestParser.getMethod(), requestParser.getUri(), requestParser.getVersion(), requestParser.getHeaders(), requestParser.getBody());
+            requestParser.checkRequest();
+        }
+        finally {
+            requestParser.reset();
+        }
+    }
+
+    /**
+     * Starts the new http exchange with the given request
+     * @param method method of the request
+     * @param uri uri of the request
+     * @param version version of the request
+     * @param headers headers of the request
+     * @param body body of the request
+     */
+    protected void startNewExchange(HttpMethod method, URI uri, String version, HttpHeaders headers, HttpRequestBody body) {
+
         //Clear exchange values
+        release();
         session = null;
         cookies = null;
         requestMethod = null;
         requestUri = null;
         requestVersion = null;
-        requestHeaders.clear();
+        requestHeaders = null;
         requestParameters = null;
+        requestPathParameters = Collections.emptyMap();
         requestBody = null;
         responseHeaders.clear();
         responseCode = HttpResponseCode.HTTP_OK;
-        responseBodyBuffer.clear();
         responseHeadersSent = false;
+        responseChunked = false;
+        responseHeadersBuffer = null;
         responseBodySize = 0;
 
-        //Read request
-        byte[] readData = null;
-        try (ByteArrayOutputStream readStream = new ByteArrayOutputStream()) {
-            int totalReadSize = 0;
-            int readSize = 0;
-            ByteBuffer readBuffer = ByteBuffer.allocate(REQUEST_READ_BUFFER_SIZE);
-            do {
-                readSize = connection.getChannel().read(readBuffer);
-                if (readSize == -1) {
-                    throw new HttpException("Socket closed !!");
-                }
-                if (readSize > 0) {
-                    readStream.write(readBuffer.array(), 0, readSize);
-                    readBuffer.rewind();
-                    totalReadSize += readSize;
-                }
-            } while (readSize > 0);
-
-            if (totalReadSize > 0) {
-                readStream.flush();
-                readData = readStream.toByteArray();
-            }
-        }
-        catch (Exception ex) {
-            throw new HttpBadRequestException("Error reading request !!", ex);
-        }
-
-        if (readData != null) {
-            boolean processedStatusLine = false;
-            boolean processedRequest = false;
-            try {
-
-                int startLineIndex = 0;
-                for (int i = 0; i < readData.length - 1; i++) {
-
-                    if (readData[i] == LINE_SEPARATOR_CR && readData[i + 1] == LINE_SEPARATOR_LF) {
-                        String currentLine = new String(readData, startLineIndex, i - startLineIndex);
-                        startLineIndex = i + 2;
-
-                        if (!currentLine.isEmpty()) {
-                            if (!processedStatusLine) {
-                                processStatusLine(currentLine);
-                                processedStatusLine = true;
-                            } else {
-                                processHeaderLine(currentLine);
-                            }
-                        } else {
-                            if (processedStatusLine) {
-                                int bodySize = readData.length - (i + 2);
-                                requestBody = Arrays.copyOfRange(readData, i + 2, readData.length);
-                                processedRequest = true;
-                            }
-                            break;
-                        }
-                    }
-                }
-            }
-            catch (Exception exception) {
-                throw new HttpBadRequestException("Malformed request !!", exception);
-            }
-            if (!processedRequest) {
-                throw new HttpBadRequestException("Incomplete request !!");
-            }
-        }
-        else {
-            throw new HttpBadRequestException("Empty request !!");
-        }
-    }
-
-    /**
-     * Parses a status line
-     * @param statusLine String with the status line
-     * @throws Exception
-     */
-    private void processStatusLine (String statusLine) throws Exception {
-
-        String[] parts = statusLine.split(STATUS_LINE_FIELD_SEPARATOR);
-        requestMethod = HttpMethod.valueOf(parts[0]);
-        requestUri = new URI(parts[1]);
-        requestVersion = parts[2];
+        //Take the request values
+        requestMethod = method;
+        requestUri = uri;
+        requestVersion = version;
+        requestHeaders = headers;
+        requestBody = body;
     }
 
     /**
-     * Parses the header line
-     * @param headerLine String with the header line
-     * @throws Exception
+     * Releases the resources held by the current exchange
      */
-    private void processHeaderLine (String headerLine) throws Exception {
-
-        int separatorIndex = headerLine.indexOf(HEADER_SEPARATOR);
-        String headerName = headerLine.substring(0, separatorIndex);
-        String headerValue = headerLine.substring(separatorIndex+1).trim();
-        List<String> headerValues = requestHeaders.get(headerName);
-        if (headerValues == null) {
-            headerValues = new ArrayList<>();
-            requestHeaders.put(headerName, headerValues);
+    protected void release() {
+        if (requestBody != null) {
+            requestBody.release();
+            requestBody = null;
         }
-        headerValues.add(headerValue);
+        releaseResponseBuffers();
     }
 
     /**
@@ -217,6 +175,22 @@ public class HttpExchange {
         return Arrays.asList(pathTokens);
     }
 
+    /**
+     * Retrieve the values of the path parameters of the matched context
+     * @return map of path parameters
+     */
+    public Map<String,String> getRequestPathParameters() {
+        return requestPathParameters;
+    }
+
+    /**
+     * Sets the values of the path parameters of the matched context
+     * @param requestPathParameters map of path parameters
+     */
+    protected void setRequestPathParameters(Map<String,String> requestPathParameters) {
+        this.requestPathParameters = requestPathParameters;
+    }
+
     /**
      * Retrieves the requestVersion of the request
      * @return requestVersion
@@ -230,7 +204,15 @@ public class HttpExchange {
      * @return requestHeaders
      */
     public Map<String, List<String>> getRequestHeaders() {
-        return Collections.unmodifiableMap(requestHeaders);
+        return requestHeaders.asMap();
+    }
+
+    /**
+     * Retrieve the header table of the request
+     * @return request headers
+     */
+    protected HttpHeaders getRequestHeaderTable() {
+        return requestHeaders;
     }
 
     /**
@@ -239,7 +221,7 @@ public class HttpExchange {
      * @return List of header values
      */
     public List<String> getRequestHeaders (String headerName) {
-        return requestHeaders.get(headerName);
+        return requestHeaders.getAll(headerName);
     }
 
     /**
@@ -248,7 +230,7 @@ public class HttpExchange {
      * @return boolean
      */
     public boolean hasRequestHeader (String headerName) {
-        return requestHeaders.containsKey(headerName);
+        return requestHeaders.contains(headerName);
     }
 
     /**
@@ -257,20 +239,43 @@ public class HttpExchange {
      * @return header value
      */
     public String getRequestHeader (String headerName) {
-        String value = null;
-        List<String> headerValues = requestHeaders.get(headerName);
-        if (headerValues != null) {
-            value = headerValues.get(0);
-        }
-        return value;
+        return requestHeaders.get(headerName);
     }
 
     /**
-     * Retrieves the requestBody of a request
+     * Retrieves the requestBody of a request.
+     * Bodies spilled to a temporary file are loaded in memory, use
+     * the requestBody stream to read big bodies
      * @return requestBody
      */
     public byte[] getRequestBody() {
-        return requestBody;
+        return requestBody != null ? requestBody.getBytes() : null;
+    }
+
+    /**
+     * Retrieves a stream to read the requestBody of a request
+     * @return requestBody stream
+     */
+    public InputStream getRequestBodyStream() {
+        return requestBody != null ? requestBody.getInputStream() : null;
+    }
+
+    /**
+     * Retrieves the size of the requestBody of a request
+     * @return size in bytes
+     */
+    public long getRequestBodySize() {
+        return requestBody != null ? requestBody.getSize() : 0;
+    }
+
+    /**
+     * Takes the requestBody of a request, so that it is not released with the exchange
+     * @return requestBody
+     */
+    protected HttpRequestBody takeRequestBody() {
+        HttpRequestBody body = requestBody;
+        requestBody = null;
+        return body;
     }
 
     /**
@@ -338,7 +343,15 @@ public class HttpExchange {
      * @return Headers of the response
      */
     public Map<String,List<String>> getResponseHeaders() {
-        return Collections.unmodifiableMap(responseHeaders);
+        return responseHeaders.asMap();
+    }
+
+    /**
+     * Retrieve the header table of the response
+     * @return response headers
+     */
+    protected HttpHeaders getResponseHeaderTable() {
+        return responseHeaders;
     }
 
     /**
@@ -347,12 +360,7 @@ public class HttpExchange {
      * @param headerValue Header value
      */
     public void addResponseHeader(String headerName, String headerValue) {
-        List<String> headerValues = responseHeaders.get(headerName);
-        if (headerValues == null) {
-            headerValues = new ArrayList<>();
-            responseHeaders.put(headerName, headerValues);
-        }
-        headerValues.add(headerValue);
+        responseHeaders.add(headerName, headerValue);
     }
 
     /**
@@ -361,12 +369,7 @@ public class HttpExchange {
      * @return value of the header
      */
     public String getResponseHeader (String headerName) {
-        String value = null;
-        List<String> headerValues = responseHeaders.get(headerName);
-        if (headerValues != null) {
-            value = headerValues.get(0);
-        }
-        return value;
+        return responseHeaders.get(headerName);
     }
 
     /**
@@ -375,7 +378,7 @@ public class HttpExchange {
      * @return values for a header
      */
     public List<String> getResponseHeaders (String headerName) {
-        return responseHeaders.get(headerName);
+        return responseHeaders.getAll(headerName);
     }
 
     /**
@@ -392,7 +395,7 @@ public class HttpExchange {
      * @return boolean
      */
     public boolean hasResponseHeader (String headerName) {
-        return responseHeaders.containsKey(headerName);
+        return responseHeaders.contains(headerName);
     }
 
     /**
@@ -418,6 +421,95 @@ public class HttpExchange {
         write(body);
     }
 
+    /**
+     * Sets the content of the response with the content of a file.
+     * The file is transferred to the connection without being loaded in memory
+     * @param file file with the content of the response
+     */
+    public void setResponseBody(File file) {
+        long fileSize;
+        try {
+            fileSize = Files.size(file.toPath());
+        }
+        catch (IOException ex) {
+            throw new HttpException("Error reading file \"" + file + "\" !!", ex);
+        }
+        if (!responseHeadersSent && !hasResponseHeader(HttpHeader.CONTENT_LENGTH) && !hasResponseHeader(HttpHeader.TRANSFER_ENCODING)) {
+            addResponseHeader(HttpHeader.CONTENT_LENGTH, String.valueOf(responseBodySize + fileSize));
+        }
+        write(file, 0, fileSize);
+    }
+
+    /**
+     * Writes a region of a file in the response.
+     * The region is transferred to the connection without being loaded in memory,
+     * and the connection opens the file itself so that it can defer the region
+     * if the client is slower than the reactor thread that handles the request
+     * @param file file to write
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    public void write (File file, long position, long count) {
+
+        writeBuffer(false);
+        responseBodySize += count;
+        if (count > 0) {
+            transferResponseBody(file, position, count);
+        }
+    }
+
+    /**
+     * Writes a region of a file in the response.
+     * The region is transferred to the connection without being loaded in memory
+     * @param fileChannel channel of the file
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    public void write (FileChannel fileChannel, long position, long count) {
+
+        writeBuffer(false);
+        responseBodySize += count;
+        if (count > 0) {
+            transferResponseBody(fileChannel, position, count);
+        }
+    }
+
+    /**
+     * Transfers a region of a file to the connection as content of the response
+     * @param file file to transfer
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    protected void transferResponseBody (File file, long position, long count) {
+        if (responseChunked) {
+            ByteBuffer chunkHeaderBuffer = ByteBuffer.wrap((Long.toHexString(count) + "\r\n").getBytes());
+            connection.write(chunkHeaderBuffer);
+            connection.transferFrom(file, position, count);
+            connection.write(ByteBuffer.wrap(CHUNK_TRAILER));
+        }
+        else {
+            connection.transferFrom(file, position, count);
+        }
+    }
+
+    /**
+     * Transfers a region of a file to the connection as content of the response
+     * @param fileChannel channel of the file
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    protected void transferResponseBody (FileChannel fileChannel, long position, long count) {
+        if (responseChunked) {
+            ByteBuffer chunkHeaderBuffer = ByteBuffer.wrap((Long.toHexString(count) + "\r\n").getBytes());
+            connection.write(chunkHeaderBuffer);
+            connection.transferFrom(fileChannel, position, count);
+            connection.write(ByteBuffer.wrap(CHUNK_TRAILER));
+        }
+        else {
+            connection.transferFrom(fileChannel, position, count);
+        }
+    }
+
     /**
      * Writes content in the response
      * @param text text to write in the response
@@ -432,6 +524,7 @@ public class HttpExchange {
      */
     public void write (byte[] bytes) {
 
+        acquireResponseBodyBuffer();
         responseBodySize += bytes.length;
         int remainingBytes = bytes.length;
         int writeIndex = 0;
@@ -439,7 +532,7 @@ public class HttpExchange {
             int remainingBufferBytes = responseBodyBuffer.remaining();
             if (remainingBytes > remainingBufferBytes) {
                 responseBodyBuffer.put(bytes, writeIndex, remainingBufferBytes);
-                writeBuffer();
+                writeBuffer(false);
                 writeIndex += remainingBufferBytes;
                 remainingBytes -= remainingBufferBytes;
             }
@@ -451,10 +544,44 @@ public class HttpExchange {
     }
 
     /**
-     * Flushes content in the response
+     * Flushes content in the response.
+     * If the response headers were not sent and the response has no content
+     * length, the response is sent with chunked transfer encoding
      */
     public void flush () {
-        writeBuffer();
+        writeBuffer(false);
+    }
+
+    /**
+     * Finishes the response, sending the pending headers and content.
+     * A response that was not sent yet is sent with its content length
+     */
+    protected void finish () {
+        writeBuffer(true);
+    }
+
+    /**
+     * Indicates if the response headers were already sent
+     * @return boolean
+     */
+    public boolean isResponseHeadersSent() {
+        return responseHeadersSent;
+    }
+
+    /**
+     * Sets if the response headers were already sent
+     * @param responseHeadersSent boolean
+     */
+    protected void setResponseHeadersSent(boolean responseHeadersSent) {
+        this.responseHeadersSent = responseHeadersSent;
+    }
+
+    /**
+     * Obtains the amount of content bytes written in the response
+     * @return size in bytes
+     */
+    protected long getResponseBodySize() {
+        return responseBodySize;
     }
 
     /**
@@ -507,10 +634,10 @@ public class HttpExchange {
         if (cookie.getPath() != null) {
             cookieValue.append("; Path=").append(cookie.getPath());
         }
-        if (cookie.getSecure() != null) {
+        if (Boolean.TRUE.equals(cookie.getSecure())) {
             cookieValue.append("; Secure");
         }
-        if (cookie.getSecure() != null) {
+        if (Boolean.TRUE.equals(cookie.getHttpOnly())) {
             cookieValue.append("; HttpOnly");
         }
         addResponseHeader(HttpHeader.SET_COOKIE, cookieValue.toString());
@@ -548,81 +675,222 @@ public class HttpExchange {
      * @return http session
      */
     public HttpSession getSession(boolean create) {
+        HttpSessionManager sessionManager = connection.getServer().getSessionManager();
         if (create) {
-            session = connection.getServer().createSession(connection);
+            session = sessionManager.createSession(this);
         }
         else {
             if (session == null) {
-                session = connection.getServer().getSession(connection);
+                session = sessionManager.getSession(this);
                 if (session == null) {
-                    session = connection.getServer().createSession(connection);
+                    session = sessionManager.createSession(this);
                 }
             }
         }
         return session;
     }
 
+    /**
+     * Saves the session of the exchange if it was created or modified.
+     * With lazy session creation new sessions are only saved once an attribute is set
+     */
+    protected void saveSession() {
+        if (session != null) {
+            HttpServer server = connection.getServer();
+            boolean lazyCreation = server.getProperty(HttpServer.SESSION_LAZY_CREATION_PROPERTY_NAME, HttpServer.DEFAULT_SESSION_LAZY_CREATION);
+            if (session.isModified() || (session.isNew() && !lazyCreation)) {
+                server.getSessionManager().saveSession(this, session);
+            }
+        }
+    }
+
     /**
      * Send responseHeaders with the response
+     * @param complete indicates if all the content of the response is buffered
      */
-    private void sendHeaders () {
+    private void sendHeaders (boolean complete) {
         if (!responseHeadersSent) {
 
+            saveSession();
+
             if (!hasResponseHeader(HttpHeader.CONTENT_TYPE)) {
                 addResponseHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
             }
-            if (!hasResponseHeader(HttpHeader.CONTENT_LENGTH)) {
-                addResponseHeader(HttpHeader.CONTENT_LENGTH, String.valueOf(responseBodySize));
+            if (hasResponseHeader(HttpHeader.TRANSFER_ENCODING)) {
+                responseChunked = getResponseHeader(HttpHeader.TRANSFER_ENCODING).endsWith(HttpHeader.CHUNKED_TRANSFER_ENCODING);
             }
-
-            try {
-                ByteBuffer headersBuffer = ByteBuffer.allocate(HEADERS_WRITE_BUFFER_SIZE);
-
-                //Writing status line
-                headersBuffer.put(MessageFormat.format(STATUS_LINE_TEMPLATE, responseCode, HttpResponseCode.msg(responseCode)).getBytes());
-                headersBuffer.flip();
-                connection.getChannel().write(headersBuffer);
-
-                //Writing responseHeaders
-                for (String headerName : responseHeaders.keySet()) {
-                    List<String> headerValues = responseHeaders.get(headerName);
-                    for (String headerValue : headerValues) {
-                        headersBuffer.clear();
-                        headersBuffer.put(MessageFormat.format(HEADER_LINE_TEMPLATE, headerName, headerValue).getBytes());
-                        headersBuffer.flip();
-                        connection.getChannel().write(headersBuffer);
-                    }
+            else if (!hasResponseHeader(HttpHeader.CONTENT_LENGTH)) {
+                if (complete) {
+                    addResponseHeader(HttpHeader.CONTENT_LENGTH, String.valueOf(responseBodySize));
+                }
+                else if (HTTP_1_1_VERSION.equals(requestVersion)) {
+                    addResponseHeader(HttpHeader.TRANSFER_ENCODING, HttpHeader.CHUNKED_TRANSFER_ENCODING);
+                    responseChunked = true;
+                }
+                else {
+                    //The end of the content is signaled closing the connection
+                    removeResponseHeader(HttpHeader.CONNECTION);
+                    addResponseHeader(HttpHeader.CONNECTION, HttpHeader.CLOSE);
                 }
+            }
 
-                //Writing separator
-                headersBuffer.clear();
-                headersBuffer.put(LINE_SEPARATOR_CR);
-                headersBuffer.put(LINE_SEPARATOR_LF);
-                headersBuffer.flip();
-                connection.getChannel().write(headersBuffer);
+            //Encode the response head, it is written together with the first content
+            responseSerializer.reset();
+            responseSerializer.writeStatusLine(responseCode);
+            if (!hasResponseHeader(HttpHeader.DATE)) {
+                responseSerializer.writeHeader(HttpHeader.DATE, HttpServerUtils.getCurrentDateBytes());
             }
-            catch (Throwable ex) {
-                throw new HttpException("Error writing responseHeaders !!", ex);
+            for (int i = 0; i < responseHeaders.size(); i++) {
+                responseSerializer.writeHeader(responseHeaders.getName(i), responseHeaders.getValue(i));
             }
-
+            responseSerializer.writeEndOfHeaders();
+            responseHeadersBuffer = responseSerializer.getBuffer();
             responseHeadersSent = true;
         }
     }
 
+    /**
+     * Borrows the buffer of the response content from the server pool.
+     * Space is reserved before and after the content to write the chunk framing
+     */
+    private void acquireResponseBodyBuffer() {
+        if (responseBodyBuffer == null) {
+            responseBodyBuffer = connection.getServer().getBufferPool().acquire();
+            clearResponseBodyBuffer();
+        }
+    }
+
+    /**
+     * Clears the content of the response buffer
+     */
+    private void clearResponseBodyBuffer() {
+        responseBodyBuffer.limit(responseBodyBuffer.capacity() - CHUNK_TRAILER_RESERVED_SIZE);
+        responseBodyBuffer.position(CHUNK_HEADER_RESERVED_SIZE);
+    }
+
+    /**
+     * Obtains the buffered content of the response
+     * @return buffer with the content in read mode, or null if there is no buffered content
+     */
+    protected ByteBuffer getResponseBodyContent() {
+        ByteBuffer content = null;
+        if (responseBodyBuffer != null) {
+            content = responseBodyBuffer.duplicate();
+            content.limit(responseBodyBuffer.position());
+            content.position(CHUNK_HEADER_RESERVED_SIZE);
+        }
+        return content;
+    }
+
+    /**
+     * Clears the buffered content of the response
+     * @param complete indicates if the response was completed, in which case the buffers are released
+     */
+    protected void clearResponseBodyContent(boolean complete) {
+        if (complete) {
+            releaseResponseBuffers();
+        }
+        else if (responseBodyBuffer != null) {
+            clearResponseBodyBuffer();
+        }
+    }
+
+    /**
+     * Returns the response buffers to the server pool
+     */
+    private void releaseResponseBuffers() {
+        if (responseBodyBuffer != null) {
+            connection.getServer().getBufferPool().release(responseBodyBuffer);
+            responseBodyBuffer = null;
+        }
+        responseSerializer.release();
+        responseHeadersBuffer = null;
+    }
+
     /**
      * Writes the buffered content
+     * @param complete indicates if this is the last content of the response
      */
-    private void writeBuffer() {
+    protected void writeBuffer(boolean complete) {
 
-        sendHeaders();
-        responseBodyBuffer.flip();
+        sendHeaders(complete);
+        if (responseChunked && complete) {
+            acquireResponseBodyBuffer();
+        }
+
+        //Gather the response head and the content with its framing in a single write
+        int writeBuffersCount = 0;
+        if (responseHeadersBuffer != null) {
+            writeBuffers[writeBuffersCount++] = responseHeadersBuffer;
+        }
+        if (responseBodyBuffer != null) {
+            int contentEnd = responseBodyBuffer.position();
+            int contentSize = contentEnd - CHUNK_HEADER_RESERVED_SIZE;
+            int frameStart = CHUNK_HEADER_RESERVED_SIZE;
+            int frameEnd = contentEnd;
+            responseBodyBuffer.limit(responseBodyBuffer.capacity());
+            if (responseChunked) {
+                if (contentSize > 0) {
+                    frameStart = putChunkHeader(contentSize);
+                    frameEnd = putBytes(frameEnd, CHUNK_TRAILER);
+                }
+                if (complete) {
+                    frameEnd = putBytes(frameEnd, LAST_CHUNK);
+                }
+            }
+            responseBodyBuffer.limit(frameEnd);
+            responseBodyBuffer.position(frameStart);
+            if (responseBodyBuffer.hasRemaining()) {
+                writeBuffers[writeBuffersCount++] = responseBodyBuffer;
+            }
+        }
         try {
-            connection.getChannel().write(responseBodyBuffer);
+            if (writeBuffersCount > 0) {
+                connection.write(writeBuffers, 0, writeBuffersCount);
+            }
         }
-        catch (Exception ex) {
-            throw new HttpException("Error writing data !!", ex);
+        finally {
+            Arrays.fill(writeBuffers, null);
+            if (complete) {
+                releaseResponseBuffers();
+            }
+            else {
+                responseSerializer.release();
+                responseHeadersBuffer = null;
+                if (responseBodyBuffer != null) {
+                    clearResponseBodyBuffer();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the chunk size line just before the content of the response buffer
+     * @param contentSize size of the content
+     * @return index of the start of the chunk
+     */
+    private int putChunkHeader(int contentSize) {
+        int index = CHUNK_HEADER_RESERVED_SIZE;
+        responseBodyBuffer.put(--index, LINE_SEPARATOR_LF);
+        responseBodyBuffer.put(--index, LINE_SEPARATOR_CR);
+        do {
+            responseBodyBuffer.put(--index, HEX_DIGITS[contentSize & 0xF]);
+            contentSize >>>= 4;
+        } while (contentSize != 0);
+        return index;
+    }
+
+    /**
+     * Puts bytes in the response buffer at the given index
+     * @param index index where the bytes are put
+     * @param bytes bytes to put
+     * @return index after the put bytes
+     */
+    private int putBytes(int index, byte[] bytes) {
+        for (byte value : bytes) {
+            responseBodyBuffer.put(index++, value);
         }
-        responseBodyBuffer.clear();
+        return index;
     }
 
     /**
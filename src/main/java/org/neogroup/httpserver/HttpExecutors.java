@@ -0,0 +1,28 @@
+package org.neogroup.httpserver;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Executors of the http server that depend on the version of the jvm.
+ * This version is used by jvms older than java 21, that have no virtual
+ * threads. The multi release jar holds another version of this class for
+ * java 21 and newer
+ */
+public class HttpExecutors {
+
+    /**
+     * Indicates if the jvm supports virtual threads
+     * @return boolean
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return false;
+    }
+
+    /**
+     * Creates an executor that runs every task in a new virtual thread
+     * @return executor service
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        throw new HttpException("Virtual threads require java 21 or newer !!");
+    }
+}
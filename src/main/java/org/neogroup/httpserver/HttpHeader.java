@@ -25,6 +25,8 @@ public interface HttpHeader {
     public static final String CONTENT_TYPE = "Content-Type";
     public static final String CONTENT_LENGTH = "Content-Length";
     public static final String CONTENT_ENCODING = "Content-Encoding";
+    public static final String CONTENT_RANGE = "Content-Range";
+    public static final String ACCEPT_RANGES = "Accept-Ranges";
     public static final String SERVER = "Server";
     public static final String DATE = "Date";
     public static final String LAST_MODIFIED = "Last-Modified";
@@ -36,10 +38,18 @@ public interface HttpHeader {
     public static final String EXPIRES = "Expires";
     public static final String SET_COOKIE = "Set-Cookie";
     public static final String COOKIE = "Cookie";
+    public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    public static final String UPGRADE = "Upgrade";
+    public static final String HTTP2_SETTINGS = "HTTP2-Settings";
 
     //Header Values
     public static final String GZIP_CONTENT_ENCODING = "gzip";
     public static final String APPLICATION_FORM_URL_ENCODED = "application/x-www-form-urlencoded";
     public static final String KEEP_ALIVE = "keep-alive";
     public static final String CLOSE = "close";
+    public static final String CHUNKED_TRANSFER_ENCODING = "chunked";
+    public static final String CONTINUE_EXPECTATION = "100-continue";
+    public static final String BYTES_RANGE_UNIT = "bytes";
+    public static final String MULTIPART_BYTE_RANGES = "multipart/byteranges";
+    public static final String H2C_UPGRADE = "h2c";
 }
\ No newline at end of file
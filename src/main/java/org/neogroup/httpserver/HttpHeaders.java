@@ -0,0 +1,355 @@
+package org.neogroup.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact table of http headers.
+ * The headers are kept in parallel arrays of names and values in the order
+ * they were added, names are compared ignoring the ascii case. The standard
+ * names of HttpHeader are recognized from the raw bytes of a request and
+ * shared, so parsing them allocates nothing. The map view groups the values
+ * of every name and is only built when it is requested
+ */
+public class HttpHeaders {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final String[] STANDARD_NAMES = {
+        HttpHeader.ACCEPT, HttpHeader.ACCEPT_CHARSET, HttpHeader.ACCEPT_ENCODING, HttpHeader.ACCEPT_LANGUAGE,
+        HttpHeader.AUTHORIZATION, HttpHeader.EXPECT, HttpHeader.FROM, HttpHeader.HOST, HttpHeader.IF_MATCH,
+        HttpHeader.IF_MODIFIED_SINCE, HttpHeader.IF_NONE_MATCH, HttpHeader.IF_RANGE, HttpHeader.IF_UNMODIFIED_SINCE,
+        HttpHeader.MAX_FORWARDS, HttpHeader.PROXY_AUTHORIZATION, HttpHeader.RANGE, HttpHeader.REFERER, HttpHeader.TE,
+        HttpHeader.USER_AGENT, HttpHeader.CONTENT_TYPE, HttpHeader.CONTENT_LENGTH, HttpHeader.CONTENT_ENCODING,
+        HttpHeader.CONTENT_RANGE, HttpHeader.ACCEPT_RANGES, HttpHeader.SERVER, HttpHeader.DATE, HttpHeader.LAST_MODIFIED,
+        HttpHeader.CONNECTION, HttpHeader.LOCATION, HttpHeader.VARY, HttpHeader.E_TAG, HttpHeader.CACHE_CONTROL,
+        HttpHeader.EXPIRES, HttpHeader.SET_COOKIE, HttpHeader.COOKIE, HttpHeader.TRANSFER_ENCODING, HttpHeader.UPGRADE,
+        HttpHeader.HTTP2_SETTINGS
+    };
+
+    private static final String[][] standardNamesByLength;
+
+    static {
+        int maxLength = 0;
+        for (String name : STANDARD_NAMES) {
+            maxLength = Math.max(maxLength, name.length());
+        }
+        standardNamesByLength = new String[maxLength + 1][0];
+        for (String name : STANDARD_NAMES) {
+            String[] names = standardNamesByLength[name.length()];
+            names = Arrays.copyOf(names, names.length + 1);
+            names[names.length - 1] = name;
+            standardNamesByLength[name.length()] = names;
+        }
+    }
+
+    private String[] names;
+    private String[] values;
+    private int size;
+    private Map<String, List<String>> map;
+
+    /**
+     * Constructor for an empty header table
+     */
+    public HttpHeaders() {
+        names = new String[INITIAL_CAPACITY];
+        values = new String[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Constructor for a copy of a header table
+     * @param headers headers to copy
+     */
+    public HttpHeaders(HttpHeaders headers) {
+        names = Arrays.copyOf(headers.names, Math.max(INITIAL_CAPACITY, headers.size));
+        values = Arrays.copyOf(headers.values, names.length);
+        size = headers.size;
+    }
+
+    /**
+     * Obtains the amount of header lines
+     * @return amount of headers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Obtains the name of a header line
+     * @param index index of the header
+     * @return name of the header
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Obtains the value of a header line
+     * @param index index of the header
+     * @return value of the header
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Adds a header line
+     * @param name name of the header
+     * @param value value of the header
+     */
+    public void add(String name, String value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Obtains the first value of a header
+     * @param name name of the header
+     * @return value of the header or null if the header does not exist
+     */
+    public String get(String name) {
+        int index = indexOf(name, 0);
+        return index >= 0? values[index] : null;
+    }
+
+    /**
+     * Obtains all the values of a header
+     * @param name name of the header
+     * @return values of the header or null if the header does not exist
+     */
+    public List<String> getAll(String name) {
+        int index = indexOf(name, 0);
+        if (index < 0) {
+            return null;
+        }
+        int nextIndex = indexOf(name, index + 1);
+        if (nextIndex < 0) {
+            return Collections.singletonList(values[index]);
+        }
+        List<String> headerValues = new ArrayList<>();
+        while (index >= 0) {
+            headerValues.add(values[index]);
+            index = indexOf(name, index + 1);
+        }
+        return Collections.unmodifiableList(headerValues);
+    }
+
+    /**
+     * Indicates if a header exists
+     * @param name name of the header
+     * @return boolean
+     */
+    public boolean contains(String name) {
+        return indexOf(name, 0) >= 0;
+    }
+
+    /**
+     * Removes all the lines of a header
+     * @param name name of the header
+     */
+    public void remove(String name) {
+        int newSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (!equalsIgnoreCase(names[i], name)) {
+                names[newSize] = names[i];
+                values[newSize] = values[i];
+                newSize++;
+            }
+        }
+        Arrays.fill(names, newSize, size, null);
+        Arrays.fill(values, newSize, size, null);
+        size = newSize;
+    }
+
+    /**
+     * Removes all the headers
+     */
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Obtains a read only map view of the headers, with the values grouped by name
+     * @return map of headers
+     */
+    public Map<String, List<String>> asMap() {
+        if (map == null) {
+            map = new HeadersMap();
+        }
+        return map;
+    }
+
+    /**
+     * Finds the next line of a header
+     * @param name name of the header
+     * @param fromIndex index where the search starts
+     * @return index of the header or -1 if it was not found
+     */
+    private int indexOf(String name, int fromIndex) {
+        for (int i = fromIndex; i < size; i++) {
+            if (equalsIgnoreCase(names[i], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Obtains the name of a header from raw bytes, standard names are shared instead of allocated
+     * @param bytes bytes of the name
+     * @param offset offset of the name
+     * @param length length of the name
+     * @return name of the header
+     */
+    public static String getName(byte[] bytes, int offset, int length) {
+        if (length < standardNamesByLength.length) {
+            for (String standardName : standardNamesByLength[length]) {
+                if (equalsIgnoreCase(standardName, bytes, offset)) {
+                    return standardName;
+                }
+            }
+        }
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Compares two header names ignoring the ascii case
+     * @param name1 first name
+     * @param name2 second name
+     * @return boolean
+     */
+    public static boolean equalsIgnoreCase(String name1, String name2) {
+        if (name1 == name2) {
+            return true;
+        }
+        if (name1 == null || name2 == null || name1.length() != name2.length()) {
+            return false;
+        }
+        for (int i = 0; i < name1.length(); i++) {
+            char char1 = name1.charAt(i);
+            char char2 = name2.charAt(i);
+            if (char1 != char2 && toLowerCase(char1) != toLowerCase(char2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares a header name with raw bytes ignoring the ascii case
+     * @param name name of the header
+     * @param bytes bytes to compare, at least as many as the length of the name
+     * @param offset offset of the bytes
+     * @return boolean
+     */
+    private static boolean equalsIgnoreCase(String name, byte[] bytes, int offset) {
+        for (int i = 0; i < name.length(); i++) {
+            if (toLowerCase(name.charAt(i)) != toLowerCase((char)(bytes[offset + i] & 0xFF))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts an ascii character to lower case
+     * @param character character to convert
+     * @return lower case character
+     */
+    private static char toLowerCase(char character) {
+        return (character >= 'A' && character <= 'Z')? (char)(character + ('a' - 'A')) : character;
+    }
+
+    /**
+     * Read only map view of the headers.
+     * Keys are the first spelling of every name, lookups ignore the case
+     */
+    private class HeadersMap extends AbstractMap<String, List<String>> {
+
+        @Override
+        public List<String> get(Object key) {
+            return key instanceof String? getAll((String)key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && contains((String)key);
+        }
+
+        @Override
+        public Set<Entry<String, List<String>>> entrySet() {
+            return new AbstractSet<Entry<String, List<String>>>() {
+                @Override
+                public Iterator<Entry<String, List<String>>> iterator() {
+                    return new HeadersIterator();
+                }
+
+                @Override
+                public int size() {
+                    int namesCount = 0;
+                    for (int i = 0; i < HttpHeaders.this.size; i++) {
+                        if (indexOf(names[i], 0) == i) {
+                            namesCount++;
+                        }
+                    }
+                    return namesCount;
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterator over the distinct names of the headers
+     */
+    private class HeadersIterator implements Iterator<Map.Entry<String, List<String>>> {
+
+        private int index;
+
+        public HeadersIterator() {
+            index = nextIndex(0);
+        }
+
+        /**
+         * Finds the first line of the next distinct name
+         * @param fromIndex index where the search starts
+         * @return index of the line
+         */
+        private int nextIndex(int fromIndex) {
+            while (fromIndex < size && indexOf(names[fromIndex], 0) != fromIndex) {
+                fromIndex++;
+            }
+            return fromIndex;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        @Override
+        public Map.Entry<String, List<String>> next() {
+            if (index >= size) {
+                throw new NoSuchElementException();
+            }
+            String name = names[index];
+            index = nextIndex(index + 1);
+            return new AbstractMap.SimpleImmutableEntry<>(name, getAll(name));
+        }
+    }
+}
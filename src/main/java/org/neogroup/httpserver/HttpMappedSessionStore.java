@@ -0,0 +1,589 @@
+package org.neogroup.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+
+/**
+ * Session store backed by memory mapped files.
+ * The sessions are appended to a log file and an index file holds an open
+ * addressing hash table with the position of the last record of every
+ * session. Both files are mapped in memory, so opening the store does not
+ * read the sessions, they are loaded one by one when they are requested.
+ * Saves and removals are serialized in the request threads and written by
+ * a background thread, that also compacts the log when most of its records
+ * are obsolete
+ */
+public class HttpMappedSessionStore extends HttpSessionStore {
+
+    public static final String LOG_FILE_NAME = "sessions.log";
+    public static final String INDEX_FILE_NAME = "sessions.idx";
+    public static final long DEFAULT_FLUSH_INTERVAL = 100;
+
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final String WRITER_THREAD_NAME = "HttpSessionStore";
+    private static final int LOG_MAGIC = 0x4E47534C;
+    private static final int INDEX_MAGIC = 0x4E475349;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 28;
+    private static final int SLOT_SIZE = 24;
+    private static final int INITIAL_INDEX_CAPACITY = 4096;
+    private static final long INITIAL_LOG_SIZE = 1024 * 1024;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+    private static final long EMPTY_SLOT = 0;
+    private static final long DELETED_SLOT = -1;
+
+    private final File directory;
+    private final long flushInterval;
+    private final HttpSessionSerializer serializer;
+    private final Map<UUID, PendingWrite> pendingWrites;
+    private final ReadWriteLock lock;
+    private HttpServer server;
+    private ScheduledExecutorService writer;
+    private volatile MappedFiles files;
+
+    /**
+     * Constructor for the mapped session store
+     * @param directory directory of the store files
+     */
+    public HttpMappedSessionStore(File directory) {
+        this(directory, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Constructor for the mapped session store
+     * @param directory directory of the store files
+     * @param flushInterval interval in milliseconds between writes of the pending changes
+     */
+    public HttpMappedSessionStore(File directory, long flushInterval) {
+        this.directory = directory;
+        this.flushInterval = Math.max(1, flushInterval);
+        this.serializer = new HttpSessionSerializer(true);
+        this.pendingWrites = new ConcurrentHashMap<>();
+        this.lock = new ReentrantReadWriteLock();
+    }
+
+    /**
+     * Maps the store files and starts the writer thread
+     * @param server http server
+     */
+    @Override
+    protected void start(HttpServer server) {
+        if (files != null) {
+            return;
+        }
+        this.server = server;
+        try {
+            directory.mkdirs();
+            new File(directory, LOG_FILE_NAME + TEMPORARY_FILE_SUFFIX).delete();
+            new File(directory, INDEX_FILE_NAME + TEMPORARY_FILE_SUFFIX).delete();
+            files = new MappedFiles(new File(directory, LOG_FILE_NAME), new File(directory, INDEX_FILE_NAME), INITIAL_INDEX_CAPACITY);
+        }
+        catch (IOException ex) {
+            throw new HttpException("Error opening session store !!", ex);
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, WRITER_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writer.scheduleWithFixedDelay(new WriterHandler(), flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the pending changes and closes the store files
+     */
+    @Override
+    protected void stop() {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(flushInterval * 10, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        lock.writeLock().lock();
+        try {
+            if (files != null) {
+                flush();
+                files.close();
+                files = null;
+            }
+        }
+        catch (Exception ex) {}
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads a session from the pending changes or from the mapped files
+     * @param sessionId id of the session
+     * @return http session or null if the session is not stored or it expired
+     */
+    @Override
+    protected HttpSession load(UUID sessionId) {
+        try {
+            byte[] payload;
+            long expirationTimestamp;
+            PendingWrite pendingWrite = pendingWrites.get(sessionId);
+            if (pendingWrite != null) {
+                payload = pendingWrite.payload;
+                expirationTimestamp = pendingWrite.expirationTimestamp;
+            }
+            else {
+                lock.readLock().lock();
+                try {
+                    if (files == null) {
+                        return null;
+                    }
+                    long position = files.find(sessionId);
+                    if (position <= 0) {
+                        return null;
+                    }
+                    expirationTimestamp = files.log.getLong((int)position + 20);
+                    payload = files.readPayload(position);
+                }
+                finally {
+                    lock.readLock().unlock();
+                }
+            }
+            if (payload == null || expirationTimestamp <= System.currentTimeMillis()) {
+                return null;
+            }
+            return serializer.readSession(new DataInputStream(new ByteArrayInputStream(payload)));
+        }
+        catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Serializes a session and queues it to be written
+     * @param session session to save
+     */
+    @Override
+    protected void save(HttpSession session) {
+        try {
+            ByteArrayOutputStream payloadStream = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(payloadStream);
+            List<String> skippedAttributes = serializer.writeSession(payload, session);
+            if (!skippedAttributes.isEmpty() && server != null) {
+                server.log(Level.WARNING, HttpSessionSerializer.ATTRIBUTES_SKIPPED_MESSAGE, session.getId(), skippedAttributes);
+            }
+            payload.flush();
+            pendingWrites.put(session.getId(), new PendingWrite(payloadStream.toByteArray(), session.getExpirationTimestamp()));
+        }
+        catch (IOException ex) {
+            throw new HttpException("Error serializing session !!", ex);
+        }
+    }
+
+    /**
+     * Queues the removal of a session
+     * @param sessionId id of the session
+     */
+    @Override
+    protected void remove(UUID sessionId) {
+        pendingWrites.put(sessionId, new PendingWrite(null, 0));
+    }
+
+    /**
+     * Writes the pending changes in the mapped files, called by the writer thread
+     * @throws IOException
+     */
+    private void flush() throws IOException {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            Iterator<Map.Entry<UUID, PendingWrite>> iterator = pendingWrites.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<UUID, PendingWrite> entry = iterator.next();
+                PendingWrite pendingWrite = entry.getValue();
+                if (pendingWrite.payload != null) {
+                    if (!files.hasIndexSpace()) {
+                        compact();
+                    }
+                    files.append(entry.getKey(), pendingWrite.payload, pendingWrite.expirationTimestamp);
+                }
+                else {
+                    files.delete(entry.getKey());
+                }
+                pendingWrites.remove(entry.getKey(), pendingWrite);
+            }
+            files.writeHeaders();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the files with the sessions that did not expire, called by the writer thread
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        File logFile = new File(directory, LOG_FILE_NAME);
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        File temporaryLogFile = new File(directory, LOG_FILE_NAME + TEMPORARY_FILE_SUFFIX);
+        File temporaryIndexFile = new File(directory, INDEX_FILE_NAME + TEMPORARY_FILE_SUFFIX);
+
+        int capacity = INITIAL_INDEX_CAPACITY;
+        while (capacity < files.count * 4) {
+            capacity *= 2;
+        }
+        MappedFiles compactedFiles = new MappedFiles(temporaryLogFile, temporaryIndexFile, capacity);
+        long time = System.currentTimeMillis();
+        for (int slot = 0; slot < files.capacity; slot++) {
+            int slotPosition = HEADER_SIZE + (slot * SLOT_SIZE);
+            long position = files.index.getLong(slotPosition + 16);
+            if (position > 0 && position < files.appendPosition) {
+                long expirationTimestamp = files.log.getLong((int)position + 20);
+                if (expirationTimestamp > time) {
+                    UUID sessionId = new UUID(files.index.getLong(slotPosition), files.index.getLong(slotPosition + 8));
+                    compactedFiles.append(sessionId, files.readPayload(position), expirationTimestamp);
+                }
+            }
+        }
+        compactedFiles.writeHeaders();
+        compactedFiles.force();
+
+        lock.writeLock().lock();
+        try {
+            files.close();
+            Files.move(temporaryLogFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(temporaryIndexFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            files = compactedFiles;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releases a mapping without waiting for the garbage collector, the buffer
+     * must not be used after this call. If the jvm does not allow it, the
+     * mapping is released when the buffer is garbage collected
+     * @param buffer mapped buffer to release
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleanerMethod;
+            try {
+                invokeCleanerMethod = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            }
+            catch (NoSuchMethodException ex) {
+                invokeCleanerMethod = null;
+            }
+            if (invokeCleanerMethod != null) {
+                Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+                unsafeField.setAccessible(true);
+                invokeCleanerMethod.invoke(unsafeField.get(null), buffer);
+            }
+            else {
+                //Java 8 only exposes the cleaner of the direct buffers
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        }
+        catch (Exception ex) {}
+    }
+
+    /**
+     * Writer handler
+     * Writes the pending changes and compacts the log when needed
+     */
+    private class WriterHandler implements Runnable {
+        @Override
+        public void run() {
+            try {
+                flush();
+                if (files.isCompactionRequired()) {
+                    compact();
+                }
+            }
+            catch (Exception ex) {}
+        }
+    }
+
+    /**
+     * Change of a session not written yet, a null payload removes the session
+     */
+    private static class PendingWrite {
+
+        private final byte[] payload;
+        private final long expirationTimestamp;
+
+        public PendingWrite(byte[] payload, long expirationTimestamp) {
+            this.payload = payload;
+            this.expirationTimestamp = expirationTimestamp;
+        }
+    }
+
+    /**
+     * Mapped log and index files.
+     * Log header: magic, append position, live bytes. Log record: size,
+     * session id, expiration timestamp and serialized session. Index header:
+     * magic, capacity, count of sessions, count of used slots. Index slot:
+     * session id and position of the record, 0 if the slot is empty and -1
+     * if the session was deleted
+     */
+    private static class MappedFiles {
+
+        private final FileChannel logChannel;
+        private final FileChannel indexChannel;
+        private MappedByteBuffer log;
+        private final MappedByteBuffer index;
+        private final int capacity;
+        private long appendPosition;
+        private long liveBytes;
+        private int count;
+        private int usedSlots;
+
+        public MappedFiles(File logFile, File indexFile, int initialCapacity) throws IOException {
+            boolean exists = logFile.length() >= HEADER_SIZE && indexFile.length() >= HEADER_SIZE;
+            logChannel = new RandomAccessFile(logFile, "rw").getChannel();
+            indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+            if (exists) {
+                MappedByteBuffer indexHeader = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                MappedByteBuffer logHeader = logChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                exists = indexHeader.getInt(0) == INDEX_MAGIC && logHeader.getInt(0) == LOG_MAGIC;
+                if (exists) {
+                    initialCapacity = indexHeader.getInt(4);
+                    count = indexHeader.getInt(8);
+                    usedSlots = indexHeader.getInt(12);
+                    appendPosition = logHeader.getLong(8);
+                    liveBytes = logHeader.getLong(16);
+                }
+                unmap(indexHeader);
+                unmap(logHeader);
+            }
+            if (!exists) {
+                logChannel.truncate(0);
+                indexChannel.truncate(0);
+                count = 0;
+                usedSlots = 0;
+                appendPosition = HEADER_SIZE;
+                liveBytes = 0;
+            }
+            capacity = initialCapacity;
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + ((long)capacity * SLOT_SIZE));
+            log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_LOG_SIZE, logChannel.size()));
+            if (!exists) {
+                writeHeaders();
+            }
+        }
+
+        /**
+         * Finds the position of the record of a session
+         * @param sessionId id of the session
+         * @return position of the record, or a value lower than 1 if the session is not indexed
+         */
+        public long find(UUID sessionId) {
+            int slotPosition = findSlot(sessionId);
+            long position = index.getLong(slotPosition + 16);
+            return (position > 0 && position < appendPosition)? position : EMPTY_SLOT;
+        }
+
+        /**
+         * Reads the serialized session of a record
+         * @param position position of the record
+         * @return serialized session
+         */
+        public byte[] readPayload(long position) {
+            int size = log.getInt((int)position);
+            byte[] payload = new byte[size - (RECORD_HEADER_SIZE - 4)];
+            ByteBuffer record = log.duplicate();
+            record.position((int)position + RECORD_HEADER_SIZE);
+            record.get(payload);
+            return payload;
+        }
+
+        /**
+         * Appends the record of a session and indexes it
+         * @param sessionId id of the session
+         * @param payload serialized session
+         * @param expirationTimestamp expiration of the session
+         * @throws IOException
+         */
+        public void append(UUID sessionId, byte[] payload, long expirationTimestamp) throws IOException {
+            int recordSize = RECORD_HEADER_SIZE + payload.length;
+            if (appendPosition + recordSize > log.capacity()) {
+                long logSize = log.capacity();
+                while (appendPosition + recordSize > logSize) {
+                    logSize *= 2;
+                }
+                if (logSize > Integer.MAX_VALUE) {
+                    throw new IOException("Session log is full !!");
+                }
+
+                //Appends are done with the write lock, or in files not shared yet, so no reader uses the previous mapping
+                MappedByteBuffer previousLog = log;
+                log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, logSize);
+                unmap(previousLog);
+            }
+            int position = (int)appendPosition;
+            log.putInt(position, recordSize - 4);
+            log.putLong(position + 4, sessionId.getMostSignificantBits());
+            log.putLong(position + 12, sessionId.getLeastSignificantBits());
+            log.putLong(position + 20, expirationTimestamp);
+            ByteBuffer record = log.duplicate();
+            record.position(position + RECORD_HEADER_SIZE);
+            record.put(payload);
+            appendPosition += recordSize;
+            liveBytes += recordSize;
+
+            int slotPosition = findSlot(sessionId);
+            long previousPosition = index.getLong(slotPosition + 16);
+            if (previousPosition > 0) {
+                liveBytes -= log.getInt((int)previousPosition) + 4;
+            }
+            else {
+                if (previousPosition == EMPTY_SLOT) {
+                    usedSlots++;
+                }
+                count++;
+                index.putLong(slotPosition, sessionId.getMostSignificantBits());
+                index.putLong(slotPosition + 8, sessionId.getLeastSignificantBits());
+            }
+            index.putLong(slotPosition + 16, position);
+        }
+
+        /**
+         * Deletes a session from the index
+         * @param sessionId id of the session
+         */
+        public void delete(UUID sessionId) {
+            int slotPosition = findSlot(sessionId);
+            long position = index.getLong(slotPosition + 16);
+            if (position > 0) {
+                liveBytes -= log.getInt((int)position) + 4;
+                index.putLong(slotPosition + 16, DELETED_SLOT);
+                count--;
+            }
+        }
+
+        /**
+         * Finds the slot of a session, or the slot where it must be inserted
+         * @param sessionId id of the session
+         * @return position of the slot
+         */
+        private int findSlot(UUID sessionId) {
+            long mostSignificantBits = sessionId.getMostSignificantBits();
+            long leastSignificantBits = sessionId.getLeastSignificantBits();
+            long hash = (mostSignificantBits ^ leastSignificantBits) * 0x9E3779B97F4A7C15L;
+            int slot = (int)(hash >>> 32) & (capacity - 1);
+            int insertSlotPosition = -1;
+            for (int i = 0; i < capacity; i++) {
+                int slotPosition = HEADER_SIZE + (slot * SLOT_SIZE);
+                long position = index.getLong(slotPosition + 16);
+                if (position == EMPTY_SLOT) {
+                    return insertSlotPosition >= 0? insertSlotPosition : slotPosition;
+                }
+                if (index.getLong(slotPosition) == mostSignificantBits && index.getLong(slotPosition + 8) == leastSignificantBits) {
+                    return slotPosition;
+                }
+                if (position == DELETED_SLOT && insertSlotPosition < 0) {
+                    insertSlotPosition = slotPosition;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            return insertSlotPosition;
+        }
+
+        /**
+         * Indicates if a new session can be indexed without exceeding the load factor
+         * @return boolean
+         */
+        public boolean hasIndexSpace() {
+            return (usedSlots + 1) * 4 <= capacity * 3;
+        }
+
+        /**
+         * Indicates if most of the log records are obsolete
+         * @return boolean
+         */
+        public boolean isCompactionRequired() {
+            return appendPosition > MIN_COMPACTION_SIZE && liveBytes * 2 < appendPosition - HEADER_SIZE;
+        }
+
+        /**
+         * Writes the headers of the files, the append position is written
+         * after the records so that partial records are ignored
+         */
+        public void writeHeaders() {
+            log.putInt(0, LOG_MAGIC);
+            log.putLong(8, appendPosition);
+            log.putLong(16, liveBytes);
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, capacity);
+            index.putInt(8, count);
+            index.putInt(12, usedSlots);
+        }
+
+        /**
+         * Forces the mapped changes to the storage device
+         */
+        public void force() {
+            log.force();
+            index.force();
+        }
+
+        /**
+         * Closes the files and releases their mappings,
+         * it must be called while no other thread reads the files
+         */
+        public void close() {
+            try {
+                force();
+            }
+            catch (Exception ex) {}
+            unmap(log);
+            unmap(index);
+            try {
+                logChannel.close();
+            }
+            catch (Exception ex) {}
+            try {
+                indexChannel.close();
+            }
+            catch (Exception ex) {}
+        }
+    }
+}
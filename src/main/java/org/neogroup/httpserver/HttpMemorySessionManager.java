@@ -0,0 +1,165 @@
+package org.neogroup.httpserver;
+
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * Session manager that holds the sessions in the memory of the server.
+ * The client only receives the id of the session, in a cookie or as a
+ * request parameter. With a session store the sessions survive restarts
+ * of the server, the created and modified sessions are saved in the store
+ * and the sessions that are not in memory are loaded from it
+ */
+public class HttpMemorySessionManager extends HttpSessionManager {
+
+    private static final String SESSION_SAVE_ERROR_MESSAGE = "Session \"{0}\" could not be saved in the store: {1}";
+
+    private final HttpSessionStore store;
+    private HttpSessionRegistry sessions;
+
+    /**
+     * Constructor for a memory session manager without persistence
+     */
+    public HttpMemorySessionManager() {
+        this(null);
+    }
+
+    /**
+     * Constructor for a memory session manager backed by a session store
+     * @param store session store
+     */
+    public HttpMemorySessionManager(HttpSessionStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Obtains the session store
+     * @return session store or null
+     */
+    public HttpSessionStore getStore() {
+        return store;
+    }
+
+    /**
+     * Creates the session registry and opens the store
+     * @param server http server
+     */
+    @Override
+    protected void start(HttpServer server) {
+        if (store != null) {
+            store.start(server);
+        }
+        if (sessions == null) {
+            sessions = new HttpSessionRegistry(server.getProperty(HttpServer.SESSION_CHECKOUT_INTERVAL_PROPERTY_NAME, HttpServer.DEFAULT_SESSION_CHECKOUT_INTERVAL), store);
+        }
+    }
+
+    /**
+     * Closes the store
+     */
+    @Override
+    protected void stop() {
+        if (store != null) {
+            store.stop();
+        }
+    }
+
+    /**
+     * Obtains the registry of the sessions
+     * @return session registry
+     */
+    public HttpSessionRegistry getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Removes the expired sessions of the registry
+     * @param time current time in milliseconds
+     */
+    @Override
+    protected void expireSessions(long time) {
+        sessions.expireSessions(time);
+    }
+
+    /**
+     * Obtains the registered session whose id was sent in the request
+     * @param exchange http exchange
+     * @return http session or null if the request has no valid session
+     */
+    @Override
+    protected HttpSession getSession(HttpExchange exchange) {
+        HttpSession session = null;
+        UUID sessionId = getSessionId(exchange);
+        if (sessionId != null) {
+            session = sessions.getSession(sessionId);
+            if (session != null) {
+                session.checkSession();
+                if (store != null && session.isActivitySaveRequired()) {
+                    session.setModified(true);
+                }
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Registers a new session and sends its id to the client,
+     * the new and modified sessions are saved in the store and
+     * the invalidated sessions are removed from it
+     * @param exchange http exchange
+     * @param session session to save
+     */
+    @Override
+    protected void saveSession(HttpExchange exchange, HttpSession session) {
+        if (session.isValid()) {
+            if (session.isNew()) {
+                sessions.addSession(session);
+                if (exchange.getConnection().getServer().getProperty(HttpServer.SESSION_USE_COOKIES_PROPERTY_NAME, HttpServer.DEFAULT_SESSION_USE_COOKIES)) {
+                    HttpCookie cookie = new HttpCookie(getSessionName(exchange), session.getId().toString());
+                    cookie.setPath("/");
+                    exchange.addCookie(cookie);
+                }
+                session.checkSession();
+            }
+            if (store != null) {
+                //A session that can not be persisted is kept in memory, the response must not fail because of the store
+                try {
+                    store.save(session);
+                    session.setSaveTimestamp(session.getLastActivityTimestamp());
+                }
+                catch (RuntimeException ex) {
+                    exchange.getConnection().getServer().log(Level.WARNING, SESSION_SAVE_ERROR_MESSAGE, session.getId(), ex);
+                }
+            }
+        }
+        else {
+            //Invalidated sessions are removed from the registry and from the store
+            sessions.removeSession(session);
+        }
+        session.setModified(false);
+    }
+
+    /**
+     * Obtains the session id sent in the request
+     * @param exchange http exchange
+     * @return id of the session or null
+     */
+    protected UUID getSessionId(HttpExchange exchange) {
+        String sessionIdString;
+        if (exchange.getConnection().getServer().getProperty(HttpServer.SESSION_USE_COOKIES_PROPERTY_NAME, HttpServer.DEFAULT_SESSION_USE_COOKIES)) {
+            HttpCookie sessionCookie = exchange.getCookie(getSessionName(exchange));
+            sessionIdString = sessionCookie != null? sessionCookie.getValue() : null;
+        }
+        else {
+            sessionIdString = exchange.getRequestParameter(getSessionName(exchange));
+        }
+        UUID sessionId = null;
+        if (sessionIdString != null && !sessionIdString.isEmpty()) {
+            try {
+                sessionId = UUID.fromString(sessionIdString);
+            }
+            catch (IllegalArgumentException ex) {}
+        }
+        return sessionId;
+    }
+}
@@ -0,0 +1,318 @@
+package org.neogroup.httpserver;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reactor that handles the read readiness of a subset of the server connections
+ * with its own selector and its own dispatcher thread.
+ * Every connection keeps a single selection key for its whole life, the read
+ * interest is turned off while a worker owns the connection and turned on again
+ * when the connection is resumed. The write interest is turned on while the
+ * outbound queue of a connection has bytes that the socket could not take.
+ * The timeouts of the connections owned by the reactor are kept in a timer
+ * wheel that is only accessed by the reactor thread, the activity of a
+ * connection just updates its timestamps and the deadline is checked again
+ * when its timeout expires
+ */
+public class HttpReactor implements Runnable {
+
+    private static final String REACTOR_THREAD_NAME_TEMPLATE = "HttpReactor-%d";
+    private static final int TIMER_WHEEL_SLOTS = 512;
+
+    private final HttpServer server;
+    private final int id;
+    private final Queue<HttpConnection> newConnections;
+    private final Queue<HttpConnection> readyConnections;
+    private final Queue<HttpConnection> writeConnections;
+    private final Queue<HttpConnection> timeoutConnections;
+    private final List<HttpTimerWheel.Timeout> expiredTimeouts;
+    private final AtomicInteger connectionsCount;
+    private final AtomicBoolean wakeupPending;
+    private Selector selector;
+    private HttpTimerWheel timerWheel;
+    private int maxInactiveInterval;
+    private int writeTimeout;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Constructor for a reactor
+     * @param server http server associated with the reactor
+     * @param id identifier of the reactor
+     */
+    protected HttpReactor(HttpServer server, int id) {
+        this.server = server;
+        this.id = id;
+        this.newConnections = new ConcurrentLinkedQueue<>();
+        this.readyConnections = new ConcurrentLinkedQueue<>();
+        this.writeConnections = new ConcurrentLinkedQueue<>();
+        this.timeoutConnections = new ConcurrentLinkedQueue<>();
+        this.expiredTimeouts = new ArrayList<>();
+        this.connectionsCount = new AtomicInteger(0);
+        this.wakeupPending = new AtomicBoolean(false);
+        this.running = false;
+    }
+
+    /**
+     * Obtains the identifier of the reactor
+     * @return id of the reactor
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Obtains the amount of open connections handled by the reactor
+     * @return amount of connections
+     */
+    public int getConnectionsCount() {
+        return connectionsCount.get();
+    }
+
+    /**
+     * Indicates if the current thread is the reactor thread
+     * @return boolean
+     */
+    protected boolean isReactorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Starts the reactor thread
+     */
+    protected void start() {
+        try {
+            selector = Selector.open();
+        }
+        catch (Exception ex) {
+            throw new HttpException("Error creating reactor selector", ex);
+        }
+        maxInactiveInterval = server.getProperty(HttpServer.CONNECTION_MAX_INACTIVE_INTERVAL_PROPERTY_NAME, HttpServer.DEFAULT_CONNECTION_MAX_INACTIVE_INTERVAL);
+        writeTimeout = server.getProperty(HttpServer.CONNECTION_WRITE_TIMEOUT_PROPERTY_NAME, HttpServer.DEFAULT_CONNECTION_WRITE_TIMEOUT);
+        timerWheel = new HttpTimerWheel(TIMER_WHEEL_SLOTS, server.getProperty(HttpServer.CONNECTION_TIMEOUT_PRECISION_PROPERTY_NAME, HttpServer.DEFAULT_CONNECTION_TIMEOUT_PRECISION), System.currentTimeMillis());
+        running = true;
+        thread = new Thread(this, String.format(REACTOR_THREAD_NAME_TEMPLATE, id));
+        thread.start();
+    }
+
+    /**
+     * Stops the reactor thread
+     */
+    protected void stop() {
+        running = false;
+        try {
+            selector.close();
+        } catch (Exception ex) {
+        }
+        selector = null;
+    }
+
+    /**
+     * Adds a new accepted connection to the reactor
+     * @param connection connection to add
+     */
+    protected void addConnection(HttpConnection connection) {
+        connectionsCount.incrementAndGet();
+        newConnections.add(connection);
+        wakeup();
+    }
+
+    /**
+     * Removes a closed connection from the reactor
+     * @param connection connection to remove
+     */
+    protected void removeConnection(HttpConnection connection) {
+        connectionsCount.decrementAndGet();
+        if (isReactorThread()) {
+            timerWheel.cancel(connection.getTimeout());
+        }
+    }
+
+    /**
+     * Returns a connection to the reactor so that it waits for the next request
+     * @param connection connection to resume
+     */
+    protected void resumeConnection(HttpConnection connection) {
+        readyConnections.add(connection);
+        wakeup();
+    }
+
+    /**
+     * Turns on the write interest of a connection whose outbound queue has pending bytes
+     * @param connection connection to write
+     */
+    protected void registerWrite(HttpConnection connection) {
+        writeConnections.add(connection);
+        wakeup();
+    }
+
+    /**
+     * Schedules the timeout of a connection that is not owned by a worker
+     * @param connection connection to check
+     */
+    protected void scheduleTimeout(HttpConnection connection) {
+        timeoutConnections.add(connection);
+        wakeup();
+    }
+
+    /**
+     * Wakes up the reactor selector, only once per selection
+     */
+    private void wakeup() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            Selector currentSelector = selector;
+            if (currentSelector != null) {
+                currentSelector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Schedules the timeout of a connection at its next deadline
+     * @param connection connection to schedule
+     * @param time current time in milliseconds
+     */
+    private void scheduleTimeout(HttpConnection connection, long time) {
+        if (!connection.isClosed()) {
+            timerWheel.schedule(connection.getTimeout(), Math.max(getTimeoutDeadline(connection), time));
+        }
+    }
+
+    /**
+     * Obtains the time when a connection must be closed because of its inactivity.
+     * Connections that are still writing queued bytes are only closed if no byte
+     * was written during the write timeout
+     * @param connection connection to check
+     * @return deadline in milliseconds
+     */
+    private long getTimeoutDeadline(HttpConnection connection) {
+        if (connection.hasPendingWrites()) {
+            return connection.getLastWriteTimestamp() + writeTimeout;
+        }
+        return Math.max(connection.getLastActivityTimestamp(), connection.getLastWriteTimestamp()) + maxInactiveInterval;
+    }
+
+    /**
+     * Closes the connections whose timeouts expired, the connections that had
+     * activity since their timeouts were scheduled are scheduled again
+     * @param time current time in milliseconds
+     */
+    private void expireTimeouts(long time) {
+        timerWheel.advance(time, expiredTimeouts);
+        for (HttpTimerWheel.Timeout timeout : expiredTimeouts) {
+            HttpConnection connection = timeout.getConnection();
+            if (!connection.isClosed()) {
+                long deadline = getTimeoutDeadline(connection);
+                if (deadline > time) {
+                    timerWheel.schedule(timeout, deadline);
+                }
+                else if (!connection.hasPendingWrites() && connection.hasActiveStreams()) {
+                    timerWheel.schedule(timeout, time + maxInactiveInterval);
+                }
+                else {
+                    connection.close();
+                    server.onConnectionDestroyed(connection);
+                }
+            }
+        }
+        expiredTimeouts.clear();
+    }
+
+    /**
+     * Reactor loop
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                wakeupPending.set(false);
+
+                //Register new connections
+                HttpConnection connection;
+                while ((connection = newConnections.poll()) != null) {
+                    try {
+                        SelectionKey clientKey = connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                        connection.setSelectionKey(clientKey);
+                        scheduleTimeout(connection, System.currentTimeMillis());
+                    }
+                    catch (Exception ex) {
+                        connection.close();
+                    }
+                }
+
+                //Turn on the read interest of ready connections
+                while ((connection = readyConnections.poll()) != null) {
+                    try {
+                        if (connection.hasBufferedData() && connection.parseBufferedRequest()) {
+                            timerWheel.cancel(connection.getTimeout());
+                            server.dispatchConnection(connection);
+                        }
+                        else {
+                            SelectionKey key = connection.getSelectionKey();
+                            key.interestOps(SelectionKey.OP_READ | (key.interestOps() & SelectionKey.OP_WRITE));
+                            scheduleTimeout(connection, System.currentTimeMillis());
+                        }
+                    }
+                    catch (Exception ex) {
+                        connection.close();
+                    }
+                }
+
+                //Turn on the write interest of connections with queued bytes
+                while ((connection = writeConnections.poll()) != null) {
+                    try {
+                        SelectionKey key = connection.getSelectionKey();
+                        if (key.isValid() && connection.hasPendingWrites()) {
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        }
+                    }
+                    catch (Exception ex) {
+                        connection.close();
+                    }
+                }
+
+                //Schedule the timeouts of connections that are closed when their queued bytes are written
+                while ((connection = timeoutConnections.poll()) != null) {
+                    scheduleTimeout(connection, System.currentTimeMillis());
+                }
+
+                selector.select(timerWheel.getTimeToNextTick(System.currentTimeMillis()));
+                Iterator<SelectionKey> selectorIterator = selector.selectedKeys().iterator();
+                while (selectorIterator.hasNext()) {
+                    SelectionKey key = selectorIterator.next();
+                    selectorIterator.remove();
+                    if (key.isValid()) {
+                        try {
+                            connection = (HttpConnection) key.attachment();
+                            if (key.isWritable() && connection.flushWrites() && key.isValid()) {
+                                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                if (connection.readRequest()) {
+                                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                                    timerWheel.cancel(connection.getTimeout());
+                                    server.dispatchConnection(connection);
+                                }
+                            }
+                        } catch (Exception ex) {}
+                    }
+                }
+
+                //Close the connections that exceeded their timeouts
+                expireTimeouts(System.currentTimeMillis());
+            } catch (Exception ex) {
+                if (running) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 
 package org.neogroup.httpserver;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Collection;
 import java.util.List;
@@ -14,10 +15,10 @@ public class HttpRequest {
     private final HttpExchange exchange;
 
     /**
-     * Constructor for a http request
+     * Constructor for the http request bound to the current thread
      */
     public HttpRequest () {
-        this(HttpServer.getCurrentThreadConnection());
+        this(HttpRequestScope.getRequiredExchange());
     }
 
     /**
@@ -25,7 +26,23 @@ public class HttpRequest {
      * @param connection
      */
     protected HttpRequest (HttpConnection connection) {
-        this.exchange = connection.getExchange();
+        this(connection.getExchange());
+    }
+
+    /**
+     * Constructor for a http request with a given exchange
+     * @param exchange http exchange
+     */
+    protected HttpRequest (HttpExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * Obtains the exchange associated with the request
+     * @return http exchange
+     */
+    protected HttpExchange getExchange() {
+        return exchange;
     }
 
     /**
@@ -68,6 +85,31 @@ public class HttpRequest {
         return exchange.getRequestPathParts();
     }
 
+    /**
+     * Retrieve the values of the path parameters of the matched context
+     * @return map of path parameters
+     */
+    public Map<String, String> getPathParameters() {
+        return exchange.getRequestPathParameters();
+    }
+
+    /**
+     * Retrieve the value of a path parameter
+     * @param name name of the path parameter
+     * @return value of the path parameter
+     */
+    public String getPathParameter(String name) {
+        return exchange.getRequestPathParameters().get(name);
+    }
+
+    /**
+     * Sets the values of the path parameters of the matched context
+     * @param pathParameters map of path parameters
+     */
+    protected void setPathParameters(Map<String, String> pathParameters) {
+        exchange.setRequestPathParameters(pathParameters);
+    }
+
     /**
      * Retrieves the requestVersion of the request
      * @return requestVersion
@@ -119,6 +161,22 @@ public class HttpRequest {
         return exchange.getRequestBody();
     }
 
+    /**
+     * Retrieves a stream to read the requestBody of a request
+     * @return requestBody stream
+     */
+    public InputStream getBodyStream() {
+        return exchange.getRequestBodyStream();
+    }
+
+    /**
+     * Retrieves the size of the requestBody of a request
+     * @return size in bytes
+     */
+    public long getBodySize() {
+        return exchange.getRequestBodySize();
+    }
+
     /**
      * Retrieve the http requestParameters of a request
      * @return map of requestParameters
@@ -0,0 +1,202 @@
+package org.neogroup.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Body of a http request.
+ * The body is kept in memory while its size is below a threshold, bigger
+ * bodies are spilled to a temporary file so that the memory used by a
+ * request does not depend on the size of the upload
+ */
+public class HttpRequestBody {
+
+    private static final String TEMPORARY_FILE_PREFIX = "HttpRequestBody";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final int INITIAL_MEMORY_SIZE = 1024;
+
+    private final int memoryThreshold;
+    private byte[] data;
+    private long size;
+    private File file;
+    private FileChannel fileChannel;
+    private final List<FileChannel> readChannels;
+
+    /**
+     * Constructor for a request body
+     * @param memoryThreshold maximum amount of bytes that are kept in memory
+     * @param expectedSize expected size of the body, or -1 if unknown
+     */
+    protected HttpRequestBody(int memoryThreshold, long expectedSize) {
+        this.memoryThreshold = memoryThreshold;
+        this.size = 0;
+        this.readChannels = new ArrayList<>();
+        if (expectedSize >= 0 && expectedSize <= memoryThreshold) {
+            data = new byte[(int)expectedSize];
+        }
+        else {
+            data = new byte[Math.min(INITIAL_MEMORY_SIZE, memoryThreshold)];
+        }
+    }
+
+    /**
+     * Appends bytes of the buffer to the body
+     * @param buffer buffer in read mode
+     * @param length amount of bytes to append
+     */
+    protected void write(ByteBuffer buffer, int length) {
+        if (fileChannel == null && size + length > memoryThreshold) {
+            spill();
+        }
+        if (fileChannel != null) {
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + length);
+            try {
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+            }
+            catch (IOException ex) {
+                throw new HttpException("Error writing request body !!", ex);
+            }
+            finally {
+                buffer.limit(limit);
+            }
+        }
+        else {
+            if (size + length > data.length) {
+                data = Arrays.copyOf(data, (int)Math.min(Math.max(data.length * 2, size + length), memoryThreshold));
+            }
+            buffer.get(data, (int)size, length);
+        }
+        size += length;
+    }
+
+    /**
+     * Moves the body from memory to a temporary file
+     */
+    private void spill() {
+        try {
+            file = File.createTempFile(TEMPORARY_FILE_PREFIX, TEMPORARY_FILE_SUFFIX);
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            ByteBuffer dataBuffer = ByteBuffer.wrap(data, 0, (int)size);
+            while (dataBuffer.hasRemaining()) {
+                fileChannel.write(dataBuffer);
+            }
+            data = null;
+        }
+        catch (IOException ex) {
+            release();
+            throw new HttpException("Error creating request body file !!", ex);
+        }
+    }
+
+    /**
+     * Finishes the writing of the body
+     */
+    protected void complete() {
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+            }
+            catch (IOException ex) {}
+            fileChannel = null;
+        }
+    }
+
+    /**
+     * Releases the resources associated with the body.
+     * The streams handed out for a body spilled to a file are closed
+     * before the file is deleted
+     */
+    protected synchronized void release() {
+        complete();
+        for (FileChannel readChannel : readChannels) {
+            try {
+                readChannel.close();
+            }
+            catch (IOException ex) {}
+        }
+        readChannels.clear();
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+        data = null;
+    }
+
+    /**
+     * Retrieves the size of the body
+     * @return size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Indicates if the body was spilled to a temporary file
+     * @return boolean
+     */
+    public boolean isFileBacked() {
+        return file != null;
+    }
+
+    /**
+     * Retrieves a stream to read the body.
+     * Streams of a body spilled to a file are owned by the body and are
+     * closed when the request is released
+     * @return input stream
+     */
+    public synchronized InputStream getInputStream() {
+        InputStream inputStream;
+        if (file != null) {
+            try {
+                FileChannel readChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                readChannels.add(readChannel);
+                inputStream = Channels.newInputStream(readChannel);
+            }
+            catch (IOException ex) {
+                throw new HttpException("Error reading request body !!", ex);
+            }
+        }
+        else {
+            inputStream = new ByteArrayInputStream(data, 0, (int)size);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Retrieves the bytes of the body.
+     * Bodies spilled to a file are completely loaded in memory, use the
+     * input stream to read big bodies
+     * @return bytes of the body
+     */
+    public byte[] getBytes() {
+        byte[] bytes;
+        if (file != null) {
+            if (size > Integer.MAX_VALUE) {
+                throw new HttpException("Request body too large !!");
+            }
+            try {
+                bytes = Files.readAllBytes(file.toPath());
+            }
+            catch (IOException ex) {
+                throw new HttpException("Error reading request body !!", ex);
+            }
+        }
+        else {
+            bytes = size == data.length ? data : Arrays.copyOf(data, (int)size);
+        }
+        return bytes;
+    }
+}
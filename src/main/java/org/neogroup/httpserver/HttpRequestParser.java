@@ -0,0 +1,454 @@
+package org.neogroup.httpserver;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Resumable http request parser.
+ * The parser consumes the bytes available in a connection buffer and keeps
+ * its state between reads, so that a request split in several tcp segments
+ * is parsed as the segments arrive
+ */
+public class HttpRequestParser {
+
+    private static final int STATE_REQUEST_LINE = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_BODY = 2;
+    private static final int STATE_CHUNK_SIZE = 3;
+    private static final int STATE_CHUNK_DATA = 4;
+    private static final int STATE_CHUNK_END = 5;
+    private static final int STATE_TRAILERS = 6;
+    private static final int STATE_COMPLETE = 7;
+    private static final int STATE_ERROR = 8;
+
+    private static final byte LINE_SEPARATOR_CR = '\r';
+    private static final byte LINE_SEPARATOR_LF = '\n';
+    private static final String REQUEST_LINE_FIELD_SEPARATOR = " ";
+    private static final int HEADER_SEPARATOR = ':';
+    private static final int CHUNK_EXTENSION_SEPARATOR = ';';
+    private static final int TRANSFER_CODING_SEPARATOR = ',';
+    private static final int CHUNK_SIZE_RADIX = 16;
+    private static final int LINE_BUFFER_SIZE = 256;
+    private static final int LINE_MAX_SIZE = 8192;
+    private static final int HEADERS_MAX_SIZE = 65536;
+    private static final int HEADERS_MAX_COUNT = 100;
+
+    private final int bodyMemoryThreshold;
+    private int state;
+    private byte[] lineBuffer;
+    private int lineSize;
+    private HttpBadRequestException error;
+
+    private HttpMethod method;
+    private URI uri;
+    private String version;
+    private HttpHeaders headers;
+    private int headersSize;
+    private long contentLength;
+    private boolean contentLengthFound;
+    private boolean transferEncodingFound;
+    private boolean chunked;
+    private boolean continueExpected;
+    private HttpRequestBody body;
+    private long remainingBodySize;
+
+    /**
+     * Constructor for the request parser
+     * @param bodyMemoryThreshold maximum amount of body bytes kept in memory
+     */
+    protected HttpRequestParser(int bodyMemoryThreshold) {
+        this.bodyMemoryThreshold = bodyMemoryThreshold;
+        lineBuffer = new byte[LINE_BUFFER_SIZE];
+        reset();
+    }
+
+    /**
+     * Resets the parser so that it can parse a new request
+     */
+    protected void reset() {
+        state = STATE_REQUEST_LINE;
+        lineSize = 0;
+        error = null;
+        method = null;
+        uri = null;
+        version = null;
+        headers = new HttpHeaders();
+        headersSize = 0;
+        contentLength = 0;
+        contentLengthFound = false;
+        transferEncodingFound = false;
+        chunked = false;
+        continueExpected = false;
+        body = null;
+        remainingBodySize = 0;
+    }
+
+    /**
+     * Releases the body that is being parsed
+     */
+    protected void release() {
+        if (body != null) {
+            body.release();
+        }
+        reset();
+    }
+
+    /**
+     * Indicates if the parser has not consumed any byte of a request
+     * @return boolean
+     */
+    protected boolean isIdle() {
+        return state == STATE_REQUEST_LINE && lineSize == 0;
+    }
+
+    /**
+     * Consumes the available bytes of the buffer.
+     * Bytes that belong to a following request are left in the buffer
+     * @param buffer buffer in read mode
+     * @return true if a request was completed (or failed), false if more data is needed
+     */
+    protected boolean parse(ByteBuffer buffer) {
+        try {
+            while (state != STATE_COMPLETE && state != STATE_ERROR && buffer.hasRemaining()) {
+                switch (state) {
+                    case STATE_REQUEST_LINE:
+                        if (readLine(buffer)) {
+                            if (lineSize > 0) {
+                                processRequestLine(new String(lineBuffer, 0, lineSize));
+                                state = STATE_HEADERS;
+                            }
+                            lineSize = 0;
+                        }
+                        break;
+                    case STATE_HEADERS:
+                        if (readLine(buffer)) {
+                            if (lineSize > 0) {
+                                processHeaderLine();
+                            }
+                            else {
+                                startBody();
+                            }
+                            lineSize = 0;
+                        }
+                        break;
+                    case STATE_BODY:
+                        readBody(buffer);
+                        if (remainingBodySize == 0) {
+                            completeBody();
+                        }
+                        break;
+                    case STATE_CHUNK_SIZE:
+                        if (readLine(buffer)) {
+                            processChunkSizeLine(new String(lineBuffer, 0, lineSize));
+                            lineSize = 0;
+                        }
+                        break;
+                    case STATE_CHUNK_DATA:
+                        readBody(buffer);
+                        if (remainingBodySize == 0) {
+                            state = STATE_CHUNK_END;
+                        }
+                        break;
+                    case STATE_CHUNK_END:
+                        if (readLine(buffer)) {
+                            if (lineSize > 0) {
+                                throw new HttpBadRequestException("Invalid chunk !!");
+                            }
+                            state = STATE_CHUNK_SIZE;
+                        }
+                        break;
+                    case STATE_TRAILERS:
+                        if (readLine(buffer)) {
+                            if (lineSize > 0) {
+                                processHeaderLine();
+                            }
+                            else {
+                                completeBody();
+                            }
+                            lineSize = 0;
+                        }
+                        break;
+                }
+            }
+        }
+        catch (HttpBadRequestException exception) {
+            error = exception;
+            state = STATE_ERROR;
+        }
+        catch (Exception exception) {
+            error = new HttpBadRequestException("Malformed request !!", exception);
+            state = STATE_ERROR;
+        }
+        return state == STATE_COMPLETE || state == STATE_ERROR;
+    }
+
+    /**
+     * Checks that the request was parsed successfully
+     * @throws HttpBadRequestException if the request was malformed or incomplete
+     */
+    protected void checkRequest() throws HttpBadRequestException {
+        if (state == STATE_ERROR) {
+            throw error;
+        }
+        if (state != STATE_COMPLETE) {
+            throw new HttpBadRequestException("Incomplete request !!");
+        }
+    }
+
+    /**
+     * Reads bytes of the current line
+     * @param buffer buffer in read mode
+     * @return true if the line was completed
+     */
+    private boolean readLine(ByteBuffer buffer) {
+        boolean lineCompleted = false;
+        while (buffer.hasRemaining()) {
+            byte readByte = buffer.get();
+            if (readByte == LINE_SEPARATOR_LF) {
+                if (lineSize > 0 && lineBuffer[lineSize - 1] == LINE_SEPARATOR_CR) {
+                    lineSize--;
+                }
+                lineCompleted = true;
+                break;
+            }
+            if (lineSize == lineBuffer.length) {
+                if (lineSize >= LINE_MAX_SIZE) {
+                    throw new HttpBadRequestException("Request line too long !!");
+                }
+                lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineSize * 2, LINE_MAX_SIZE));
+            }
+            lineBuffer[lineSize++] = readByte;
+        }
+        return lineCompleted;
+    }
+
+    /**
+     * Parses the request line
+     * @param requestLine String with the request line
+     * @throws Exception
+     */
+    private void processRequestLine(String requestLine) throws Exception {
+
+        String[] parts = requestLine.split(REQUEST_LINE_FIELD_SEPARATOR);
+        method = HttpMethod.valueOf(parts[0]);
+        uri = new URI(parts[1]);
+        version = parts[2];
+    }
+
+    /**
+     * Parses the header line of the line buffer.
+     * The name and the trimmed value are taken straight from the bytes of the line,
+     * standard header names are not allocated. The headers and trailers of a request
+     * share the limits of size and amount of lines, and only the headers frame the body
+     * @throws Exception
+     */
+    private void processHeaderLine() throws Exception {
+
+        headersSize += lineSize + 2;
+        if (headersSize > HEADERS_MAX_SIZE) {
+            throw new HttpBadRequestException("Request headers too large !!");
+        }
+        if (headers.size() >= HEADERS_MAX_COUNT) {
+            throw new HttpBadRequestException("Too many request headers !!");
+        }
+
+        int separatorIndex = 0;
+        while (separatorIndex < lineSize && lineBuffer[separatorIndex] != HEADER_SEPARATOR) {
+            separatorIndex++;
+        }
+        if (separatorIndex == 0 || separatorIndex == lineSize) {
+            throw new HttpBadRequestException("Invalid header !!");
+        }
+        int valueStart = separatorIndex + 1;
+        int valueEnd = lineSize;
+        while (valueStart < valueEnd && lineBuffer[valueStart] <= ' ') {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && lineBuffer[valueEnd - 1] <= ' ') {
+            valueEnd--;
+        }
+        String headerName = HttpHeaders.getName(lineBuffer, 0, separatorIndex);
+        String headerValue = new String(lineBuffer, valueStart, valueEnd - valueStart);
+        headers.add(headerName, headerValue);
+
+        if (state != STATE_HEADERS) {
+            return;
+        }
+        if (headerName.equalsIgnoreCase(HttpHeader.CONTENT_LENGTH)) {
+            //Repeated lengths are rejected, intermediaries may have framed the body with another one
+            if (contentLengthFound) {
+                throw new HttpBadRequestException("Duplicate content length !!");
+            }
+            if (headerValue.isEmpty() || !isDigits(headerValue)) {
+                throw new HttpBadRequestException("Invalid content length !!");
+            }
+            contentLength = Long.parseLong(headerValue);
+            contentLengthFound = true;
+        }
+        else if (headerName.equalsIgnoreCase(HttpHeader.TRANSFER_ENCODING)) {
+            processTransferEncoding(headerValue);
+        }
+        else if (headerName.equalsIgnoreCase(HttpHeader.EXPECT)) {
+            continueExpected = headerValue.equalsIgnoreCase(HttpHeader.CONTINUE_EXPECTATION);
+        }
+    }
+
+    /**
+     * Processes the codings of a transfer encoding header.
+     * The codings of all the transfer encoding headers form a single list,
+     * and chunked is only accepted as the last coding of that list
+     * @param headerValue value of the transfer encoding header
+     */
+    private void processTransferEncoding(String headerValue) {
+        transferEncodingFound = true;
+        int codingStart = 0;
+        while (codingStart <= headerValue.length()) {
+            int codingEnd = headerValue.indexOf(TRANSFER_CODING_SEPARATOR, codingStart);
+            if (codingEnd < 0) {
+                codingEnd = headerValue.length();
+            }
+            String coding = headerValue.substring(codingStart, codingEnd).trim();
+            //Empty list elements are allowed and ignored
+            if (!coding.isEmpty()) {
+                //A coding applied after chunked would hide the end of the body
+                if (chunked) {
+                    throw new HttpBadRequestException("Chunked is not the last transfer encoding !!");
+                }
+                chunked = coding.equalsIgnoreCase(HttpHeader.CHUNKED_TRANSFER_ENCODING);
+            }
+            codingStart = codingEnd + 1;
+        }
+    }
+
+    /**
+     * Indicates if a value only has decimal digits
+     * @param value value to check
+     * @return boolean
+     */
+    private static boolean isDigits(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            if (character < '0' || character > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a chunk size line
+     * @param chunkSizeLine String with the chunk size line
+     */
+    private void processChunkSizeLine(String chunkSizeLine) {
+
+        int extensionIndex = chunkSizeLine.indexOf(CHUNK_EXTENSION_SEPARATOR);
+        if (extensionIndex >= 0) {
+            chunkSizeLine = chunkSizeLine.substring(0, extensionIndex);
+        }
+        remainingBodySize = Long.parseLong(chunkSizeLine.trim(), CHUNK_SIZE_RADIX);
+        if (remainingBodySize < 0) {
+            throw new HttpBadRequestException("Invalid chunk size !!");
+        }
+        state = remainingBodySize > 0 ? STATE_CHUNK_DATA : STATE_TRAILERS;
+    }
+
+    /**
+     * Starts the body section of the request
+     */
+    private void startBody() {
+
+        //A request framed in two ways could be read differently by an intermediary, so it is rejected
+        if (transferEncodingFound && contentLengthFound) {
+            throw new HttpBadRequestException("Content length and transfer encoding in the same request !!");
+        }
+        if (transferEncodingFound && !chunked) {
+            throw new HttpBadRequestException("Unsupported transfer encoding !!");
+        }
+        if (chunked) {
+            body = new HttpRequestBody(bodyMemoryThreshold, -1);
+            state = STATE_CHUNK_SIZE;
+        }
+        else {
+            body = new HttpRequestBody(bodyMemoryThreshold, contentLength);
+            remainingBodySize = contentLength;
+            if (remainingBodySize > 0) {
+                state = STATE_BODY;
+            }
+            else {
+                completeBody();
+            }
+        }
+    }
+
+    /**
+     * Reads bytes of the request body
+     * @param buffer buffer in read mode
+     */
+    private void readBody(ByteBuffer buffer) {
+        int readSize = (int)Math.min(buffer.remaining(), remainingBodySize);
+        body.write(buffer, readSize);
+        remainingBodySize -= readSize;
+    }
+
+    /**
+     * Completes the body of the request
+     */
+    private void completeBody() {
+        body.complete();
+        state = STATE_COMPLETE;
+    }
+
+    /**
+     * Indicates if the client is waiting for a continue status before sending the body.
+     * The expectation is consumed with this call
+     * @return boolean
+     */
+    protected boolean checkContinueExpected() {
+        boolean expected = continueExpected && (state == STATE_BODY || state == STATE_CHUNK_SIZE);
+        if (expected) {
+            continueExpected = false;
+        }
+        return expected;
+    }
+
+    /**
+     * Retrieves the method of the parsed request
+     * @return http method
+     */
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    /**
+     * Retrieves the uri of the parsed request
+     * @return uri
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * Retrieves the version of the parsed request
+     * @return version
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the headers of the parsed request
+     * @return headers
+     */
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Retrieves the body of the parsed request
+     * @return body
+     */
+    public HttpRequestBody getBody() {
+        return body;
+    }
+}
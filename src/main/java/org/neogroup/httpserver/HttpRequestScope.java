@@ -0,0 +1,157 @@
+package org.neogroup.httpserver;
+
+import java.util.function.Supplier;
+
+/**
+ * Binding of a request to the threads that handle it.
+ * The worker thread that handles a request binds its exchange in a thread
+ * local, so that the requests and responses created with the default
+ * constructors refer to it. Code that continues the handling of a request
+ * in another thread captures the scope of the request and wraps its tasks,
+ * the wrapped tasks bind the request while they run and restore the
+ * previous binding of the thread when they finish
+ */
+public class HttpRequestScope {
+
+    private static final ThreadLocal<HttpExchange> currentExchange = new ThreadLocal<>();
+
+    private final HttpExchange exchange;
+
+    /**
+     * Constructor for a request scope
+     * @param exchange http exchange of the request
+     */
+    protected HttpRequestScope(HttpExchange exchange) {
+        this.exchange = exchange;
+    }
+
+    /**
+     * Obtains the scope of the request that is bound to the current thread
+     * @return request scope
+     */
+    public static HttpRequestScope current() {
+        return new HttpRequestScope(getRequiredExchange());
+    }
+
+    /**
+     * Obtains the scope of a request
+     * @param request http request
+     * @return request scope
+     */
+    public static HttpRequestScope of(HttpRequest request) {
+        return new HttpRequestScope(request.getExchange());
+    }
+
+    /**
+     * Wraps a task so that it runs with the request bound to its thread
+     * @param task task to wrap
+     * @return wrapped task
+     */
+    public Runnable wrap(Runnable task) {
+        return new ScopedRunnable(exchange, task);
+    }
+
+    /**
+     * Wraps a supplier so that it runs with the request bound to its thread
+     * @param supplier supplier to wrap
+     * @param <T> type of the supplied value
+     * @return wrapped supplier
+     */
+    public <T> Supplier<T> wrap(Supplier<T> supplier) {
+        return new ScopedSupplier<>(exchange, supplier);
+    }
+
+    /**
+     * Binds an exchange to the current thread
+     * @param exchange http exchange to bind
+     * @return exchange that was bound before, to be restored with exit
+     */
+    protected static HttpExchange enter(HttpExchange exchange) {
+        HttpExchange previousExchange = currentExchange.get();
+        currentExchange.set(exchange);
+        return previousExchange;
+    }
+
+    /**
+     * Restores the exchange that was bound to the current thread before enter
+     * @param previousExchange exchange returned by enter
+     */
+    protected static void exit(HttpExchange previousExchange) {
+        if (previousExchange != null) {
+            currentExchange.set(previousExchange);
+        }
+        else {
+            currentExchange.remove();
+        }
+    }
+
+    /**
+     * Obtains the exchange bound to the current thread
+     * @return http exchange or null if no request is bound
+     */
+    protected static HttpExchange getCurrentExchange() {
+        return currentExchange.get();
+    }
+
+    /**
+     * Obtains the exchange bound to the current thread, failing if there is none
+     * @return http exchange
+     */
+    protected static HttpExchange getRequiredExchange() {
+        HttpExchange exchange = currentExchange.get();
+        if (exchange == null) {
+            throw new HttpException("No request is bound to the current thread, use the request of the context or a wrapped task !!");
+        }
+        return exchange;
+    }
+
+    /**
+     * Runnable that binds a request while it runs
+     */
+    private static class ScopedRunnable implements Runnable {
+
+        private final HttpExchange exchange;
+        private final Runnable task;
+
+        public ScopedRunnable(HttpExchange exchange, Runnable task) {
+            this.exchange = exchange;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            HttpExchange previousExchange = enter(exchange);
+            try {
+                task.run();
+            }
+            finally {
+                exit(previousExchange);
+            }
+        }
+    }
+
+    /**
+     * Supplier that binds a request while it runs
+     */
+    private static class ScopedSupplier<T> implements Supplier<T> {
+
+        private final HttpExchange exchange;
+        private final Supplier<T> supplier;
+
+        public ScopedSupplier(HttpExchange exchange, Supplier<T> supplier) {
+            this.exchange = exchange;
+            this.supplier = supplier;
+        }
+
+        @Override
+        public T get() {
+            HttpExchange previousExchange = enter(exchange);
+            try {
+                return supplier.get();
+            }
+            finally {
+                exit(previousExchange);
+            }
+        }
+    }
+}
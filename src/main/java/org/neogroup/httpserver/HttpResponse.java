@@ -3,7 +3,9 @@ package org.neogroup.httpserver;
 
 import org.neogroup.util.MimeUtils;
 
+import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.MessageFormat;
 import java.util.*;
 
@@ -15,10 +17,20 @@ public class HttpResponse {
     private final HttpExchange exchange;
 
     /**
-     * Default constructor for a http response
+     * Default constructor for a response of the request bound to the current thread
      */
     public HttpResponse () {
-        this(HttpServer.getCurrentThreadConnection());
+        this(HttpRequestScope.getRequiredExchange());
+    }
+
+    /**
+     * Constructor for a response of a given request.
+     * Used by asynchronous contexts whose responses are created outside
+     * the thread that received the request
+     * @param request Http request
+     */
+    public HttpResponse(HttpRequest request) {
+        this(request.getExchange());
     }
 
     /**
@@ -26,7 +38,15 @@ public class HttpResponse {
      * @param connection Http connection
      */
     protected HttpResponse(HttpConnection connection) {
-        this.exchange = connection.getExchange();
+        this(connection.getExchange());
+    }
+
+    /**
+     * Constructor for a response with the associated exchange
+     * @param exchange Http exchange
+     */
+    protected HttpResponse(HttpExchange exchange) {
+        this.exchange = exchange;
     }
 
     /**
@@ -120,6 +140,15 @@ public class HttpResponse {
         exchange.setResponseBody(body);
     }
 
+    /**
+     * Sets the content of the response with the content of a file.
+     * The file is transferred to the connection without being loaded in memory
+     * @param file file with the content of the response
+     */
+    public void setBody(File file) {
+        exchange.setResponseBody(file);
+    }
+
     /**
      * Writes content in the response
      * @param text text to write in the response
@@ -136,6 +165,29 @@ public class HttpResponse {
         exchange.write(bytes);
     }
 
+    /**
+     * Writes a region of a file in the response.
+     * The region is transferred to the connection without being loaded in memory
+     * @param file file to write
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    public void write(File file, long position, long count) {
+        exchange.write(file, position, count);
+    }
+
+    /**
+     * Writes a region of a file in the response.
+     * The region is transferred to the connection without being loaded in memory,
+     * the channel belongs to the caller so the region is never deferred
+     * @param fileChannel channel of the file
+     * @param position position of the region in the file
+     * @param count size of the region
+     */
+    public void write(FileChannel fileChannel, long position, long count) {
+        exchange.write(fileChannel, position, count);
+    }
+
     /**
      * Flushes content in the response
      */
@@ -143,6 +195,13 @@ public class HttpResponse {
         exchange.flush();
     }
 
+    /**
+     * Finishes the response, sending the pending headers and content
+     */
+    protected void finish() {
+        exchange.finish();
+    }
+
     /**
      * Adds a new cookie to the response
      * @param cookie cookie to add
@@ -3,6 +3,7 @@ package org.neogroup.httpserver;
 public final class HttpResponseCode {
 
     public static final int HTTP_CONTINUE = 100;
+    public static final int HTTP_SWITCHING_PROTOCOLS = 101;
     public static final int HTTP_OK = 200;
     public static final int HTTP_CREATED = 201;
     public static final int HTTP_ACCEPTED = 202;
@@ -32,6 +33,7 @@ public final class HttpResponseCode {
     public static final int HTTP_ENTITY_TOO_LARGE = 413;
     public static final int HTTP_REQ_TOO_LONG = 414;
     public static final int HTTP_UNSUPPORTED_TYPE = 415;
+    public static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
     public static final int HTTP_INTERNAL_ERROR = 500;
     public static final int HTTP_NOT_IMPLEMENTED = 501;
     public static final int HTTP_BAD_GATEWAY = 502;
@@ -44,6 +46,7 @@ public final class HttpResponseCode {
         switch (code) {
             case HTTP_OK: return "OK";
             case HTTP_CONTINUE: return "Continue";
+            case HTTP_SWITCHING_PROTOCOLS: return "Switching Protocols";
             case HTTP_CREATED: return "Created";
             case HTTP_ACCEPTED: return "Accepted";
             case HTTP_NOT_AUTHORITATIVE: return "Non-Authoritative Information";
@@ -72,6 +75,7 @@ public final class HttpResponseCode {
             case HTTP_ENTITY_TOO_LARGE: return "Request Entity Too Large";
             case HTTP_REQ_TOO_LONG: return "Request-URI Too Large";
             case HTTP_UNSUPPORTED_TYPE: return "Unsupported Media Type";
+            case HTTP_RANGE_NOT_SATISFIABLE: return "Requested Range Not Satisfiable";
             case HTTP_INTERNAL_ERROR: return "Internal Server Error";
             case HTTP_NOT_IMPLEMENTED: return "Not Implemented";
             case HTTP_BAD_GATEWAY: return "Bad Gateway";
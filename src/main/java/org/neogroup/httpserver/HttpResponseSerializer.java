@@ -0,0 +1,169 @@
+package org.neogroup.httpserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer of the status line and the headers of a http response.
+ * The response head is encoded straight into a buffer borrowed from the
+ * server pool so that it can be written together with the body in a
+ * single gathering write
+ */
+public class HttpResponseSerializer {
+
+    private static final int ASCII_LIMIT = 0x80;
+    private static final byte SPACE = ' ';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte HEADER_SEPARATOR = ':';
+    private static final byte[] HTTP_1_1_VERSION = "HTTP/1.1".getBytes();
+
+    private final HttpBufferPool bufferPool;
+    private ByteBuffer pooledBuffer;
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor for the response serializer
+     * @param bufferPool pool of buffers to encode the response heads
+     */
+    protected HttpResponseSerializer(HttpBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Prepares the serializer so that a new response head can be encoded
+     */
+    protected void reset() {
+        if (pooledBuffer == null) {
+            pooledBuffer = bufferPool.acquire();
+        }
+        buffer = pooledBuffer;
+        buffer.clear();
+    }
+
+    /**
+     * Returns the buffer of the serializer to the pool
+     */
+    protected void release() {
+        if (pooledBuffer != null) {
+            bufferPool.release(pooledBuffer);
+            pooledBuffer = null;
+        }
+        buffer = null;
+    }
+
+    /**
+     * Encodes the status line of the response
+     * @param responseCode response code
+     */
+    protected void writeStatusLine(int responseCode) {
+        ensureCapacity(HTTP_1_1_VERSION.length + 16);
+        buffer.put(HTTP_1_1_VERSION);
+        buffer.put(SPACE);
+        putInt(responseCode);
+        buffer.put(SPACE);
+        putString(HttpResponseCode.msg(responseCode));
+        putLineSeparator();
+    }
+
+    /**
+     * Encodes a header line
+     * @param headerName name of the header
+     * @param headerValue value of the header
+     */
+    protected void writeHeader(String headerName, String headerValue) {
+        putString(headerName);
+        ensureCapacity(2);
+        buffer.put(HEADER_SEPARATOR);
+        buffer.put(SPACE);
+        putString(headerValue);
+        putLineSeparator();
+    }
+
+    /**
+     * Encodes a header line with a pre rendered value
+     * @param headerName name of the header
+     * @param headerValue bytes of the value of the header
+     */
+    protected void writeHeader(String headerName, byte[] headerValue) {
+        putString(headerName);
+        ensureCapacity(headerValue.length + 2);
+        buffer.put(HEADER_SEPARATOR);
+        buffer.put(SPACE);
+        buffer.put(headerValue);
+        putLineSeparator();
+    }
+
+    /**
+     * Encodes the empty line that ends the headers
+     */
+    protected void writeEndOfHeaders() {
+        putLineSeparator();
+    }
+
+    /**
+     * Obtains the buffer with the encoded response head, ready to be written
+     * @return byte buffer in read mode
+     */
+    protected ByteBuffer getBuffer() {
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encodes a line separator
+     */
+    private void putLineSeparator() {
+        ensureCapacity(2);
+        buffer.put(CR);
+        buffer.put(LF);
+    }
+
+    /**
+     * Encodes a positive integer as ascii digits
+     * @param value value to encode
+     */
+    private void putInt(int value) {
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buffer.put((byte)('0' + (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Encodes a string, ascii strings are encoded without intermediate arrays
+     * @param value string to encode
+     */
+    private void putString(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        int startPosition = buffer.position();
+        for (int i = 0; i < length; i++) {
+            char character = value.charAt(i);
+            if (character >= ASCII_LIMIT) {
+                buffer.position(startPosition);
+                byte[] bytes = value.getBytes();
+                ensureCapacity(bytes.length);
+                buffer.put(bytes);
+                return;
+            }
+            buffer.put((byte)character);
+        }
+    }
+
+    /**
+     * Grows the buffer if it can not hold the given amount of bytes
+     * @param size amount of bytes to write
+     */
+    private void ensureCapacity(int size) {
+        if (buffer.remaining() < size) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.neogroup.httpserver;
+
+import org.neogroup.httpserver.contexts.HttpContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable router of http contexts.
+ * The context paths are stored in a compressed radix tree and a request path
+ * is routed to the context with the longest matching path prefix. Context paths
+ * may contain parameters, such as "/users/{id}", that match a whole path segment.
+ * Routers are never modified, so lookups do not need any lock
+ */
+public class HttpRouter {
+
+    private static final char PARAMETER_START = '{';
+    private static final char PARAMETER_END = '}';
+    private static final char PATH_SEPARATOR = '/';
+
+    private final Node root;
+
+    /**
+     * Constructor for the router.
+     * If many contexts have the same path the last one is used
+     * @param contexts contexts to route
+     */
+    protected HttpRouter(Collection<HttpContext> contexts) {
+        root = new Node("");
+        for (HttpContext context : contexts) {
+            insert(root, context.getPath(), 0, context);
+        }
+    }
+
+    /**
+     * Finds the context for a request path
+     * @param path request path
+     * @return match with the context and the path parameters, or null if no context matches the path
+     */
+    public Match find(String path) {
+        Match match = new Match();
+        find(root, path, 0, new ArrayList<String>(), new ArrayList<String>(), match);
+        return match.context != null? match : null;
+    }
+
+    /**
+     * Inserts a context path in the tree
+     * @param node node whose label was already consumed
+     * @param path context path
+     * @param index index of the path to insert
+     * @param context context of the path
+     */
+    private void insert(Node node, String path, int index, HttpContext context) {
+
+        if (index == path.length()) {
+            node.context = context;
+        }
+        else if (path.charAt(index) == PARAMETER_START) {
+            int parameterEnd = path.indexOf(PARAMETER_END, index);
+            if (parameterEnd < 0) {
+                throw new IllegalArgumentException("Invalid context path \"" + path + "\" !!");
+            }
+            String parameterName = path.substring(index + 1, parameterEnd);
+            if (node.parameterChild == null) {
+                node.parameterChild = new Node("");
+                node.parameterName = parameterName;
+            }
+            else if (!node.parameterName.equals(parameterName)) {
+                throw new IllegalArgumentException("Conflicting parameter \"" + parameterName + "\" in context path \"" + path + "\" !!");
+            }
+            insert(node.parameterChild, path, parameterEnd + 1, context);
+        }
+        else {
+            int staticEnd = path.indexOf(PARAMETER_START, index);
+            if (staticEnd < 0) {
+                staticEnd = path.length();
+            }
+            String label = path.substring(index, staticEnd);
+            int childIndex = node.indexOf(label.charAt(0));
+            if (childIndex < 0) {
+                Node child = new Node(label);
+                node.addChild(child);
+                insert(child, path, staticEnd, context);
+            }
+            else {
+                Node child = node.children[childIndex];
+                int commonLength = 0;
+                int maxCommonLength = Math.min(child.label.length(), label.length());
+                while (commonLength < maxCommonLength && child.label.charAt(commonLength) == label.charAt(commonLength)) {
+                    commonLength++;
+                }
+                if (commonLength < child.label.length()) {
+                    Node splitNode = new Node(child.label.substring(0, commonLength));
+                    child.label = child.label.substring(commonLength);
+                    splitNode.addChild(child);
+                    node.children[childIndex] = splitNode;
+                    child = splitNode;
+                }
+                insert(child, path, index + commonLength, context);
+            }
+        }
+    }
+
+    /**
+     * Finds the longest match for a request path.
+     * Static paths are preferred over parameters when both match the same length
+     * @param node node whose label was already consumed
+     * @param path request path
+     * @param index index of the path to match
+     * @param parameterNames names of the parameters matched so far
+     * @param parameterValues values of the parameters matched so far
+     * @param match best match found
+     */
+    private void find(Node node, String path, int index, List<String> parameterNames, List<String> parameterValues, Match match) {
+
+        if (node.context != null && (match.context == null || index > match.length)) {
+            match.context = node.context;
+            match.length = index;
+            if (parameterNames.isEmpty()) {
+                match.parameters = Collections.emptyMap();
+            }
+            else {
+                match.parameters = new HashMap<>();
+                for (int i = 0; i < parameterNames.size(); i++) {
+                    match.parameters.put(parameterNames.get(i), parameterValues.get(i));
+                }
+            }
+        }
+
+        if (index < path.length()) {
+            int childIndex = node.indexOf(path.charAt(index));
+            if (childIndex >= 0) {
+                Node child = node.children[childIndex];
+                if (path.regionMatches(index, child.label, 0, child.label.length())) {
+                    find(child, path, index + child.label.length(), parameterNames, parameterValues, match);
+                }
+            }
+            if (node.parameterChild != null) {
+                int parameterEnd = path.indexOf(PATH_SEPARATOR, index);
+                if (parameterEnd < 0) {
+                    parameterEnd = path.length();
+                }
+                if (parameterEnd > index) {
+                    parameterNames.add(node.parameterName);
+                    parameterValues.add(path.substring(index, parameterEnd));
+                    find(node.parameterChild, path, parameterEnd, parameterNames, parameterValues, match);
+                    parameterNames.remove(parameterNames.size() - 1);
+                    parameterValues.remove(parameterValues.size() - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Result of routing a request path
+     */
+    public static final class Match {
+
+        private HttpContext context;
+        private int length;
+        private Map<String, String> parameters;
+
+        /**
+         * Obtains the matched context
+         * @return http context
+         */
+        public HttpContext getContext() {
+            return context;
+        }
+
+        /**
+         * Obtains the values of the path parameters of the matched context
+         * @return map of path parameters
+         */
+        public Map<String, String> getParameters() {
+            return parameters;
+        }
+    }
+
+    /**
+     * Node of the radix tree
+     */
+    private static final class Node {
+
+        private String label;
+        private char[] indices;
+        private Node[] children;
+        private Node parameterChild;
+        private String parameterName;
+        private HttpContext context;
+
+        private Node(String label) {
+            this.label = label;
+            this.indices = new char[0];
+            this.children = new Node[0];
+        }
+
+        private int indexOf(char character) {
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == character) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void addChild(Node child) {
+            indices = Arrays.copyOf(indices, indices.length + 1);
+            indices[indices.length - 1] = child.label.charAt(0);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+        }
+    }
+}
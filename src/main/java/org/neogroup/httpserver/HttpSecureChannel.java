@@ -0,0 +1,329 @@
+package org.neogroup.httpserver;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tls layer of a connection built on a SSLEngine.
+ * Reads never block: the handshake advances with the data available in the
+ * channel and is completed by the reactor thread before any request is read.
+ * The encrypted and decrypted records are held in buffers borrowed from the
+ * secure buffer pool of the server, read buffers are returned to the pool
+ * as soon as all their data was consumed
+ */
+public class HttpSecureChannel {
+
+    private static final ByteBuffer[] EMPTY_BUFFERS = { ByteBuffer.allocate(0) };
+
+    private final HttpConnection connection;
+    private final SSLEngine engine;
+    private final HttpBufferPool bufferPool;
+    private final ReentrantLock writeLock;
+    private ByteBuffer netReadBuffer;
+    private ByteBuffer appReadBuffer;
+    private boolean handshakeComplete;
+    private boolean inboundClosed;
+
+    /**
+     * Constructor for the secure channel
+     * @param connection connection that carries the tls records
+     * @param engine ssl engine in server mode
+     */
+    protected HttpSecureChannel(HttpConnection connection, SSLEngine engine) {
+        this.connection = connection;
+        this.engine = engine;
+        this.bufferPool = connection.getServer().getSecureBufferPool();
+        this.writeLock = new ReentrantLock();
+        this.handshakeComplete = false;
+        this.inboundClosed = false;
+        try {
+            engine.beginHandshake();
+        }
+        catch (SSLException ex) {
+            throw new HttpException("Error starting tls handshake !!", ex);
+        }
+    }
+
+    /**
+     * Obtains the ssl engine of the channel
+     * @return ssl engine
+     */
+    public SSLEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Indicates if the tls handshake was completed
+     * @return boolean
+     */
+    public boolean isHandshakeComplete() {
+        return handshakeComplete;
+    }
+
+    /**
+     * Indicates if the channel has buffered records not consumed yet
+     * @return boolean
+     */
+    protected boolean hasBufferedData() {
+        return (appReadBuffer != null && appReadBuffer.hasRemaining()) || (netReadBuffer != null && netReadBuffer.position() > 0);
+    }
+
+    /**
+     * Reads decrypted data, advancing the handshake if it was not completed
+     * @param buffer buffer to fill in write mode
+     * @param readChannel indicates if data can be read from the channel, otherwise only buffered records are read
+     * @return amount of bytes read, or -1 if the channel was closed
+     * @throws IOException
+     */
+    protected int read(ByteBuffer buffer, boolean readChannel) throws IOException {
+        acquireReadBuffers();
+        try {
+            //Advance the handshake with the available records
+            while (!handshakeComplete) {
+                SSLEngineResult.HandshakeStatus handshakeStatus = engine.getHandshakeStatus();
+                if (handshakeStatus == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                    handshakeComplete = true;
+                }
+                else if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                    if (!unwrap(readChannel)) {
+                        return inboundClosed? -1 : 0;
+                    }
+                }
+                else {
+                    processHandshake(handshakeStatus);
+                }
+            }
+
+            int readSize = 0;
+            while (buffer.hasRemaining()) {
+                if (appReadBuffer.hasRemaining()) {
+                    int transferSize = Math.min(appReadBuffer.remaining(), buffer.remaining());
+                    ByteBuffer transferBuffer = appReadBuffer.duplicate();
+                    transferBuffer.limit(transferBuffer.position() + transferSize);
+                    buffer.put(transferBuffer);
+                    appReadBuffer.position(appReadBuffer.position() + transferSize);
+                    readSize += transferSize;
+                }
+                else if (!unwrap(readChannel)) {
+                    break;
+                }
+            }
+            return (readSize == 0 && inboundClosed)? -1 : readSize;
+        }
+        finally {
+            releaseReadBuffers();
+        }
+    }
+
+    /**
+     * Unwraps the next record of the read buffer, reading the channel if the record is incomplete
+     * @param readChannel indicates if data can be read from the channel
+     * @return false if no record could be unwrapped
+     * @throws IOException
+     */
+    private boolean unwrap(boolean readChannel) throws IOException {
+        while (true) {
+            SSLEngineResult result;
+            netReadBuffer.flip();
+            appReadBuffer.compact();
+            try {
+                result = engine.unwrap(netReadBuffer, appReadBuffer);
+            }
+            finally {
+                netReadBuffer.compact();
+                appReadBuffer.flip();
+            }
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    int readSize = readChannel? connection.getChannel().read(netReadBuffer) : 0;
+                    if (readSize < 0) {
+                        inboundClosed = true;
+                    }
+                    if (readSize <= 0) {
+                        return false;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    //The decrypted data must be consumed first
+                    return false;
+                case CLOSED:
+                    inboundClosed = true;
+                    return false;
+                default:
+                    processHandshake(result.getHandshakeStatus());
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Runs the delegated tasks and sends the handshake records until the engine needs more data
+     * @param handshakeStatus current handshake status
+     * @throws IOException
+     */
+    private void processHandshake(SSLEngineResult.HandshakeStatus handshakeStatus) throws IOException {
+        while (true) {
+            if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                handshakeStatus = engine.getHandshakeStatus();
+            }
+            else if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                handshakeStatus = wrap(EMPTY_BUFFERS, 0, 1);
+            }
+            else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Encrypts and writes the remaining bytes of the given buffers.
+     * If the socket send buffer is full the calling thread waits until the
+     * channel is writable again
+     * @param buffers buffers to write
+     * @param offset index of the first buffer to write
+     * @param length amount of buffers to write
+     */
+    protected void write(ByteBuffer[] buffers, int offset, int length) {
+        try {
+            boolean remaining;
+            do {
+                wrap(buffers, offset, length);
+                remaining = false;
+                for (int i = offset; i < offset + length; i++) {
+                    if (buffers[i].hasRemaining()) {
+                        remaining = true;
+                        break;
+                    }
+                }
+            } while (remaining);
+        }
+        catch (HttpException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new HttpException("Error writing data !!", ex);
+        }
+    }
+
+    /**
+     * Wraps a record with the bytes of the given buffers and writes it in the channel
+     * @param buffers buffers to wrap
+     * @param offset index of the first buffer to wrap
+     * @param length amount of buffers to wrap
+     * @return handshake status after the wrap
+     * @throws IOException
+     */
+    private SSLEngineResult.HandshakeStatus wrap(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        writeLock.lock();
+        ByteBuffer netWriteBuffer = bufferPool.acquire();
+        try {
+            SSLEngineResult result = engine.wrap(buffers, offset, length, netWriteBuffer);
+            if (result.getStatus() != SSLEngineResult.Status.OK) {
+                throw new HttpException("Tls channel closed !!");
+            }
+            netWriteBuffer.flip();
+            connection.writeChannel(new ByteBuffer[] {netWriteBuffer}, 0, 1);
+            return result.getHandshakeStatus();
+        }
+        finally {
+            bufferPool.release(netWriteBuffer);
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Borrows the read buffers from the pool
+     */
+    private void acquireReadBuffers() {
+        if (netReadBuffer == null) {
+            netReadBuffer = bufferPool.acquire();
+        }
+        if (appReadBuffer == null) {
+            appReadBuffer = bufferPool.acquire();
+            appReadBuffer.flip();
+        }
+    }
+
+    /**
+     * Returns the read buffers to the pool if all their data was consumed
+     */
+    private void releaseReadBuffers() {
+        if (netReadBuffer != null && netReadBuffer.position() == 0) {
+            bufferPool.release(netReadBuffer);
+            netReadBuffer = null;
+        }
+        if (appReadBuffer != null && !appReadBuffer.hasRemaining()) {
+            bufferPool.release(appReadBuffer);
+            appReadBuffer = null;
+        }
+    }
+
+    /**
+     * Sends the close notification through the outbound queue, behind the records
+     * already written, so that it is written before the connection is closed.
+     * Nothing can be written after it
+     */
+    protected void closeOutbound() {
+        sendCloseNotify(false);
+    }
+
+    /**
+     * Wraps the close notification and writes it, it is skipped if another thread
+     * is writing because a closing thread must never wait for a writer
+     * @param abort indicates if the connection is being aborted, then the notification
+     *              is only written if no bytes are queued, otherwise it would overtake them
+     */
+    private void sendCloseNotify(boolean abort) {
+        if (!writeLock.tryLock()) {
+            return;
+        }
+        ByteBuffer netWriteBuffer = null;
+        try {
+            if (!engine.isOutboundDone()) {
+                engine.closeOutbound();
+                netWriteBuffer = bufferPool.acquire();
+                engine.wrap(EMPTY_BUFFERS, netWriteBuffer);
+                netWriteBuffer.flip();
+                if (abort) {
+                    connection.writeChannelIfEmpty(netWriteBuffer);
+                }
+                else {
+                    connection.writeChannel(new ByteBuffer[] {netWriteBuffer}, 0, 1);
+                }
+            }
+        }
+        catch (Exception ex) {}
+        finally {
+            bufferPool.release(netWriteBuffer);
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the tls layer. The close notification is sent if it was not sent yet and
+     * there are no queued bytes, the queued bytes of an aborted connection are discarded
+     */
+    protected void close() {
+        sendCloseNotify(true);
+        try {
+            engine.closeInbound();
+        }
+        catch (Exception ex) {}
+        if (netReadBuffer != null) {
+            bufferPool.release(netReadBuffer);
+            netReadBuffer = null;
+        }
+        if (appReadBuffer != null) {
+            bufferPool.release(appReadBuffer);
+            appReadBuffer = null;
+        }
+    }
+}
@@ -1,20 +1,32 @@
 
 package org.neogroup.httpserver;
 
+import org.neogroup.httpserver.contexts.HttpAsyncContext;
 import org.neogroup.httpserver.contexts.HttpContext;
 import org.neogroup.util.MimeUtils;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,44 +38,90 @@ public class HttpServer {
     public static final String SERVER_NAME_PROPERTY_NAME = "serverName";
     public static final String PORT_PROPERTY_NAME = "port";
     public static final String LOGGING_ENABLED_PROPERTY_NAME = "loggingEnabled";
+    @Deprecated
     public static final String CONNECTION_CHECKOUT_INTERVAL_PROPERTY_NAME = "connectionCheckoutInterval";
     public static final String CONNECTION_MAX_INACTIVE_INTERVAL_PROPERTY_NAME = "connectionMaxInactiveInterval";
+    public static final String CONNECTION_WRITE_TIMEOUT_PROPERTY_NAME = "connectionWriteTimeout";
+    public static final String CONNECTION_WRITE_BUFFER_SIZE_PROPERTY_NAME = "connectionWriteBufferSize";
+    public static final String CONNECTION_TIMEOUT_PRECISION_PROPERTY_NAME = "connectionTimeoutPrecision";
     public static final String SESSION_NAME_PROPERTY_NAME = "sessionName";
     public static final String SESSION_USE_COOKIES_PROPERTY_NAME = "sessionUseCookies";
     public static final String SESSION_MAX_INACTIVE_INTERVAL_PROPERTY_NAME = "sessionMaxInactiveInterval";
     public static final String SESSION_CHECKOUT_INTERVAL_PROPERTY_NAME = "sessionCheckoutInterval";
+    public static final String SESSION_LAZY_CREATION_PROPERTY_NAME = "sessionLazyCreation";
+    public static final String REACTORS_PROPERTY_NAME = "reactors";
+    public static final String REACTOR_BALANCING_PROPERTY_NAME = "reactorBalancing";
+    public static final String EXECUTOR_MODE_PROPERTY_NAME = "executorMode";
+    public static final String REQUEST_BODY_MEMORY_THRESHOLD_PROPERTY_NAME = "requestBodyMemoryThreshold";
+    public static final String BUFFER_SIZE_PROPERTY_NAME = "bufferSize";
+    public static final String BUFFER_SLAB_SIZE_PROPERTY_NAME = "bufferSlabSize";
+    public static final String BUFFER_POOL_MAX_SIZE_PROPERTY_NAME = "bufferPoolMaxSize";
+    public static final String HTTP2_ENABLED_PROPERTY_NAME = "http2Enabled";
+    public static final String HTTP2_MAX_CONCURRENT_STREAMS_PROPERTY_NAME = "http2MaxConcurrentStreams";
+    public static final String SSL_SESSION_CACHE_SIZE_PROPERTY_NAME = "sslSessionCacheSize";
+    public static final String SSL_SESSION_TIMEOUT_PROPERTY_NAME = "sslSessionTimeout";
+
+    public static final String ROUND_ROBIN_REACTOR_BALANCING = "roundRobin";
+    public static final String LEAST_CONNECTIONS_REACTOR_BALANCING = "leastConnections";
+    public static final String INLINE_EXECUTOR_MODE = "inline";
+    public static final String VIRTUAL_THREADS_EXECUTOR_MODE = "virtualThreads";
 
     public static final int DEFAULT_PORT = 80;
     public static final boolean DEFAULT_LOGGING_ENABLED = false;
     public static final int DEFAULT_CONNECTION_MAX_INACTIVE_INTERVAL = 5000;
+    @Deprecated
     public static final int DEFAULT_CONNECTION_CHECKOUT_INTERVAL = 12000;
+    public static final int DEFAULT_CONNECTION_WRITE_TIMEOUT = 30000;
+    public static final int DEFAULT_CONNECTION_WRITE_BUFFER_SIZE = 262144;
+    public static final int DEFAULT_CONNECTION_TIMEOUT_PRECISION = 100;
     public static final String DEFAULT_SERVER_NAME = "NeoGroup-HttpServer";
     public static final String DEFAULT_SESSION_NAME = "sessionId";
     public static final int DEFAULT_SESSION_MAX_INACTIVE_INTERVAL = 300000;
     public static final int DEFAULT_SESSION_CHECKOUT_INTERVAL = 60000;
     public static final boolean DEFAULT_SESSION_USE_COOKIES = true;
+    public static final boolean DEFAULT_SESSION_LAZY_CREATION = false;
+    public static final int DEFAULT_REACTORS = Runtime.getRuntime().availableProcessors();
+    public static final String DEFAULT_REACTOR_BALANCING = ROUND_ROBIN_REACTOR_BALANCING;
+    public static final String DEFAULT_EXECUTOR_MODE = INLINE_EXECUTOR_MODE;
+    public static final int DEFAULT_REQUEST_BODY_MEMORY_THRESHOLD = 65536;
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final int DEFAULT_BUFFER_SLAB_SIZE = 64;
+    public static final int DEFAULT_BUFFER_POOL_MAX_SIZE = 33554432;
+    public static final boolean DEFAULT_HTTP2_ENABLED = true;
+    public static final int DEFAULT_HTTP2_MAX_CONCURRENT_STREAMS = 100;
+    public static final int DEFAULT_SSL_SESSION_CACHE_SIZE = 20480;
+    public static final int DEFAULT_SSL_SESSION_TIMEOUT = 86400;
 
     private static final String CONNECTION_CREATED_MESSAGE = "Connection \"{0}\" created !!";
     private static final String CONNECTION_DESTROYED_MESSAGE = "Connection \"{0}\" destroyed !!";
     private static final String CONNECTION_REQUEST_RECEIVED_MESSAGE = "Connection \"{0}\" received request \"{1}\"";
-
-    private static final Map<Long, HttpConnection> threadConnections;
-    static {
-        threadConnections = new HashMap<>();
-    }
+    private static final String CONNECTION_UPGRADED_MESSAGE = "Connection \"{0}\" upgraded to http/2";
+    private static final String VIRTUAL_THREADS_UNSUPPORTED_MESSAGE = "Virtual threads require java 21 or newer, requests are handled in the reactor threads !!";
+    private static final byte[] SWITCHING_PROTOCOLS_RESPONSE = "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes();
+    private static final String ACCEPTOR_THREAD_NAME = "HttpAcceptor";
+    private static final String STREAM_WORKER_THREAD_NAME_TEMPLATE = "HttpStreamWorker-%d";
+    private static final int MIN_BUFFER_SIZE = 512;
 
     private Selector selector;
     private ServerSocketChannel serverChannel;
     private Executor executor;
+    private final Executor inlineExecutor;
+    private ExecutorService virtualThreadExecutor;
+    private ExecutorService streamExecutor;
     private ServerHandler serverHandler;
+    private HttpReactor[] reactors;
+    private HttpBufferPool bufferPool;
+    private HttpBufferPool secureBufferPool;
+    private SSLContext sslContext;
+    private int nextReactorIndex;
     private ScheduledExecutorService timer;
     private Logger logger;
     private Properties properties;
     private boolean running;
-    private final Set<HttpContext> contexts;
-    private final Set<HttpConnection> idleConnections;
-    private final Set<HttpConnection> readyConnections;
-    private final Map<UUID, HttpSession> sessions;
+    private final Object contextsLock;
+    private Set<HttpContext> contexts;
+    private volatile HttpRouter router;
+    private HttpSessionManager sessionManager;
 
     /**
      * Constructor for the http server
@@ -72,18 +130,18 @@ public class HttpServer {
         running = false;
         properties = new Properties();
         logger = Logger.getAnonymousLogger();
-        executor = new Executor() {
+        inlineExecutor = new Executor() {
             @Override
             public void execute(Runnable task) {
                 task.run();
             }
         };
+        executor = inlineExecutor;
         serverHandler = new ServerHandler();
         timer = Executors.newSingleThreadScheduledExecutor();
-        contexts = Collections.synchronizedSet(new HashSet<HttpContext>());
-        idleConnections = Collections.synchronizedSet (new HashSet<HttpConnection>());
-        readyConnections = Collections.synchronizedSet (new HashSet<HttpConnection>());
-        sessions = Collections.synchronizedMap(new HashMap<UUID, HttpSession>());
+        contextsLock = new Object();
+        contexts = new LinkedHashSet<>();
+        router = new HttpRouter(contexts);
     }
 
     /**
@@ -158,7 +216,7 @@ public class HttpServer {
      * @param message message
      * @param arguments arguments
      */
-    private void log (Level level, String message, Object ... arguments) {
+    protected void log (Level level, String message, Object ... arguments) {
         if (logger != null && getProperty(LOGGING_ENABLED_PROPERTY_NAME, DEFAULT_LOGGING_ENABLED)) {
             logger.log(level, MessageFormat.format(message, arguments));
         }
@@ -181,33 +239,94 @@ public class HttpServer {
     }
 
     /**
-     * Adds a new Http Context
+     * Retrieves the session manager of the server
+     * @return session manager
+     */
+    public HttpSessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    /**
+     * Sets the session manager of the server, must be set before the server is started
+     * @param sessionManager session manager
+     */
+    public void setSessionManager(HttpSessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+    }
+
+    /**
+     * Retrieves the ssl context used to secure the connections
+     * @return ssl context, or null if the connections are not secure
+     */
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    /**
+     * Sets the ssl context used to secure the connections.
+     * When a ssl context is set all the connections of the server use tls
+     * @param sslContext ssl context
+     */
+    public void setSSLContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Adds a new Http Context.
+     * A new routing snapshot is published with the context. If the
+     * path of the context can not be routed the contexts are left unchanged
      * @param context Context to add
+     * @throws IllegalArgumentException if the path of the context is invalid or conflicts with another context
      */
     public void addContext (HttpContext context) {
-        contexts.add(context);
+        synchronized (contextsLock) {
+            Set<HttpContext> newContexts = new LinkedHashSet<>(contexts);
+            if (newContexts.add(context)) {
+                publishContexts(newContexts);
+                context.onAdded();
+            }
+        }
     }
 
     /**
-     * Removes an http context
+     * Removes an http context.
+     * A new routing snapshot is published without the context, and the
+     * context releases its resources
      * @param context Context to remove
      */
     public void removeContext (HttpContext context) {
-        contexts.remove(context);
+        synchronized (contextsLock) {
+            Set<HttpContext> newContexts = new LinkedHashSet<>(contexts);
+            if (newContexts.remove(context)) {
+                publishContexts(newContexts);
+                context.onRemoved();
+            }
+        }
+    }
+
+    /**
+     * Builds the routing snapshot for a set of contexts and publishes it.
+     * The set replaces the current contexts only after the router was built
+     * @param newContexts contexts to publish
+     */
+    private void publishContexts (Set<HttpContext> newContexts) {
+        HttpRouter newRouter = new HttpRouter(newContexts);
+        contexts = newContexts;
+        router = newRouter;
     }
 
     /**
-     * Finds a context for the current request
+     * Finds the context with the longest path that matches the current request.
+     * The values of the path parameters of the context are set in the request
      * @param request current reques
      * @return http context
      */
     public HttpContext findContext (HttpRequest request) {
         HttpContext matchContext = null;
-        for (HttpContext context : contexts) {
-            if (request.getPath().startsWith(context.getPath())) {
-                matchContext = context;
-                break;
-            }
+        HttpRouter.Match match = router.find(request.getPath());
+        if (match != null) {
+            matchContext = match.getContext();
+            request.setPathParameters(match.getParameters());
         }
         return matchContext;
     }
@@ -217,7 +336,106 @@ public class HttpServer {
      * @return The connection for the current thread
      */
     protected static HttpConnection getCurrentThreadConnection () {
-        return threadConnections.get(Thread.currentThread().getId());
+        HttpExchange exchange = getCurrentThreadExchange();
+        return exchange != null? exchange.getConnection() : null;
+    }
+
+    /**
+     * Gets the exchange that is being handled by the current thread
+     * @return The exchange for the current thread
+     */
+    protected static HttpExchange getCurrentThreadExchange () {
+        return HttpRequestScope.getCurrentExchange();
+    }
+
+    /**
+     * Obtains the reactors of the server
+     * @return array of reactors
+     */
+    public HttpReactor[] getReactors() {
+        return reactors;
+    }
+
+    /**
+     * Obtains the pool of buffers used by the server connections
+     * @return buffer pool
+     */
+    public HttpBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Obtains the pool of buffers that hold the tls records of the secure connections
+     * @return buffer pool, or null if the connections are not secure
+     */
+    public HttpBufferPool getSecureBufferPool() {
+        return secureBufferPool;
+    }
+
+    /**
+     * Selects the reactor that will handle a new connection
+     * @return http reactor
+     */
+    protected HttpReactor nextReactor() {
+        HttpReactor reactor;
+        if (getProperty(REACTOR_BALANCING_PROPERTY_NAME, DEFAULT_REACTOR_BALANCING).equals(LEAST_CONNECTIONS_REACTOR_BALANCING)) {
+            reactor = reactors[0];
+            for (int i = 1; i < reactors.length; i++) {
+                if (reactors[i].getConnectionsCount() < reactor.getConnectionsCount()) {
+                    reactor = reactors[i];
+                }
+            }
+        }
+        else {
+            reactor = reactors[nextReactorIndex];
+            nextReactorIndex = (nextReactorIndex + 1) % reactors.length;
+        }
+        return reactor;
+    }
+
+    /**
+     * Dispatches a connection with a readable request to the executor
+     * @param connection connection to dispatch
+     */
+    protected void dispatchConnection(HttpConnection connection) {
+        executor.execute(new ClientHandler(connection));
+    }
+
+    /**
+     * Dispatches a http/2 stream with a complete request to a worker thread.
+     * The stream worker may wait for the client to update the flow control
+     * windows, and only the reactor can read the window updates, so streams
+     * are never handled in the reactor threads. With the inline executor the
+     * streams are handled by a pool of stream workers owned by the server
+     * @param stream stream to dispatch
+     */
+    protected void dispatchStream(Http2Stream stream) {
+        getStreamExecutor().execute(new StreamHandler(stream));
+    }
+
+    /**
+     * Obtains the executor of the http/2 streams
+     * @return executor of the server, or the stream workers if the server executor is inline
+     */
+    private Executor getStreamExecutor() {
+        Executor currentExecutor = executor;
+        if (currentExecutor != inlineExecutor) {
+            return currentExecutor;
+        }
+        synchronized (this) {
+            if (streamExecutor == null) {
+                streamExecutor = Executors.newCachedThreadPool(new StreamWorkerFactory());
+            }
+            return streamExecutor;
+        }
+    }
+
+    /**
+     * Method that is executed when a connection was destroyed by inactivity
+     * @param connection destroyed connection
+     */
+    protected void onConnectionDestroyed(HttpConnection connection) {
+        log(Level.FINE, CONNECTION_DESTROYED_MESSAGE, connection);
     }
 
     /**
@@ -225,6 +443,38 @@ public class HttpServer {
      */
     public void start() {
 
+        int bufferSize = Math.max(MIN_BUFFER_SIZE, getProperty(BUFFER_SIZE_PROPERTY_NAME, DEFAULT_BUFFER_SIZE));
+        int bufferPoolMaxSize = getProperty(BUFFER_POOL_MAX_SIZE_PROPERTY_NAME, DEFAULT_BUFFER_POOL_MAX_SIZE);
+        bufferPool = new HttpBufferPool(bufferSize, getProperty(BUFFER_SLAB_SIZE_PROPERTY_NAME, DEFAULT_BUFFER_SLAB_SIZE), bufferPoolMaxSize / bufferSize);
+        if (sslContext != null) {
+            //Tls sessions are cached so that clients can resume them without a full handshake
+            SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+            sessionContext.setSessionCacheSize(getProperty(SSL_SESSION_CACHE_SIZE_PROPERTY_NAME, DEFAULT_SSL_SESSION_CACHE_SIZE));
+            sessionContext.setSessionTimeout(getProperty(SSL_SESSION_TIMEOUT_PROPERTY_NAME, DEFAULT_SSL_SESSION_TIMEOUT));
+            SSLSession session = sslContext.createSSLEngine().getSession();
+            int secureBufferSize = Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize());
+            secureBufferPool = new HttpBufferPool(secureBufferSize, getProperty(BUFFER_SLAB_SIZE_PROPERTY_NAME, DEFAULT_BUFFER_SLAB_SIZE), bufferPoolMaxSize / secureBufferSize);
+        }
+
+        //Every request is handled in its own virtual thread, unless a custom executor was set
+        if (executor == inlineExecutor && getProperty(EXECUTOR_MODE_PROPERTY_NAME, DEFAULT_EXECUTOR_MODE).equals(VIRTUAL_THREADS_EXECUTOR_MODE)) {
+            if (HttpExecutors.isVirtualThreadsSupported()) {
+                virtualThreadExecutor = HttpExecutors.newVirtualThreadExecutor();
+                executor = virtualThreadExecutor;
+            }
+            else {
+                log(Level.WARNING, VIRTUAL_THREADS_UNSUPPORTED_MESSAGE);
+            }
+        }
+
+        int reactorsCount = Math.max(1, getProperty(REACTORS_PROPERTY_NAME, DEFAULT_REACTORS));
+        reactors = new HttpReactor[reactorsCount];
+        nextReactorIndex = 0;
+        for (int i = 0; i < reactorsCount; i++) {
+            reactors[i] = new HttpReactor(this, i);
+            reactors[i].start();
+        }
+
         try {
             selector = Selector.open();
             serverChannel = ServerSocketChannel.open();
@@ -232,18 +482,20 @@ public class HttpServer {
             serverChannel.configureBlocking(false);
             serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
-            int connectionCheckoutInterval = getProperty(CONNECTION_CHECKOUT_INTERVAL_PROPERTY_NAME, DEFAULT_CONNECTION_CHECKOUT_INTERVAL);
             int sessionCheckoutInterval = getProperty(SESSION_CHECKOUT_INTERVAL_PROPERTY_NAME, DEFAULT_SESSION_CHECKOUT_INTERVAL);
-            timer.scheduleAtFixedRate(new ConnectionsHandler(),connectionCheckoutInterval,connectionCheckoutInterval,TimeUnit.MILLISECONDS);
+            if (sessionManager == null) {
+                sessionManager = new HttpMemorySessionManager();
+            }
+            sessionManager.start(this);
             timer.scheduleAtFixedRate(new SessionsHandler(),sessionCheckoutInterval,sessionCheckoutInterval,TimeUnit.MILLISECONDS);
 
         } catch (Exception ex) {
             throw new HttpException("Error creating server socket", ex);
         }
 
-        Thread dispatcherThread = new Thread(serverHandler);
+        Thread acceptorThread = new Thread(serverHandler, ACCEPTOR_THREAD_NAME);
         running = true;
-        dispatcherThread.start();
+        acceptorThread.start();
     }
 
     /**
@@ -261,75 +513,50 @@ public class HttpServer {
         } catch (Exception ex) {
         }
         timer.shutdownNow();
+        if (sessionManager != null) {
+            sessionManager.stop();
+        }
+        if (reactors != null) {
+            for (HttpReactor reactor : reactors) {
+                reactor.stop();
+            }
+        }
+        synchronized (this) {
+            if (streamExecutor != null) {
+                streamExecutor.shutdown();
+                streamExecutor = null;
+            }
+        }
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+            if (executor == virtualThreadExecutor) {
+                executor = inlineExecutor;
+            }
+            virtualThreadExecutor = null;
+        }
         selector = null;
         serverChannel = null;
     }
 
     /**
-     * Creates a session for the given connection
-     * @param connection connection
-     * @return created http session
+     * Stream worker factory
+     * Creates the daemon threads that handle the http/2 streams when the server executor is inline
      */
-    protected HttpSession createSession(HttpConnection connection) {
-        HttpSession session = new HttpSession();
-        session.setMaxInactiveInterval(getProperty(SESSION_MAX_INACTIVE_INTERVAL_PROPERTY_NAME, DEFAULT_SESSION_MAX_INACTIVE_INTERVAL));
-        sessions.put(session.getId(), session);
-        if (getProperty(SESSION_USE_COOKIES_PROPERTY_NAME, DEFAULT_SESSION_USE_COOKIES)) {
-            HttpCookie cookie = new HttpCookie(getProperty(SESSION_NAME_PROPERTY_NAME, DEFAULT_SESSION_NAME), session.getId().toString());
-            cookie.setPath("/");
-            connection.getExchange().addCookie(cookie);
-        }
-        return session;
-    }
+    private static class StreamWorkerFactory implements ThreadFactory {
 
-    /**
-     * Get a session from the given connection
-     * @param connection connection
-     * @return http session
-     */
-    protected HttpSession getSession(HttpConnection connection) {
-        HttpSession session = null;
-        UUID sessionId = getSessionId(connection);
-        if (sessionId != null) {
-            session = sessions.get(sessionId);
-            if (session != null && session.isValid()) {
-                long time = System.currentTimeMillis();
-                if ((time - session.getLastActivityTimestamp()) > session.getMaxInactiveInterval()) {
-                    session = null;
-                }
-                else {
-                    session.checkSession();
-                }
-            }
-        }
-        return session;
-    }
+        private final AtomicInteger threadsCount = new AtomicInteger();
 
-    /**
-     * Obtains the session id from the connection
-     * @param connection connection
-     * @return id of session
-     */
-    protected UUID getSessionId (HttpConnection connection) {
-        UUID sessionId = null;
-        String sessionName = getProperty(SESSION_NAME_PROPERTY_NAME, DEFAULT_SESSION_NAME);
-        if (getProperty(SESSION_USE_COOKIES_PROPERTY_NAME, DEFAULT_SESSION_USE_COOKIES)) {
-            HttpCookie sessionCookie = connection.getExchange().getCookie(sessionName);
-            if (sessionCookie != null && !sessionCookie.getValue().isEmpty()) {
-                sessionId = UUID.fromString(sessionCookie.getValue());
-            }
-        }
-        else {
-            String sessionIdString = connection.getExchange().getRequestParameter(sessionName);
-            if (sessionIdString != null && !sessionIdString.isEmpty()) {
-                sessionId = UUID.fromString(sessionIdString);
-            }
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, String.format(STREAM_WORKER_THREAD_NAME_TEMPLATE, threadsCount.getAndIncrement()));
+            thread.setDaemon(true);
+            return thread;
         }
-        return sessionId;
     }
 
     /**
      * Server handler
+     * Accepts new connections and hands them to the reactors
      */
     private class ServerHandler implements Runnable {
 
@@ -337,22 +564,6 @@ public class HttpServer {
         public void run() {
             while (running) {
                 try {
-                    //Reconnect ready connections
-                    synchronized (readyConnections) {
-                        Iterator<HttpConnection> iterator = readyConnections.iterator();
-                        while (iterator.hasNext()) {
-                            HttpConnection connection = iterator.next();
-                            try {
-                                SocketChannel clientChannel = connection.getChannel();
-                                SelectionKey clientReadKey = clientChannel.register(selector, SelectionKey.OP_READ);
-                                clientReadKey.attach(connection);
-                                iterator.remove();
-                                idleConnections.add(connection);
-                            }
-                            catch (Exception ex) {}
-                        }
-                    }
-
                     selector.select(1000);
                     Iterator<SelectionKey> selectorIterator = selector.selectedKeys().iterator();
                     while (selectorIterator.hasNext()) {
@@ -362,33 +573,195 @@ public class HttpServer {
                             try {
                                 if (key.isAcceptable()) {
                                     SocketChannel clientChannel = serverChannel.accept();
-                                    clientChannel.configureBlocking(false);
-                                    SelectionKey clientReadKey = clientChannel.register(selector, SelectionKey.OP_READ);
-                                    HttpConnection connection = new HttpConnection(HttpServer.this, clientChannel);
-                                    clientReadKey.attach(connection);
-                                    idleConnections.add(connection);
-                                    log(Level.FINE, CONNECTION_CREATED_MESSAGE, connection);
-                                }
-                                else if (key.isReadable()) {
-                                    HttpConnection connection = (HttpConnection) key.attachment();
-                                    key.cancel();
-                                    idleConnections.remove(connection);
-                                    executor.execute(new ClientHandler(connection));
+                                    if (clientChannel != null) {
+                                        clientChannel.configureBlocking(false);
+                                        HttpReactor reactor = nextReactor();
+                                        HttpConnection connection = new HttpConnection(HttpServer.this, reactor, clientChannel);
+                                        reactor.addConnection(connection);
+                                        log(Level.FINE, CONNECTION_CREATED_MESSAGE, connection);
+                                    }
                                 }
                             } catch (Exception ex) {}
                         }
                     }
                 } catch (Exception ex) {
-                    ex.printStackTrace();
+                    if (running) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles an exchange executing the context that matches its request.
+     * Asynchronous contexts return a pending future and the response is
+     * finished by the thread that completes the context future
+     * @param exchange exchange to handle
+     * @return future of a boolean that indicates if the connection must be closed
+     */
+    protected CompletableFuture<Boolean> handleExchange(HttpExchange exchange) {
+
+        boolean closeConnection = true;
+        HttpResponse response = null;
+        Throwable exception = null;
+        try {
+            log(Level.FINE, CONNECTION_REQUEST_RECEIVED_MESSAGE, exchange.getConnection(), exchange.getRequestPath());
+
+            //Add general response headers
+            exchange.addResponseHeader(HttpHeader.SERVER, getProperty(SERVER_NAME_PROPERTY_NAME, DEFAULT_SERVER_NAME));
+            String connectionHeader = exchange.getRequestHeader(HttpHeader.CONNECTION);
+            if (connectionHeader == null || connectionHeader.equals(HttpHeader.KEEP_ALIVE)) {
+                exchange.addResponseHeader(HttpHeader.CONNECTION, (HttpHeader.KEEP_ALIVE));
+                closeConnection = false;
+            } else {
+                exchange.addResponseHeader(HttpHeader.CONNECTION, (HttpHeader.CLOSE));
+            }
+
+            //Execute the context that matches the request
+            HttpRequest request = new HttpRequest(exchange);
+            HttpContext matchContext = findContext(request);
+            if (matchContext instanceof HttpAsyncContext) {
+                //The batched responses are written first because the asynchronous response may be written by another thread
+                exchange.getConnection().setBatchingWrites(false);
+                exchange.getConnection().flushBatch();
+                CompletableFuture<HttpResponse> future = ((HttpAsyncContext)matchContext).onContextAsync(request);
+                if (!future.isDone()) {
+                    return future.handle(new ExchangeCompletionHandler(exchange, closeConnection));
+                }
+                response = future.join();
+            } else if (matchContext != null) {
+                response = matchContext.onContext(request);
+            } else {
+                response = new HttpResponse(exchange);
+                response.setResponseCode(HttpResponseCode.HTTP_NOT_FOUND);
+                response.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
+                response.setBody("No context found for request path \"" + request.getPath() + "\" !!");
+            }
+        }
+        catch (Throwable ex) {
+            exception = ex;
+        }
+        return CompletableFuture.completedFuture(finishExchange(exchange, response, exception, closeConnection));
+    }
+
+    /**
+     * Finishes the response of an exchange, sending an error response if the context failed
+     * @param exchange exchange to finish
+     * @param response response of the context
+     * @param exception exception thrown by the context or null
+     * @param closeConnection indicates if the connection must be closed
+     * @return boolean that indicates if the connection must be closed
+     */
+    protected boolean finishExchange(HttpExchange exchange, HttpResponse response, Throwable exception, boolean closeConnection) {
+
+        if (exception instanceof CompletionException && exception.getCause() != null) {
+            exception = exception.getCause();
+        }
+        try {
+            if (exception == null) {
+                response.finish();
+                if (HttpHeader.CLOSE.equals(exchange.getResponseHeader(HttpHeader.CONNECTION))) {
+                    closeConnection = true;
+                }
+                return closeConnection;
+            }
+        }
+        catch (Throwable ex) {
+            exception = ex;
+        }
+
+        try {
+            if (exception instanceof HttpException) {
+                if (!exchange.isResponseHeadersSent()) {
+                    HttpResponse errorResponse = new HttpResponse(exchange);
+                    errorResponse.setResponseCode(HttpResponseCode.HTTP_INTERNAL_ERROR);
+                    errorResponse.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
+                    errorResponse.setBody("Connection error !!");
+                    errorResponse.finish();
+                }
+                closeConnection = true;
+            }
+            else {
+                if (!exchange.isResponseHeadersSent()) {
+                    HttpResponse errorResponse = new HttpResponse(exchange);
+                    errorResponse.setResponseCode(HttpResponseCode.HTTP_INTERNAL_ERROR);
+                    errorResponse.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
+                    errorResponse.setBody("Internal error !!");
+                    errorResponse.finish();
+                }
+                else {
+                    closeConnection = true;
                 }
             }
         }
+        catch (Throwable ex) {
+            closeConnection = true;
+        }
+        return closeConnection;
+    }
+
+    /**
+     * Indicates if the request of an exchange asks to upgrade the connection to http/2
+     * @param exchange http/1.1 exchange
+     * @return boolean
+     */
+    protected boolean isHttp2Upgrade(HttpExchange exchange) {
+        return getProperty(HTTP2_ENABLED_PROPERTY_NAME, DEFAULT_HTTP2_ENABLED)
+            && HttpHeader.H2C_UPGRADE.equals(exchange.getRequestHeader(HttpHeader.UPGRADE))
+            && exchange.getRequestHeader(HttpHeader.HTTP2_SETTINGS) != null;
+    }
+
+    /**
+     * Upgrades a connection to http/2, the request of the exchange is handled as the stream 1
+     * @param connection connection to upgrade
+     * @param exchange http/1.1 exchange with the upgrade request
+     */
+    protected void upgradeConnection(HttpConnection connection, HttpExchange exchange) {
+
+        byte[] settings;
+        try {
+            settings = Base64.getUrlDecoder().decode(exchange.getRequestHeader(HttpHeader.HTTP2_SETTINGS).trim());
+        }
+        catch (IllegalArgumentException ex) {
+            throw new HttpBadRequestException("Invalid http/2 settings !!");
+        }
+        Http2Connection http2Connection = new Http2Connection(connection);
+        http2Connection.applySettings(settings, 0, settings.length);
+
+        connection.setBatchingWrites(false);
+        connection.flushBatch();
+        connection.write(ByteBuffer.wrap(SWITCHING_PROTOCOLS_RESPONSE));
+        connection.setHttp2Connection(http2Connection);
+        http2Connection.start();
+        log(Level.FINE, CONNECTION_UPGRADED_MESSAGE, connection);
+        dispatchStream(http2Connection.createUpgradeStream(exchange));
+    }
+
+    /**
+     * Exchange completion handler
+     * Finishes the response of an asynchronous context when its future is completed
+     */
+    private class ExchangeCompletionHandler implements BiFunction<HttpResponse, Throwable, Boolean> {
+
+        private final HttpExchange exchange;
+        private final boolean closeConnection;
+
+        public ExchangeCompletionHandler(HttpExchange exchange, boolean closeConnection) {
+            this.exchange = exchange;
+            this.closeConnection = closeConnection;
+        }
+
+        @Override
+        public Boolean apply(HttpResponse response, Throwable exception) {
+            return finishExchange(exchange, response, exception, closeConnection);
+        }
     }
 
     /**
      * Client handler
      */
-    private class ClientHandler implements Runnable {
+    private class ClientHandler implements Runnable, BiConsumer<Boolean, Throwable> {
 
         private final HttpConnection connection;
 
@@ -400,103 +773,153 @@ public class HttpServer {
         public void run() {
 
             boolean closeConnection = true;
+            boolean parked = false;
 
-            threadConnections.put(Thread.currentThread().getId(), connection);
+            HttpExchange previousExchange = HttpRequestScope.enter(connection.getExchange());
             try {
-                try {
-                    //Starts the http exchange
-                    HttpExchange exchange = connection.createExchange();
-                    log(Level.FINE, CONNECTION_REQUEST_RECEIVED_MESSAGE, connection, exchange.getRequestPath());
-
-                    //Add general response headers
-                    exchange.addResponseHeader(HttpHeader.SERVER, getProperty(SERVER_NAME_PROPERTY_NAME, DEFAULT_SERVER_NAME));
-                    exchange.addResponseHeader(HttpHeader.DATE, HttpServerUtils.formatDate(new Date()));
-                    String connectionHeader = exchange.getRequestHeader(HttpHeader.CONNECTION);
-                    if (connectionHeader == null || connectionHeader.equals(HttpHeader.KEEP_ALIVE)) {
-                        exchange.addResponseHeader(HttpHeader.CONNECTION, (HttpHeader.KEEP_ALIVE));
-                        closeConnection = false;
-                    } else {
-                        exchange.addResponseHeader(HttpHeader.CONNECTION, (HttpHeader.CLOSE));
+                //Process the requests pipelined in the connection, batching their responses
+                boolean requestReady;
+                do {
+                    connection.setBatchingWrites(connection.hasBufferedData());
+                    CompletableFuture<Boolean> result = handleRequest();
+                    if (!result.isDone()) {
+                        //The connection stays parked until the asynchronous response is completed
+                        parked = true;
+                        result.whenComplete(this);
+                        break;
                     }
-
-                    //Execute the context that matches the request
-                    HttpRequest request = new HttpRequest(connection);
-                    HttpContext matchContext = findContext(request);
-                    if (matchContext != null) {
-                        HttpResponse response = matchContext.onContext(request);
-                        response.flush();
-                    } else {
-                        HttpResponse response = new HttpResponse(connection);
-                        response.setResponseCode(HttpResponseCode.HTTP_NOT_FOUND);
-                        response.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
-                        response.setBody("No context found for request path \"" + request.getPath() + "\" !!");
-                        response.flush();
-                    }
-                }
-                catch (HttpBadRequestException badRequestException) {
-                    HttpResponse response = new HttpResponse(connection);
-                    response.setResponseCode(HttpResponseCode.HTTP_BAD_REQUEST);
-                    response.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
-                    response.setBody("Bad request !!");
-                    response.flush();
-                    closeConnection = true;
-                }
-                catch (HttpException httpException) {
-                    HttpResponse response = new HttpResponse(connection);
-                    response.setResponseCode(HttpResponseCode.HTTP_INTERNAL_ERROR);
-                    response.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
-                    response.setBody("Connection error !!");
-                    response.flush();
-                    closeConnection = true;
-                }
-                catch (Throwable exception) {
-                    HttpResponse response = new HttpResponse(connection);
-                    response.setResponseCode(HttpResponseCode.HTTP_INTERNAL_ERROR);
-                    response.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
-                    response.setBody("Internal error !!");
-                    response.flush();
+                    closeConnection = result.join();
+
+                    //Pipelined requests wait until the writes deferred by the reactor are written
+                    requestReady = !closeConnection && !connection.isClosed() && !connection.hasDeferredWrites() && connection.parseBufferedRequest();
+                } while (requestReady);
+                if (!parked) {
+                    connection.setBatchingWrites(false);
+                    connection.flushBatch();
                 }
             }
             catch (Throwable ex) {
                 closeConnection = true;
             }
             finally {
-                threadConnections.remove(Thread.currentThread().getId());
+                HttpRequestScope.exit(previousExchange);
             }
 
-            //Close a connection
+            if (!parked) {
+                completeConnection(closeConnection);
+            }
+        }
+
+        /**
+         * Resumes a parked connection once its asynchronous response was completed
+         * @param closeConnection indicates if the connection must be closed
+         * @param exception exception of the completion or null
+         */
+        @Override
+        public void accept(Boolean closeConnection, Throwable exception) {
+
+            boolean close = exception != null || closeConnection == null || closeConnection;
+            try {
+                //Requests pipelined behind the asynchronous one are processed in a new dispatch
+                if (!close && !connection.isClosed() && !connection.hasDeferredWrites() && connection.parseBufferedRequest()) {
+                    executor.execute(new ClientHandler(connection));
+                    return;
+                }
+            }
+            catch (Throwable ex) {
+                close = true;
+            }
+            completeConnection(close);
+        }
+
+        /**
+         * Closes the connection or returns it to its reactor once its writes are done
+         * @param closeConnection indicates if the connection must be closed
+         */
+        private void completeConnection(boolean closeConnection) {
             if (!connection.isClosed()) {
                 if (closeConnection) {
-                    connection.close();
+                    connection.closeWhenWritten();
                 } else {
-                    readyConnections.add(connection);
-                    selector.wakeup();
+                    connection.resumeWhenWritten();
+                }
+            }
+        }
+
+        /**
+         * Processes the request that is ready in the connection
+         * @return future of a boolean that indicates if the connection must be closed
+         */
+        private CompletableFuture<Boolean> handleRequest() {
+
+            CompletableFuture<Boolean> result;
+            HttpExchange exchange = connection.getExchange();
+            try {
+                //Starts the http exchange
+                connection.createExchange();
+                if (isHttp2Upgrade(exchange)) {
+                    upgradeConnection(connection, exchange);
+                    result = CompletableFuture.completedFuture(false);
+                }
+                else {
+                    result = handleExchange(exchange);
                 }
             }
+            catch (HttpBadRequestException badRequestException) {
+                HttpResponse response = new HttpResponse(exchange);
+                response.setResponseCode(HttpResponseCode.HTTP_BAD_REQUEST);
+                response.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.TEXT_PLAIN);
+                response.setBody("Bad request !!");
+                response.finish();
+                result = CompletableFuture.completedFuture(true);
+            }
+            return result;
         }
     }
 
     /**
-     * Handler that manages all connections
-     * Removes connections that are inactive
+     * Stream handler
+     * Handles the request of a http/2 stream
      */
-    private class ConnectionsHandler implements Runnable {
+    private class StreamHandler implements Runnable, BiConsumer<Boolean, Throwable> {
+
+        private final Http2Stream stream;
+
+        public StreamHandler(Http2Stream stream) {
+            this.stream = stream;
+        }
+
         @Override
         public void run() {
-            long time = System.currentTimeMillis();
-            int maxIdleConnectionInterval = getProperty(CONNECTION_MAX_INACTIVE_INTERVAL_PROPERTY_NAME, DEFAULT_CONNECTION_MAX_INACTIVE_INTERVAL);
-            synchronized (idleConnections) {
-                Iterator<HttpConnection> iterator = idleConnections.iterator();
-                while (iterator.hasNext()) {
-                    HttpConnection connection = iterator.next();
-                    if ((time - connection.getLastActivityTimestamp()) > maxIdleConnectionInterval) {
-                        connection.close();
-                        iterator.remove();
-                        log(Level.FINE, CONNECTION_DESTROYED_MESSAGE, connection);
-                    }
-                }
+
+            CompletableFuture<Boolean> result = null;
+            HttpExchange previousExchange = HttpRequestScope.enter(stream.getExchange());
+            try {
+                result = handleExchange(stream.getExchange());
+            }
+            catch (Throwable ex) {}
+            finally {
+                HttpRequestScope.exit(previousExchange);
+            }
+
+            //The stream is completed when its response is finished
+            if (result != null) {
+                result.whenComplete(this);
+            }
+            else {
+                accept(true, null);
             }
         }
+
+        /**
+         * Completes the stream once its response was finished
+         * @param closeConnection not used for streams
+         * @param exception exception of the completion or null
+         */
+        @Override
+        public void accept(Boolean closeConnection, Throwable exception) {
+            stream.getConnection().onStreamComplete(stream);
+        }
     }
 
     /**
@@ -506,17 +929,7 @@ public class HttpServer {
     private class SessionsHandler implements Runnable {
         @Override
         public void run() {
-            long time = System.currentTimeMillis();
-            synchronized (sessions) {
-                Iterator<Map.Entry<UUID, HttpSession>> iterator = sessions.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<UUID, HttpSession> entry = iterator.next();
-                    HttpSession session = entry.getValue();
-                    if (!session.isValid() || (time - session.getLastActivityTimestamp()) > session.getMaxInactiveInterval()) {
-                        iterator.remove();
-                    }
-                }
-            }
+            sessionManager.expireSessions(System.currentTimeMillis());
         }
     }
 }
\ No newline at end of file
@@ -1,25 +1,46 @@
-
 package org.neogroup.httpserver;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.Locale;
 
 /**
  * Http server utilities
  */
 public class HttpServerUtils {
 
-    private static final String SERVER_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    private static final String SERVER_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+    private static final String RFC_850_DATE_PREFIX_FORMAT = "EEEE, dd-MMM-";
+    private static final String RFC_850_DATE_SUFFIX_FORMAT = " HH:mm:ss 'GMT'";
+    private static final int RFC_850_BASE_YEAR = 1970;
+    private static final String ASCTIME_DATE_FORMAT = "EEE MMM ppd HH:mm:ss yyyy";
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+    private static final int SERVER_DATE_LENGTH = 29;
+    private static final int PARSED_DATES_CACHE_SIZE = 64;
 
-    private static DateFormat dateFormatter;
+    private static final DateTimeFormatter dateFormatter;
+    private static final DateTimeFormatter[] alternativeDateFormatters;
+    private static final ParsedDate[] parsedDatesCache;
+    private static volatile CurrentDate currentDate;
 
     static {
 
-        dateFormatter = new SimpleDateFormat(SERVER_DATE_FORMAT);
-        dateFormatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+        dateFormatter = DateTimeFormatter.ofPattern(SERVER_DATE_FORMAT, Locale.US).withZone(ZoneOffset.UTC);
+        alternativeDateFormatters = new DateTimeFormatter[] {
+            new DateTimeFormatterBuilder()
+                .appendPattern(RFC_850_DATE_PREFIX_FORMAT)
+                .appendValueReduced(ChronoField.YEAR, 2, 2, RFC_850_BASE_YEAR)
+                .appendPattern(RFC_850_DATE_SUFFIX_FORMAT)
+                .toFormatter(Locale.US).withZone(ZoneOffset.UTC),
+            DateTimeFormatter.ofPattern(ASCTIME_DATE_FORMAT, Locale.US).withZone(ZoneOffset.UTC)
+        };
+        parsedDatesCache = new ParsedDate[PARSED_DATES_CACHE_SIZE];
     }
 
     /**
@@ -28,16 +49,164 @@ public class HttpServerUtils {
      * @return string date
      */
     public static final String formatDate (Date date) {
-        return dateFormatter.format(date);
+        return dateFormatter.format(date.toInstant());
+    }
+
+    /**
+     * Obtains the current date in the server format.
+     * The date is rendered once per second and shared by all threads
+     * @return string date
+     */
+    public static final String getCurrentDate () {
+        return getCurrentDateEntry().value;
+    }
+
+    /**
+     * Obtains the bytes of the current date in the server format.
+     * The returned array is shared and must not be modified
+     * @return bytes of the date
+     */
+    protected static final byte[] getCurrentDateBytes () {
+        return getCurrentDateEntry().bytes;
+    }
+
+    /**
+     * Obtains the current date entry, rendering it if the second changed
+     * @return current date entry
+     */
+    private static CurrentDate getCurrentDateEntry () {
+        long second = System.currentTimeMillis() / 1000;
+        CurrentDate date = currentDate;
+        if (date == null || date.second != second) {
+            date = new CurrentDate(second, dateFormatter.format(Instant.ofEpochSecond(second)));
+            currentDate = date;
+        }
+        return date;
     }
 
     /**
-     * Parses a date in the server format
+     * Parses a date in the server format.
+     * Dates in the server format (IMF-fixdate) are parsed without formatters and
+     * the recently parsed values are cached, the obsolete http date formats are
+     * also accepted
      * @param dateString Date in server format
      * @return Date
      * @throws ParseException
      */
     public static final Date getDate (String dateString) throws ParseException {
-        return dateFormatter.parse(dateString);
+        int cacheIndex = (dateString.hashCode() & 0x7fffffff) % PARSED_DATES_CACHE_SIZE;
+        ParsedDate parsedDate = parsedDatesCache[cacheIndex];
+        if (parsedDate == null || !parsedDate.value.equals(dateString)) {
+            long time = parseFixDate(dateString);
+            if (time == Long.MIN_VALUE) {
+                time = parseAlternativeDate(dateString);
+            }
+            parsedDate = new ParsedDate(dateString, time);
+            parsedDatesCache[cacheIndex] = parsedDate;
+        }
+        return new Date(parsedDate.time);
+    }
+
+    /**
+     * Parses a date in the IMF-fixdate format, for example "Sun, 06 Nov 1994 08:49:37 GMT"
+     * @param dateString date to parse
+     * @return milliseconds of the date, or Long.MIN_VALUE if the date is not in the expected format
+     */
+    private static long parseFixDate (String dateString) {
+        if (dateString.length() != SERVER_DATE_LENGTH || dateString.charAt(3) != ',' || !dateString.endsWith(" GMT")) {
+            return Long.MIN_VALUE;
+        }
+        int day = parseDigits(dateString, 5, 2);
+        int monthIndex = MONTHS.indexOf(dateString.substring(8, 11));
+        int year = parseDigits(dateString, 12, 4);
+        int hour = parseDigits(dateString, 17, 2);
+        int minute = parseDigits(dateString, 20, 2);
+        int second = parseDigits(dateString, 23, 2);
+        if (day < 1 || day > 31 || monthIndex < 0 || monthIndex % 3 != 0 || year < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return Long.MIN_VALUE;
+        }
+        long days = daysFromCivil(year, (monthIndex / 3) + 1, day);
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+    }
+
+    /**
+     * Parses a date in one of the obsolete http date formats
+     * @param dateString date to parse
+     * @return milliseconds of the date
+     * @throws ParseException
+     */
+    private static long parseAlternativeDate (String dateString) throws ParseException {
+        for (DateTimeFormatter formatter : alternativeDateFormatters) {
+            try {
+                return ZonedDateTime.parse(dateString, formatter).toInstant().toEpochMilli();
+            }
+            catch (Exception ex) {}
+        }
+        throw new ParseException("Unparseable date: \"" + dateString + "\"", 0);
+    }
+
+    /**
+     * Parses a fixed amount of decimal digits
+     * @param value string that contains the digits
+     * @param offset index of the first digit
+     * @param length amount of digits
+     * @return parsed value, or -1 if a character is not a digit
+     */
+    private static int parseDigits (String value, int offset, int length) {
+        int result = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char character = value.charAt(i);
+            if (character < '0' || character > '9') {
+                return -1;
+            }
+            result = result * 10 + (character - '0');
+        }
+        return result;
+    }
+
+    /**
+     * Obtains the days since the epoch of a civil date
+     * @param year year
+     * @param month month (1 to 12)
+     * @param day day of month
+     * @return days since 1970-01-01
+     */
+    private static long daysFromCivil (int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Current date rendered in the server format
+     */
+    private static final class CurrentDate {
+
+        private final long second;
+        private final String value;
+        private final byte[] bytes;
+
+        private CurrentDate(long second, String value) {
+            this.second = second;
+            this.value = value;
+            this.bytes = value.getBytes();
+        }
+    }
+
+    /**
+     * Date parsed from a string
+     */
+    private static final class ParsedDate {
+
+        private final String value;
+        private final long time;
+
+        private ParsedDate(String value, long time) {
+            this.value = value;
+            this.time = time;
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,43 +1,77 @@
 
 package org.neogroup.httpserver;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Session that holds information for an http client
+ * Session that holds information for an http client.
+ * The session can be used concurrently by the requests of the same client
  */
 public class HttpSession {
 
-    private final UUID id;
+    private volatile UUID id;
     private final Map<String,Object> attributes;
-    private boolean valid;
-    private boolean isNew;
-    private long lastActivityTimestamp;
-    private long creationTimestamp;
-    private int maxInactiveInterval;
+    private volatile boolean valid;
+    private volatile boolean isNew;
+    private volatile boolean modified;
+    private volatile long saveTimestamp;
+    private volatile long lastActivityTimestamp;
+    private final long creationTimestamp;
+    private volatile int maxInactiveInterval;
 
     /**
-     * Constructor for the http session
+     * Constructor for a new http session.
+     * The id is generated the first time it is requested
      */
     protected HttpSession() {
-        this.id = UUID.randomUUID();
-        this.attributes = new HashMap<>();
-        long time = System.currentTimeMillis();
-        creationTimestamp = time;
-        lastActivityTimestamp = time;
-        valid = false;
+        this(null);
+    }
+
+    /**
+     * Constructor for a new http session with a given id
+     * @param id id of the session, generated the first time it is requested if null
+     */
+    protected HttpSession(UUID id) {
+        this(id, System.currentTimeMillis(), System.currentTimeMillis());
         isNew = true;
     }
 
+    /**
+     * Constructor for an existing http session
+     * @param id id of the session
+     * @param creationTimestamp session creation timestamp
+     * @param lastActivityTimestamp session last activity timestamp
+     */
+    protected HttpSession(UUID id, long creationTimestamp, long lastActivityTimestamp) {
+        this.id = id;
+        this.attributes = new ConcurrentHashMap<>();
+        this.creationTimestamp = creationTimestamp;
+        this.lastActivityTimestamp = lastActivityTimestamp;
+        this.saveTimestamp = lastActivityTimestamp;
+        valid = true;
+        isNew = false;
+        modified = false;
+    }
+
     /**
      * Get thte id of the session
      * @return id
      */
     public UUID getId() {
-        return id;
+        UUID sessionId = id;
+        if (sessionId == null) {
+            synchronized (this) {
+                sessionId = id;
+                if (sessionId == null) {
+                    sessionId = UUID.randomUUID();
+                    id = sessionId;
+                }
+            }
+        }
+        return sessionId;
     }
 
     /**
@@ -56,6 +90,14 @@ public class HttpSession {
         return lastActivityTimestamp;
     }
 
+    /**
+     * Get the time when the session expires if it has no more activity
+     * @return long
+     */
+    public long getExpirationTimestamp() {
+        return lastActivityTimestamp + maxInactiveInterval;
+    }
+
     /**
      * Set the session last activity timestamp
      */
@@ -81,12 +123,67 @@ public class HttpSession {
     }
 
     /**
-     * Set an attribute value
+     * Indicates if the attributes of the session were modified in the current request
+     * @return boolean
+     */
+    protected boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Sets if the session was modified and must be saved with the response
+     * @param modified boolean
+     */
+    protected void setModified(boolean modified) {
+        this.modified = modified;
+    }
+
+    /**
+     * Obtains the last activity timestamp that was saved with the session
+     * @return timestamp in milliseconds
+     */
+    protected long getSaveTimestamp() {
+        return saveTimestamp;
+    }
+
+    /**
+     * Sets the last activity timestamp that was saved with the session
+     * @param saveTimestamp timestamp in milliseconds
+     */
+    protected void setSaveTimestamp(long saveTimestamp) {
+        this.saveTimestamp = saveTimestamp;
+    }
+
+    /**
+     * Indicates if the last activity of the session must be saved again,
+     * that happens once half of the inactive interval passed since it was saved
+     * @return boolean
+     */
+    protected boolean isActivitySaveRequired() {
+        return (lastActivityTimestamp - saveTimestamp) > (maxInactiveInterval / 2);
+    }
+
+    /**
+     * Obtains the attributes of the session
+     * @return map of attributes
+     */
+    protected Map<String,Object> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Set an attribute value, a null value removes the attribute
      * @param name name of attribute
      * @param value value of attribute
      */
     public void setAttribute (String name, Object value) {
-        attributes.put(name, value);
+        if (value != null) {
+            attributes.put(name, value);
+        }
+        else {
+            attributes.remove(name);
+        }
+        modified = true;
     }
 
     /**
@@ -113,6 +210,7 @@ public class HttpSession {
      */
     public void clearAttributes () {
         attributes.clear();
+        modified = true;
     }
 
     /**
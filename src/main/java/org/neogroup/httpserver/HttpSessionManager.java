@@ -0,0 +1,65 @@
+package org.neogroup.httpserver;
+
+/**
+ * Manager of the http sessions of a server.
+ * The manager obtains the session of a request and saves the sessions that
+ * were created or modified in the response, just before the response headers
+ * are sent. Changes made to a session after the headers were sent are only
+ * kept by managers that hold the sessions in the server
+ */
+public abstract class HttpSessionManager {
+
+    /**
+     * Initializes the manager when the server is started
+     * @param server http server
+     */
+    protected void start(HttpServer server) {
+    }
+
+    /**
+     * Releases the resources of the manager when the server is stopped
+     */
+    protected void stop() {
+    }
+
+    /**
+     * Removes the expired sessions, called periodically by the server
+     * @param time current time in milliseconds
+     */
+    protected void expireSessions(long time) {
+    }
+
+    /**
+     * Creates a new session for an exchange
+     * @param exchange http exchange
+     * @return new http session
+     */
+    protected HttpSession createSession(HttpExchange exchange) {
+        HttpSession session = new HttpSession();
+        session.setMaxInactiveInterval(exchange.getConnection().getServer().getProperty(HttpServer.SESSION_MAX_INACTIVE_INTERVAL_PROPERTY_NAME, HttpServer.DEFAULT_SESSION_MAX_INACTIVE_INTERVAL));
+        return session;
+    }
+
+    /**
+     * Obtains the session associated with the request of an exchange
+     * @param exchange http exchange
+     * @return http session or null if the request has no valid session
+     */
+    protected abstract HttpSession getSession(HttpExchange exchange);
+
+    /**
+     * Saves a session that was created or modified in the response of an exchange
+     * @param exchange http exchange
+     * @param session session to save
+     */
+    protected abstract void saveSession(HttpExchange exchange, HttpSession session);
+
+    /**
+     * Obtains the name of the session cookie or parameter
+     * @param exchange http exchange
+     * @return name of the session
+     */
+    protected String getSessionName(HttpExchange exchange) {
+        return exchange.getConnection().getServer().getProperty(HttpServer.SESSION_NAME_PROPERTY_NAME, HttpServer.DEFAULT_SESSION_NAME);
+    }
+}
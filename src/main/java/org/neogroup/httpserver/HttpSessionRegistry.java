@@ -0,0 +1,158 @@
+package org.neogroup.httpserver;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Concurrent registry of the http sessions.
+ * Lookups go to a concurrent map without any global lock. Every session is
+ * linked in the expiration bucket of its deadline, the sweeper only visits
+ * the buckets that are due, so the cost of the expiration is proportional to
+ * the amount of expired sessions. The activity of a session only updates its
+ * timestamp, sessions whose deadline was extended are moved to a later bucket
+ * when their bucket is swept. If the registry has a session store, the
+ * sessions that are not in memory are loaded from the store and the removed
+ * sessions are removed from the store
+ */
+public class HttpSessionRegistry {
+
+    private final Map<UUID, HttpSession> sessions;
+    private final Map<Long, Queue<HttpSession>> expirations;
+    private final long bucketInterval;
+    private final HttpSessionStore store;
+
+    /**
+     * Constructor for the session registry
+     * @param bucketInterval duration in milliseconds of an expiration bucket, precision of the expiration
+     */
+    protected HttpSessionRegistry(long bucketInterval) {
+        this(bucketInterval, null);
+    }
+
+    /**
+     * Constructor for the session registry backed by a session store
+     * @param bucketInterval duration in milliseconds of an expiration bucket, precision of the expiration
+     * @param store session store or null
+     */
+    protected HttpSessionRegistry(long bucketInterval, HttpSessionStore store) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.expirations = new ConcurrentHashMap<>();
+        this.bucketInterval = Math.max(1, bucketInterval);
+        this.store = store;
+    }
+
+    /**
+     * Obtains the amount of registered sessions
+     * @return amount of sessions
+     */
+    public int getSessionsCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Registers a new session
+     * @param session session to register
+     */
+    protected void addSession(HttpSession session) {
+        sessions.put(session.getId(), session);
+        scheduleExpiration(session, session.getExpirationTimestamp());
+    }
+
+    /**
+     * Obtains a valid session, expired sessions are removed as they are found
+     * @param sessionId id of the session
+     * @return http session or null if the session does not exist or it expired
+     */
+    protected HttpSession getSession(UUID sessionId) {
+        HttpSession session = sessions.get(sessionId);
+        if (session == null && store != null) {
+            session = loadSession(sessionId);
+        }
+        if (session != null && (!session.isValid() || session.getExpirationTimestamp() <= System.currentTimeMillis())) {
+            removeSession(session);
+            session = null;
+        }
+        return session;
+    }
+
+    /**
+     * Loads a session from the store and registers it
+     * @param sessionId id of the session
+     * @return http session or null if the session is not stored
+     */
+    private HttpSession loadSession(UUID sessionId) {
+        HttpSession session = store.load(sessionId);
+        if (session != null) {
+            HttpSession currentSession = sessions.putIfAbsent(sessionId, session);
+            if (currentSession != null) {
+                session = currentSession;
+            }
+            else {
+                scheduleExpiration(session, session.getExpirationTimestamp());
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Removes a session from the registry, invalidating it
+     * @param session session to remove
+     */
+    protected void removeSession(HttpSession session) {
+        if (sessions.remove(session.getId(), session)) {
+            session.invalidate();
+            if (store != null) {
+                store.remove(session.getId());
+            }
+        }
+    }
+
+    /**
+     * Removes the sessions whose expiration buckets are due.
+     * Only the keys of the buckets are visited, request threads are never blocked
+     * @param time current time in milliseconds
+     */
+    protected void expireSessions(long time) {
+        long currentBucket = time / bucketInterval;
+        for (Long bucket : expirations.keySet()) {
+            Queue<HttpSession> bucketSessions = bucket <= currentBucket? expirations.remove(bucket) : null;
+            if (bucketSessions != null) {
+                Iterator<HttpSession> iterator = bucketSessions.iterator();
+                while (iterator.hasNext()) {
+                    HttpSession session = iterator.next();
+                    if (sessions.get(session.getId()) == session) {
+                        long expirationTimestamp = session.getExpirationTimestamp();
+                        if (session.isValid() && expirationTimestamp > time) {
+                            scheduleExpiration(session, expirationTimestamp);
+                        }
+                        else {
+                            removeSession(session);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Links a session in the bucket of its expiration
+     * @param session session to link
+     * @param expirationTimestamp expiration time in milliseconds
+     */
+    private void scheduleExpiration(HttpSession session, long expirationTimestamp) {
+        long bucket = (expirationTimestamp + bucketInterval - 1) / bucketInterval;
+        Queue<HttpSession> bucketSessions = expirations.get(bucket);
+        if (bucketSessions == null) {
+            bucketSessions = new ConcurrentLinkedQueue<>();
+            Queue<HttpSession> currentBucketSessions = expirations.putIfAbsent(bucket, bucketSessions);
+            if (currentBucketSessions != null) {
+                bucketSessions = currentBucketSessions;
+            }
+        }
+        bucketSessions.add(session);
+    }
+}
@@ -0,0 +1,197 @@
+package org.neogroup.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact binary serialization of http sessions.
+ * Strings and boxed primitives are written with a type tag, other
+ * serializable values are only accepted if objects are allowed, because
+ * deserializing objects is only safe for data that comes from the server.
+ * Attributes that can not be serialized are skipped, so that a session
+ * that can not be saved completely never fails the response
+ */
+public class HttpSessionSerializer {
+
+    private static final byte STRING_TYPE = 1;
+    private static final byte INTEGER_TYPE = 2;
+    private static final byte LONG_TYPE = 3;
+    private static final byte DOUBLE_TYPE = 4;
+    private static final byte BOOLEAN_TYPE = 5;
+    private static final byte OBJECT_TYPE = 6;
+    private static final byte TEXT_TYPE = 7;
+    private static final int SHORT_STRING_MAX_LENGTH = 65535 / 3;
+
+    protected static final String ATTRIBUTES_SKIPPED_MESSAGE = "Attributes {1} of session \"{0}\" can not be serialized, they were not saved !!";
+
+    private final boolean objectsAllowed;
+
+    /**
+     * Constructor for the session serializer
+     * @param objectsAllowed indicates if serializable objects are allowed as attribute values
+     */
+    public HttpSessionSerializer(boolean objectsAllowed) {
+        this.objectsAllowed = objectsAllowed;
+    }
+
+    /**
+     * Writes a session, skipping the attributes that can not be serialized
+     * @param output output of the session
+     * @param session session to write
+     * @return names of the skipped attributes
+     * @throws IOException
+     */
+    public List<String> writeSession(DataOutputStream output, HttpSession session) throws IOException {
+        UUID id = session.getId();
+        output.writeLong(id.getMostSignificantBits());
+        output.writeLong(id.getLeastSignificantBits());
+        output.writeLong(session.getCreationTimestamp());
+        output.writeLong(session.getLastActivityTimestamp());
+        output.writeInt(session.getMaxInactiveInterval());
+
+        //Every attribute is serialized apart, so that the ones that fail are left out
+        List<String> skippedAttributes = Collections.emptyList();
+        ByteArrayOutputStream attributesBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream attributeBytes = new ByteArrayOutputStream();
+        DataOutputStream attributeOutput = new DataOutputStream(attributeBytes);
+        int attributesCount = 0;
+        for (Map.Entry<String, Object> attribute : session.getAttributes().entrySet()) {
+            attributeBytes.reset();
+            try {
+                attributeOutput.writeUTF(attribute.getKey());
+                writeValue(attributeOutput, attribute.getKey(), attribute.getValue());
+                attributeOutput.flush();
+                attributeBytes.writeTo(attributesBytes);
+                attributesCount++;
+            }
+            catch (IOException | RuntimeException ex) {
+                if (skippedAttributes.isEmpty()) {
+                    skippedAttributes = new ArrayList<>();
+                }
+                skippedAttributes.add(attribute.getKey());
+            }
+        }
+        output.writeInt(attributesCount);
+        attributesBytes.writeTo(output);
+        return skippedAttributes;
+    }
+
+    /**
+     * Reads a session
+     * @param input input of the session
+     * @return http session
+     * @throws IOException
+     */
+    public HttpSession readSession(DataInputStream input) throws IOException {
+        UUID id = new UUID(input.readLong(), input.readLong());
+        long creationTimestamp = input.readLong();
+        long lastActivityTimestamp = input.readLong();
+        HttpSession session = new HttpSession(id, creationTimestamp, lastActivityTimestamp);
+        session.setMaxInactiveInterval(input.readInt());
+        int attributesCount = input.readInt();
+        for (int i = 0; i < attributesCount; i++) {
+            String name = input.readUTF();
+            session.getAttributes().put(name, readValue(input));
+        }
+        return session;
+    }
+
+    /**
+     * Writes a typed attribute value
+     * @param output output of the session
+     * @param name name of the attribute
+     * @param value value of the attribute
+     * @throws IOException
+     */
+    private void writeValue(DataOutputStream output, String name, Object value) throws IOException {
+        if (value instanceof String && ((String)value).length() <= SHORT_STRING_MAX_LENGTH) {
+            output.writeByte(STRING_TYPE);
+            output.writeUTF((String)value);
+        }
+        else if (value instanceof String) {
+            //Long strings do not fit the 16 bit length of the modified utf-8 encoding
+            byte[] textBytes = ((String)value).getBytes(StandardCharsets.UTF_8);
+            output.writeByte(TEXT_TYPE);
+            output.writeInt(textBytes.length);
+            output.write(textBytes);
+        }
+        else if (value instanceof Integer) {
+            output.writeByte(INTEGER_TYPE);
+            output.writeInt((Integer)value);
+        }
+        else if (value instanceof Long) {
+            output.writeByte(LONG_TYPE);
+            output.writeLong((Long)value);
+        }
+        else if (value instanceof Double) {
+            output.writeByte(DOUBLE_TYPE);
+            output.writeDouble((Double)value);
+        }
+        else if (value instanceof Boolean) {
+            output.writeByte(BOOLEAN_TYPE);
+            output.writeBoolean((Boolean)value);
+        }
+        else if (objectsAllowed && value instanceof Serializable) {
+            ByteArrayOutputStream objectBytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutput = new ObjectOutputStream(objectBytes)) {
+                objectOutput.writeObject(value);
+            }
+            output.writeByte(OBJECT_TYPE);
+            output.writeInt(objectBytes.size());
+            objectBytes.writeTo(output);
+        }
+        else {
+            throw new HttpException("Session attribute \"" + name + "\" can not be serialized !!");
+        }
+    }
+
+    /**
+     * Reads a typed attribute value
+     * @param input input of the session
+     * @return value of the attribute
+     * @throws IOException
+     */
+    private Object readValue(DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        switch (type) {
+            case STRING_TYPE: return input.readUTF();
+            case INTEGER_TYPE: return input.readInt();
+            case LONG_TYPE: return input.readLong();
+            case DOUBLE_TYPE: return input.readDouble();
+            case BOOLEAN_TYPE: return input.readBoolean();
+            case TEXT_TYPE:
+                int textSize = input.readInt();
+                if (textSize < 0) {
+                    throw new IOException("Invalid attribute size !!");
+                }
+                byte[] textBytes = new byte[textSize];
+                input.readFully(textBytes);
+                return new String(textBytes, StandardCharsets.UTF_8);
+            case OBJECT_TYPE:
+                if (!objectsAllowed) {
+                    throw new IOException("Invalid attribute type !!");
+                }
+                byte[] objectBytes = new byte[input.readInt()];
+                input.readFully(objectBytes);
+                try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(objectBytes))) {
+                    return objectInput.readObject();
+                }
+                catch (ClassNotFoundException ex) {
+                    throw new IOException("Invalid attribute class !!", ex);
+                }
+            default: throw new IOException("Invalid attribute type !!");
+        }
+    }
+}
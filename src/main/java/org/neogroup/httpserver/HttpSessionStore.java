@@ -0,0 +1,45 @@
+package org.neogroup.httpserver;
+
+import java.util.UUID;
+
+/**
+ * Persistent storage of http sessions.
+ * The memory session manager loads from the store the sessions that are
+ * not in memory, for example after a restart of the server, and saves the
+ * sessions that are created or modified. Saves and removals are called from
+ * the request threads, so they should not block on the storage
+ */
+public abstract class HttpSessionStore {
+
+    /**
+     * Opens the store when the server is started
+     * @param server http server
+     */
+    protected void start(HttpServer server) {
+    }
+
+    /**
+     * Closes the store when the server is stopped, pending writes must be completed
+     */
+    protected void stop() {
+    }
+
+    /**
+     * Loads a session
+     * @param sessionId id of the session
+     * @return http session or null if the session is not stored or it expired
+     */
+    protected abstract HttpSession load(UUID sessionId);
+
+    /**
+     * Saves the current state of a session
+     * @param session session to save
+     */
+    protected abstract void save(HttpSession session);
+
+    /**
+     * Removes a session
+     * @param sessionId id of the session
+     */
+    protected abstract void remove(UUID sessionId);
+}
@@ -0,0 +1,156 @@
+package org.neogroup.httpserver;
+
+import java.util.List;
+
+/**
+ * Hashed timing wheel for the connection timeouts of a reactor.
+ * The wheel is a ring of slots that advances one slot per tick, a timeout is
+ * linked in the slot of its deadline with the amount of complete rounds that
+ * must pass before it expires. Scheduling, cancelling and expiring a timeout
+ * are O(1) operations. The wheel is not thread safe, it must only be used by
+ * the reactor thread
+ */
+public class HttpTimerWheel {
+
+    private final Timeout[] slots;
+    private final long tickDuration;
+    private long currentTick;
+
+    /**
+     * Constructor for the timer wheel
+     * @param slotsCount amount of slots of the wheel
+     * @param tickDuration duration of a tick in milliseconds, precision of the timeouts
+     * @param startTime time of the first tick in milliseconds
+     */
+    protected HttpTimerWheel(int slotsCount, long tickDuration, long startTime) {
+        this.slots = new Timeout[slotsCount];
+        this.tickDuration = Math.max(1, tickDuration);
+        this.currentTick = startTime / this.tickDuration;
+    }
+
+    /**
+     * Obtains the duration of a tick
+     * @return duration in milliseconds
+     */
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    /**
+     * Obtains the time remaining until the next tick
+     * @param time current time in milliseconds
+     * @return time in milliseconds
+     */
+    protected long getTimeToNextTick(long time) {
+        return Math.max(1, ((currentTick + 1) * tickDuration) - time);
+    }
+
+    /**
+     * Schedules a timeout, moving it if it was already scheduled
+     * @param timeout timeout to schedule
+     * @param deadline expiration time in milliseconds
+     */
+    protected void schedule(Timeout timeout, long deadline) {
+        cancel(timeout);
+        long deadlineTick = Math.max(currentTick + 1, (deadline + tickDuration - 1) / tickDuration);
+        long ticks = deadlineTick - currentTick;
+        int slot = (int)(deadlineTick % slots.length);
+        timeout.deadline = deadline;
+        timeout.rounds = (ticks - 1) / slots.length;
+        timeout.slot = slot;
+        timeout.previous = null;
+        timeout.next = slots[slot];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        slots[slot] = timeout;
+        timeout.scheduled = true;
+    }
+
+    /**
+     * Cancels a timeout if it is scheduled
+     * @param timeout timeout to cancel
+     */
+    protected void cancel(Timeout timeout) {
+        if (timeout.scheduled) {
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            }
+            else {
+                slots[timeout.slot] = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.scheduled = false;
+        }
+    }
+
+    /**
+     * Advances the wheel up to the given time collecting the expired timeouts
+     * @param time current time in milliseconds
+     * @param expiredTimeouts list where the expired timeouts are added
+     */
+    protected void advance(long time, List<Timeout> expiredTimeouts) {
+        long tick = time / tickDuration;
+        long ticks = Math.min(tick - currentTick, slots.length);
+        for (long i = 1; i <= ticks; i++) {
+            int slot = (int)((currentTick + i) % slots.length);
+            Timeout timeout = slots[slot];
+            while (timeout != null) {
+                Timeout nextTimeout = timeout.next;
+                if (timeout.rounds <= 0 || timeout.deadline <= time) {
+                    cancel(timeout);
+                    expiredTimeouts.add(timeout);
+                }
+                else {
+                    timeout.rounds--;
+                }
+                timeout = nextTimeout;
+            }
+        }
+        if (tick > currentTick) {
+            currentTick = tick;
+        }
+    }
+
+    /**
+     * Timeout of a connection, linked in a slot of the wheel
+     */
+    public static class Timeout {
+
+        private final HttpConnection connection;
+        private Timeout previous;
+        private Timeout next;
+        private long deadline;
+        private long rounds;
+        private int slot;
+        private boolean scheduled;
+
+        /**
+         * Constructor for the timeout
+         * @param connection connection associated with the timeout
+         */
+        protected Timeout(HttpConnection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Obtains the connection associated with the timeout
+         * @return http connection
+         */
+        public HttpConnection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Indicates if the timeout is scheduled in a wheel
+         * @return boolean
+         */
+        public boolean isScheduled() {
+            return scheduled;
+        }
+    }
+}
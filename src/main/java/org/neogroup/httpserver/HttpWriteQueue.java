@@ -0,0 +1,314 @@
+package org.neogroup.httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outbound queue of a connection.
+ * Writes go directly to the channel while the queue is empty, the bytes
+ * that the socket send buffer can not take are copied to pooled buffers and
+ * the reactor is asked to write them when the channel is writable again.
+ * Writers only wait when the queued bytes exceed the high water mark, and
+ * fail if the client does not read anything during the write timeout. The
+ * reactor thread never waits, instead the connection stops producing when
+ * the queue is full and resumes when the reactor drains it.
+ * The queue is guarded by a lock instead of a monitor so that virtual
+ * threads waiting for a slow client do not pin their carrier thread
+ */
+public class HttpWriteQueue {
+
+    private final HttpConnection connection;
+    private final HttpBufferPool bufferPool;
+    private final Deque<ByteBuffer> buffers;
+    private final ReentrantLock lock;
+    private final Condition drained;
+    private final long highWaterMark;
+    private final long writeTimeout;
+    private long size;
+    private long lastWriteTimestamp;
+    private boolean closePending;
+    private boolean released;
+
+    /**
+     * Constructor for the write queue
+     * @param connection connection associated with the queue
+     */
+    protected HttpWriteQueue(HttpConnection connection) {
+        HttpServer server = connection.getServer();
+        this.connection = connection;
+        this.bufferPool = server.getBufferPool();
+        this.buffers = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.drained = lock.newCondition();
+        this.highWaterMark = server.getProperty(HttpServer.CONNECTION_WRITE_BUFFER_SIZE_PROPERTY_NAME, HttpServer.DEFAULT_CONNECTION_WRITE_BUFFER_SIZE);
+        this.writeTimeout = server.getProperty(HttpServer.CONNECTION_WRITE_TIMEOUT_PROPERTY_NAME, HttpServer.DEFAULT_CONNECTION_WRITE_TIMEOUT);
+        this.size = 0;
+        this.lastWriteTimestamp = System.currentTimeMillis();
+        this.closePending = false;
+        this.released = false;
+    }
+
+    /**
+     * Indicates if there are queued bytes not written yet
+     * @return boolean
+     */
+    protected boolean hasPendingWrites() {
+        lock.lock();
+        try {
+            return size > 0;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains the amount of queued bytes
+     * @return size in bytes
+     */
+    protected long getSize() {
+        lock.lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Indicates if the queued bytes reached the high water mark
+     * @return boolean
+     */
+    protected boolean isFull() {
+        lock.lock();
+        try {
+            return size >= highWaterMark;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains the timestamp of the last write that made progress
+     * @return timestamp in milliseconds
+     */
+    protected long getLastWriteTimestamp() {
+        lock.lock();
+        try {
+            return lastWriteTimestamp;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffers, queueing the bytes that
+     * could not be written. If the queue exceeds the high water mark, the calling
+     * thread waits until the reactor drains it
+     * @param writeBuffers buffers to write
+     * @param offset index of the first buffer to write
+     * @param length amount of buffers to write
+     * @throws IOException
+     */
+    protected void write(ByteBuffer[] writeBuffers, int offset, int length) throws IOException {
+        lock.lock();
+        try {
+            if (released) {
+                throw new HttpException("Connection closed !!");
+            }
+
+            //Write directly while there are no queued bytes, to keep the order of the data
+            if (buffers.isEmpty()) {
+                while (hasRemaining(writeBuffers, offset, length)) {
+                    if (connection.getChannel().write(writeBuffers, offset, length) <= 0) {
+                        break;
+                    }
+                    lastWriteTimestamp = System.currentTimeMillis();
+                }
+            }
+
+            if (hasRemaining(writeBuffers, offset, length)) {
+                boolean registerWrite = buffers.isEmpty();
+                for (int i = offset; i < offset + length; i++) {
+                    enqueue(writeBuffers[i]);
+                }
+                if (registerWrite) {
+                    connection.getReactor().registerWrite(connection);
+                }
+
+                //Wait while the client is slower than the producer of the response, the reactor never waits because it drains the queue,
+                //the connection defers the data that the reactor produces beyond the high water mark
+                boolean reactorThread = connection.getReactor().isReactorThread();
+                while (size > highWaterMark && !released && !reactorThread) {
+                    long waitTime = writeTimeout - (System.currentTimeMillis() - lastWriteTimestamp);
+                    if (waitTime <= 0) {
+                        throw new HttpException("Write timeout !!");
+                    }
+                    try {
+                        drained.await(waitTime, TimeUnit.MILLISECONDS);
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new HttpException("Write interrupted !!", ex);
+                    }
+                }
+                if (released) {
+                    throw new HttpException("Connection closed !!");
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer only if there are no queued bytes,
+     * the bytes that the socket can not take are discarded. Used for the last
+     * bytes of a connection that is being closed
+     * @param buffer buffer to write
+     * @return true if the queue was empty
+     * @throws IOException
+     */
+    protected boolean writeIfEmpty(ByteBuffer buffer) throws IOException {
+        lock.lock();
+        try {
+            if (released || !buffers.isEmpty()) {
+                return false;
+            }
+            connection.getChannel().write(buffer);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the queued bytes in the channel, called by the reactor when the channel is writable
+     * @return true if the queue was emptied
+     * @throws IOException
+     */
+    protected boolean flush() throws IOException {
+        lock.lock();
+        try {
+            if (!buffers.isEmpty()) {
+                ByteBuffer[] queuedBuffers = buffers.toArray(new ByteBuffer[buffers.size()]);
+                long writeSize = connection.getChannel().write(queuedBuffers);
+                if (writeSize > 0) {
+                    size -= writeSize;
+                    lastWriteTimestamp = System.currentTimeMillis();
+                    while (!buffers.isEmpty() && !buffers.peekFirst().hasRemaining()) {
+                        bufferPool.release(buffers.pollFirst());
+                    }
+                    drained.signalAll();
+                }
+            }
+            return buffers.isEmpty();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the connection to be closed once the queue is empty
+     * @return true if the queue is already empty and the connection can be closed now
+     */
+    protected boolean closeWhenEmpty() {
+        lock.lock();
+        try {
+            if (buffers.isEmpty()) {
+                return true;
+            }
+            closePending = true;
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Indicates if the connection must be closed after the queue is emptied
+     * @return boolean
+     */
+    protected boolean isClosePending() {
+        lock.lock();
+        try {
+            return closePending;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer at the end of the queue
+     * @param buffer buffer to copy
+     */
+    private void enqueue(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            ByteBuffer lastBuffer = buffers.peekLast();
+            if (lastBuffer == null || lastBuffer.limit() == lastBuffer.capacity()) {
+                lastBuffer = bufferPool.acquire();
+                lastBuffer.limit(0);
+                buffers.addLast(lastBuffer);
+            }
+
+            //Append after the limit of the last buffer, that is kept in read mode
+            int position = lastBuffer.position();
+            int transferSize = Math.min(buffer.remaining(), lastBuffer.capacity() - lastBuffer.limit());
+            ByteBuffer transferBuffer = buffer.duplicate();
+            transferBuffer.limit(transferBuffer.position() + transferSize);
+            lastBuffer.position(lastBuffer.limit());
+            lastBuffer.limit(lastBuffer.position() + transferSize);
+            lastBuffer.put(transferBuffer);
+            lastBuffer.position(position);
+            buffer.position(buffer.position() + transferSize);
+            size += transferSize;
+        }
+    }
+
+    /**
+     * Indicates if some of the given buffers have remaining bytes
+     * @param writeBuffers buffers to check
+     * @param offset index of the first buffer
+     * @param length amount of buffers
+     * @return boolean
+     */
+    private static boolean hasRemaining(ByteBuffer[] writeBuffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (writeBuffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases the queued buffers and wakes up the waiting writers
+     */
+    protected void release() {
+        lock.lock();
+        try {
+            released = true;
+            while (!buffers.isEmpty()) {
+                bufferPool.release(buffers.pollFirst());
+            }
+            size = 0;
+            drained.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.neogroup.httpserver.contexts;
+
+import org.neogroup.httpserver.HttpRequest;
+import org.neogroup.httpserver.HttpResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous Http Context
+ * The response is returned as a future, the connection stays parked without
+ * holding a thread until the future is completed and the response is then
+ * written by the thread that completes it. Responses must be created with
+ * the request (new HttpResponse(request)), or in tasks wrapped with the
+ * scope of the request (HttpRequestScope.of(request).wrap(task)), because
+ * they may be completed outside the thread that received the request. The
+ * returned future must always be completed, otherwise the connection is
+ * never resumed
+ */
+public abstract class HttpAsyncContext extends HttpContext {
+
+    /**
+     * Constructor with the path
+     * @param path path to access the context
+     */
+    public HttpAsyncContext(String path) {
+        super(path);
+    }
+
+    /**
+     * Method that is executed when accessing the context path
+     * @param request Http request
+     * @return future of the http response
+     */
+    public abstract CompletableFuture<HttpResponse> onContextAsync(HttpRequest request);
+
+    /**
+     * Executes the context waiting for the completion of the response
+     * @param request Http request
+     * @return http response
+     */
+    @Override
+    public HttpResponse onContext(HttpRequest request) {
+        return onContextAsync(request).join();
+    }
+}
@@ -27,6 +27,19 @@ public abstract class HttpContext {
         return path;
     }
 
+    /**
+     * Method that is executed when the context is added to a server
+     */
+    public void onAdded () {
+    }
+
+    /**
+     * Method that is executed when the context is removed from a server.
+     * Contexts release here the resources they hold while serving requests
+     */
+    public void onRemoved () {
+    }
+
     /**
      * Method that is execute when accesing the context path
      * @param request Http request
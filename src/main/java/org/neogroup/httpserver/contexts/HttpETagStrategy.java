@@ -0,0 +1,15 @@
+package org.neogroup.httpserver.contexts;
+
+/**
+ * Strategies to generate the entity tags of the files served by a folder context
+ */
+public enum HttpETagStrategy {
+    /**
+     * Weak entity tag generated from the size and the modification date of the file
+     */
+    WEAK,
+    /**
+     * Strong entity tag generated from a hash of the file content
+     */
+    STRONG;
+}
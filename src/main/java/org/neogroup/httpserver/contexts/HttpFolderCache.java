@@ -0,0 +1,327 @@
+package org.neogroup.httpserver.contexts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the contents served by a folder context.
+ * Entries are evicted in least recently used order when the byte budget is
+ * exceeded, and entries of a file system folder are invalidated when the
+ * watched files change
+ */
+public class HttpFolderCache {
+
+    private static final String WATCHER_THREAD_NAME = "HttpFolderWatcher";
+
+    private final long maxSize;
+    private final LinkedHashMap<String, Entry> entries;
+    private long size;
+    private long version;
+    private WatchService watchService;
+    private final Map<WatchKey, Path> watchedFolders;
+
+    /**
+     * Constructor for the folder cache
+     * @param maxSize maximum amount of bytes held by the cache
+     */
+    public HttpFolderCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.watchedFolders = new LinkedHashMap<>();
+        this.size = 0;
+        this.version = 0;
+    }
+
+    /**
+     * Obtains the maximum amount of bytes held by the cache
+     * @return size in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Obtains the amount of bytes held by the cache
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Obtains the current version of the cache. The version changes every time
+     * entries are invalidated, so that contents loaded before an invalidation
+     * are not stored
+     * @return version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves an entry of the cache
+     * @param key resolved path of the resource
+     * @return entry or null if the resource is not cached
+     */
+    public synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Stores an entry in the cache
+     * @param key resolved path of the resource
+     * @param entry entry to store
+     * @param loadVersion version of the cache when the entry started loading
+     * @return boolean true if the entry was stored
+     */
+    public synchronized boolean put(String key, Entry entry, long loadVersion) {
+        boolean stored = false;
+        if (loadVersion == version && entry.getSize() <= maxSize) {
+            Entry previousEntry = entries.put(key, entry);
+            if (previousEntry != null) {
+                size -= previousEntry.getSize();
+            }
+            size += entry.getSize();
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().getSize();
+                iterator.remove();
+            }
+            stored = true;
+        }
+        return stored;
+    }
+
+    /**
+     * Removes an entry and all the entries under it
+     * @param key resolved path of the resource
+     */
+    public synchronized void invalidate(String key) {
+        String folderKey = key.endsWith(File.separator)? key : key + File.separator;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> cacheEntry = iterator.next();
+            if (cacheEntry.getKey().equals(key) || cacheEntry.getKey().startsWith(folderKey)) {
+                size -= cacheEntry.getValue().getSize();
+                iterator.remove();
+            }
+        }
+        version++;
+    }
+
+    /**
+     * Removes all the entries of the cache
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+        version++;
+    }
+
+    /**
+     * Starts watching a folder so that entries are invalidated when its files change
+     * @param folder folder to watch
+     */
+    public synchronized void watch(String folder) {
+        if (watchService == null) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+                registerFolder(watchService, Paths.get(folder));
+            }
+            catch (IOException ex) {
+                close();
+                throw new RuntimeException("Error watching folder \"" + folder + "\" !!", ex);
+            }
+            Thread watcherThread = new Thread(new WatcherHandler(watchService), WATCHER_THREAD_NAME);
+            watcherThread.setDaemon(true);
+            watcherThread.start();
+        }
+    }
+
+    /**
+     * Stops watching the folder.
+     * The watcher thread ends once its watch service is closed, and the
+     * folder may be watched again afterwards
+     */
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            }
+            catch (IOException ex) {}
+            watchService = null;
+            watchedFolders.clear();
+        }
+    }
+
+    /**
+     * Registers a folder and its sub folders in a watch service
+     * @param folderWatchService watch service of the folder
+     * @param folder folder to register
+     * @throws IOException
+     */
+    private void registerFolder(final WatchService folderWatchService, Path folder) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                WatchKey key = directory.register(folderWatchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                synchronized (HttpFolderCache.this) {
+                    watchedFolders.put(key, directory);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Processes the events of a watched folder
+     * @param folderWatchService watch service of the folder
+     * @param key watch key of the folder
+     */
+    private void processEvents(WatchService folderWatchService, WatchKey key) {
+        Path folder;
+        synchronized (this) {
+            folder = watchedFolders.get(key);
+        }
+        if (folder != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    clear();
+                }
+                else {
+                    Path path = folder.resolve((Path)event.context());
+                    invalidate(path.toString());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                        try {
+                            registerFolder(folderWatchService, path);
+                        }
+                        catch (ClosedWatchServiceException ex) {
+                            throw ex;
+                        }
+                        catch (Exception ex) {}
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            synchronized (this) {
+                watchedFolders.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Entry of the folder cache
+     */
+    public static class Entry {
+
+        private final byte[] bytes;
+        private final byte[] compressedBytes;
+        private final String mimeType;
+        private final String eTag;
+        private final Date lastModifiedDate;
+
+        /**
+         * Constructor for a cache entry
+         * @param bytes bytes of the resource
+         * @param compressedBytes gzip compressed bytes of the resource, or null if not compressed
+         * @param mimeType mime type of the resource
+         * @param eTag entity tag of the resource
+         * @param lastModifiedDate last date the resource was modified, or null if unknown
+         */
+        public Entry(byte[] bytes, byte[] compressedBytes, String mimeType, String eTag, Date lastModifiedDate) {
+            this.bytes = bytes;
+            this.compressedBytes = compressedBytes;
+            this.mimeType = mimeType;
+            this.eTag = eTag;
+            this.lastModifiedDate = lastModifiedDate;
+        }
+
+        /**
+         * Obtains the bytes of the resource
+         * @return bytes
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Obtains the gzip compressed bytes of the resource
+         * @return compressed bytes or null
+         */
+        public byte[] getCompressedBytes() {
+            return compressedBytes;
+        }
+
+        /**
+         * Obtains the mime type of the resource
+         * @return mime type
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * Obtains the entity tag of the resource
+         * @return entity tag
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * Obtains the last date the resource was modified
+         * @return date or null
+         */
+        public Date getLastModifiedDate() {
+            return lastModifiedDate;
+        }
+
+        /**
+         * Obtains the amount of bytes held by the entry
+         * @return size in bytes
+         */
+        public long getSize() {
+            return bytes.length + (compressedBytes != null? compressedBytes.length : 0);
+        }
+    }
+
+    /**
+     * Handler that invalidates the entries of the changed files
+     */
+    private class WatcherHandler implements Runnable {
+
+        private final WatchService folderWatchService;
+
+        public WatcherHandler(WatchService folderWatchService) {
+            this.folderWatchService = folderWatchService;
+        }
+
+        @Override
+        public void run() {
+            //The thread ends when the cache closes the watch service
+            try {
+                while (true) {
+                    processEvents(folderWatchService, folderWatchService.take());
+                }
+            }
+            catch (ClosedWatchServiceException | InterruptedException ex) {}
+        }
+    }
+}
@@ -8,15 +8,23 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -31,9 +39,29 @@ public class HttpFolderContext extends HttpContext {
     private static final String FOLDER_HTML_DOCUMENT_TEMPLATE = "<!DOCTYPE html><html><head><title>%s</title><body>%s</body></html></head>";
     private static final String FOLDER_HTML_LIST_TEMPLATE = "<ul style=\"list-style-type: none;\">%s</ul>";
     private static final String FOLDER_HTML_ITEM_TEMPLATE = "<li><a href=\"%s\">%s</a></li>";
+    private static final long MAX_COMPRESSED_FILE_SIZE = 1048576;
+    private static final int DIGEST_BUFFER_SIZE = 8192;
+    private static final String E_TAG_QUOTE = "\"";
+    private static final String WEAK_E_TAG_PREFIX = "W/";
+    private static final String WEAK_E_TAG_SEPARATOR = "-";
+    private static final String E_TAG_LIST_SEPARATOR = ",";
+    private static final String ANY_E_TAG = "*";
+    private static final int MAX_FILE_E_TAGS = 4096;
+    private static final int MAX_RANGES = 16;
+    private static final String RANGE_UNIT_SEPARATOR = "=";
+    private static final String RANGE_LIST_SEPARATOR = ",";
+    private static final char RANGE_SEPARATOR = '-';
+    private static final String CONTENT_RANGE_TEMPLATE = "%s %d-%d/%d";
+    private static final String UNSATISFIED_CONTENT_RANGE_TEMPLATE = "%s */%d";
+    private static final String MULTIPART_CONTENT_TYPE_TEMPLATE = "%s; boundary=%s";
+    private static final String MULTIPART_PART_HEADER_TEMPLATE = "\r\n--%s\r\n%s: %s\r\n%s: %s\r\n\r\n";
+    private static final String MULTIPART_END_TEMPLATE = "\r\n--%s--\r\n";
 
     protected final String folder;
     protected final boolean isClasspathFolder;
+    protected final HttpFolderCache cache;
+    protected HttpETagStrategy eTagStrategy;
+    private final Map<String, FileETag> fileETags;
 
     /**
      * Constructor of the folder context
@@ -41,7 +69,22 @@ public class HttpFolderContext extends HttpContext {
      * @param folder Folder that is accessed via the context
      */
     public HttpFolderContext(String path, String folder) {
+        this(path, folder, 0);
+    }
+
+    /**
+     * Constructor of the folder context with a content cache.
+     * Files up to 1MB are kept in memory together with their validators and
+     * compressed variant, and are served without accessing the disk until
+     * they are modified
+     * @param path Path to access the context
+     * @param folder Folder that is accessed via the context
+     * @param cacheSize Maximum amount of bytes held by the cache, 0 to disable the cache
+     */
+    public HttpFolderContext(String path, String folder, long cacheSize) {
         super(path);
+        this.eTagStrategy = HttpETagStrategy.WEAK;
+        this.fileETags = new ConcurrentHashMap<>();
         if (folder.startsWith(CLASS_PATH_PREFIX)) {
             this.isClasspathFolder = true;
             this.folder = folder.substring(CLASS_PATH_PREFIX.length() + 1);
@@ -55,6 +98,67 @@ public class HttpFolderContext extends HttpContext {
                 this.folder = folder;
             }
         }
+        if (cacheSize > 0) {
+            cache = new HttpFolderCache(cacheSize);
+            watchFolder();
+        }
+        else {
+            cache = null;
+        }
+    }
+
+    /**
+     * Starts watching the folder of the context when it is added to a server.
+     * A context that was removed watches its folder again
+     */
+    @Override
+    public void onAdded() {
+        if (cache != null) {
+            watchFolder();
+        }
+    }
+
+    /**
+     * Stops watching the folder of the context and clears its cache when
+     * it is removed from a server.
+     * Contexts with a cache that are used without a server must call this
+     * method to release the watcher of the folder
+     */
+    @Override
+    public void onRemoved() {
+        if (cache != null) {
+            cache.close();
+            cache.clear();
+        }
+    }
+
+    /**
+     * Watches the folder of the context so that the cache is invalidated
+     * when its files change
+     */
+    private void watchFolder() {
+        if (!isClasspathFolder && Files.isDirectory(Paths.get(folder))) {
+            cache.watch(Paths.get(folder).normalize().toString());
+        }
+    }
+
+    /**
+     * Retrieves the strategy used to generate the entity tags of the files
+     * @return entity tag strategy
+     */
+    public HttpETagStrategy getETagStrategy() {
+        return eTagStrategy;
+    }
+
+    /**
+     * Sets the strategy used to generate the entity tags of the files.
+     * Weak entity tags are generated from the size and the modification date
+     * of the files, strong entity tags are hashes of the file contents that
+     * are computed once per file version
+     * @param eTagStrategy entity tag strategy
+     */
+    public void setETagStrategy(HttpETagStrategy eTagStrategy) {
+        this.eTagStrategy = eTagStrategy;
     }
 
     /**
@@ -69,10 +173,14 @@ public class HttpFolderContext extends HttpContext {
         String fileName = folder + path.replaceAll(URI_FOLDER_SEPARATOR, File.separator);
 
         HttpResponse response;
-        if (isClasspathFolder) {
+        HttpFolderCache.Entry cacheEntry = cache != null? getCacheEntry(fileName) : null;
+        if (cacheEntry != null) {
+            response = handleFileResponse(request, cacheEntry);
+        }
+        else if (isClasspathFolder) {
             byte[] resourceBytes = getResourceBytes(fileName);
             if (resourceBytes != null) {
-                response = handleFileResponse(request, resourceBytes, MimeUtils.getMimeType(fileName), null);
+                response = handleFileResponse(request, resourceBytes, MimeUtils.getMimeType(fileName), null, getResourceETag(fileName, resourceBytes));
             } else {
                 response = handleResourceNotFoundResponse(request, fileName);
             }
@@ -92,6 +200,53 @@ public class HttpFolderContext extends HttpContext {
         return response;
     }
 
+    /**
+     * Retrieves the cache entry of a resource, loading it if it is not cached
+     * @param fileName name of the resource
+     * @return cache entry or null if the resource can not be cached
+     */
+    protected HttpFolderCache.Entry getCacheEntry (String fileName) {
+
+        String key = Paths.get(fileName).normalize().toString();
+        HttpFolderCache.Entry entry = cache.get(key);
+        if (entry == null) {
+            long loadVersion = cache.getVersion();
+            byte[] bytes = null;
+            Date lastModifiedDate = null;
+            String eTag = null;
+            if (isClasspathFolder) {
+                bytes = getResourceBytes(fileName);
+                if (bytes != null) {
+                    eTag = getResourceETag(fileName, bytes);
+                }
+            }
+            else {
+                File file = new File(fileName);
+                long fileSize = file.length();
+                long fileLastModified = file.lastModified();
+                if (file.isFile() && fileSize <= MAX_COMPRESSED_FILE_SIZE) {
+                    lastModifiedDate = new Date(fileLastModified);
+                    try {
+                        bytes = Files.readAllBytes(file.toPath());
+                        eTag = getFileETag(file, fileSize, fileLastModified, bytes);
+                    }
+                    catch (IOException ex) {
+                        bytes = null;
+                    }
+                }
+            }
+            if (bytes != null && bytes.length <= MAX_COMPRESSED_FILE_SIZE) {
+                byte[] compressedBytes = compress(bytes);
+                if (compressedBytes.length >= bytes.length) {
+                    compressedBytes = null;
+                }
+                entry = new HttpFolderCache.Entry(bytes, compressedBytes, MimeUtils.getMimeType(fileName), eTag, lastModifiedDate);
+                cache.put(key, entry, loadVersion);
+            }
+        }
+        return entry;
+    }
+
     /**
      * Handles a directory response
      * @param request Http request
@@ -175,96 +330,451 @@ public class HttpFolderContext extends HttpContext {
     }
 
     /**
-     * Handles a response of file content
+     * Handles a response of file content.
+     * Conditional requests are answered before reading the file. Small files
+     * that can be compressed are loaded in memory, any other file is
+     * transferred to the connection without being loaded in memory
      * @param request Http Request
      * @param file The file to show
      * @return HttpResponse the response
      */
     protected HttpResponse handleFileResponse (HttpRequest request, File file) {
 
-        byte[] fileBytes = null;
-        try {
-            fileBytes = Files.readAllBytes(file.toPath());
+        long fileSize = file.length();
+        long fileLastModified = file.lastModified();
+        Date lastModifiedDate = new Date(fileLastModified);
+        String eTag = getFileETag(file, fileSize, fileLastModified, null);
+        int responseCode = getResponseCode(request, eTag, lastModifiedDate);
+
+        HttpResponse response = new HttpResponse();
+        response.setResponseCode(responseCode);
+        response.addHeader(HttpHeader.CONTENT_TYPE, MimeUtils.getMimeType(file));
+        response.addHeader(HttpHeader.E_TAG, eTag);
+        response.addHeader(HttpHeader.LAST_MODIFIED, HttpServerUtils.formatDate(lastModifiedDate));
+        response.addHeader(HttpHeader.ACCEPT_RANGES, HttpHeader.BYTES_RANGE_UNIT);
+        List<long[]> ranges = responseCode == HttpResponseCode.HTTP_OK? getRanges(request, fileSize, eTag, lastModifiedDate) : null;
+        if (ranges != null) {
+            if (ranges.isEmpty()) {
+                handleRangeNotSatisfiableResponse(response, fileSize);
+            }
+            else {
+                writeRanges(response, ranges, fileSize, MimeUtils.getMimeType(file), file, null);
+            }
         }
-        catch (Exception ex) {
-            throw new RuntimeException("Error reading file \"" + file + "\" !!");
+        else if (responseCode == HttpResponseCode.HTTP_OK) {
+            if (fileSize <= MAX_COMPRESSED_FILE_SIZE && isCompressionAccepted(request)) {
+                byte[] fileBytes = null;
+                try {
+                    fileBytes = Files.readAllBytes(file.toPath());
+                }
+                catch (Exception ex) {
+                    throw new RuntimeException("Error reading file \"" + file + "\" !!");
+                }
+                response.addHeader(HttpHeader.CONTENT_ENCODING, HttpHeader.GZIP_CONTENT_ENCODING);
+                response.addHeader(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING);
+                response.setBody(compress(fileBytes));
+            }
+            else {
+                response.setBody(file);
+            }
         }
-
-        Date lastModifiedDate = new Date(file.lastModified());
-        String mimeType = MimeUtils.getMimeType(file);
-        return handleFileResponse(request, fileBytes, mimeType, lastModifiedDate);
+        return response;
     }
 
     /**
-     * Handles a response of file content
-     * @param request Http Request
-     * @param resourceBytes bytes of the resource
-     * @param mimeType Mime type of the resource
-     * @param lastModifiedDate last date the resource was modified
-     * @return HttpResponse the response
+     * Obtains the entity tag of a file with the configured strategy.
+     * Strong entity tags are cached per file version
+     * @param file file to obtain the entity tag
+     * @param fileSize size of the file
+     * @param fileLastModified modification date of the file in milliseconds
+     * @param fileBytes bytes of the file if they were already read, or null
+     * @return entity tag
      */
-    protected HttpResponse handleFileResponse(HttpRequest request, byte[] resourceBytes, String mimeType, Date lastModifiedDate) {
+    protected String getFileETag (File file, long fileSize, long fileLastModified, byte[] fileBytes) {
 
-        String checksum = null;
-        try {
-            checksum = Base64.getEncoder().encodeToString(MessageDigest.getInstance(DEFAULT_DIGEST_ENCRYPTION).digest(resourceBytes));
+        String eTag;
+        if (eTagStrategy == HttpETagStrategy.STRONG) {
+            String key = file.getAbsolutePath();
+            FileETag fileETag = fileETags.get(key);
+            if (fileETag == null || fileETag.size != fileSize || fileETag.lastModified != fileLastModified) {
+                fileETag = new FileETag(fileSize, fileLastModified, fileBytes != null? getChecksum(fileBytes) : getChecksum(file));
+                if (fileETags.size() >= MAX_FILE_E_TAGS) {
+                    fileETags.clear();
+                }
+                fileETags.put(key, fileETag);
+            }
+            eTag = fileETag.value;
         }
-        catch (NoSuchAlgorithmException ex) {
-            throw new RuntimeException("Error obtaining file checksum", ex);
+        else {
+            eTag = WEAK_E_TAG_PREFIX + E_TAG_QUOTE + Long.toHexString(fileSize) + WEAK_E_TAG_SEPARATOR + Long.toHexString(fileLastModified) + E_TAG_QUOTE;
         }
+        return eTag;
+    }
+
+    /**
+     * Indicates if the client accepts compressed content
+     * @param request Http Request
+     * @return boolean
+     */
+    protected boolean isCompressionAccepted (HttpRequest request) {
+        String acceptedEncoding = request.getHeader(HttpHeader.ACCEPT_ENCODING);
+        return acceptedEncoding != null && acceptedEncoding.indexOf(HttpHeader.GZIP_CONTENT_ENCODING) >= 0;
+    }
+
+    /**
+     * Obtains the response code for a resource given the conditional headers of the request
+     * @param request Http Request
+     * @param checksum checksum of the resource
+     * @param lastModifiedDate last date the resource was modified
+     * @return response code
+     */
+    protected int getResponseCode (HttpRequest request, String checksum, Date lastModifiedDate) {
 
         int responseCode = HttpResponseCode.HTTP_OK;
-        String modifiedSinceHeader = request.getHeader(HttpHeader.IF_MODIFIED_SINCE);
-        if (modifiedSinceHeader != null && lastModifiedDate != null) {
-            Date modifiedSinceDate = null;
-            try {
-                modifiedSinceDate = HttpServerUtils.getDate(modifiedSinceHeader);
-                if (!lastModifiedDate.after(modifiedSinceDate)) {
+        String nonModifiedChecksums = request.getHeader(HttpHeader.IF_NONE_MATCH);
+        if (nonModifiedChecksums != null) {
+            String opaqueChecksum = getOpaqueETag(checksum);
+            for (String nonModifiedChecksum : nonModifiedChecksums.split(E_TAG_LIST_SEPARATOR)) {
+                nonModifiedChecksum = nonModifiedChecksum.trim();
+                if (nonModifiedChecksum.equals(ANY_E_TAG) || getOpaqueETag(nonModifiedChecksum).equals(opaqueChecksum)) {
                     responseCode = HttpResponseCode.HTTP_NOT_MODIFIED;
+                    break;
                 }
             }
-            catch (ParseException ex) {}
         }
         else {
-            String nonModifiedChecksum = request.getHeader(HttpHeader.IF_NONE_MATCH);
-            if (nonModifiedChecksum != null) {
-                if (checksum.equals(nonModifiedChecksum)) {
-                    responseCode = HttpResponseCode.HTTP_NOT_MODIFIED;
+            String modifiedSinceHeader = request.getHeader(HttpHeader.IF_MODIFIED_SINCE);
+            if (modifiedSinceHeader != null && lastModifiedDate != null) {
+                Date modifiedSinceDate = null;
+                try {
+                    modifiedSinceDate = HttpServerUtils.getDate(modifiedSinceHeader);
+                    if (lastModifiedDate.getTime() / 1000 <= modifiedSinceDate.getTime() / 1000) {
+                        responseCode = HttpResponseCode.HTTP_NOT_MODIFIED;
+                    }
                 }
+                catch (ParseException ex) {}
             }
         }
+        return responseCode;
+    }
 
-        HttpResponse response = new HttpResponse();
-        response.setResponseCode(responseCode);
-        response.addHeader(HttpHeader.CONTENT_TYPE, mimeType);
-        response.addHeader(HttpHeader.E_TAG, checksum);
-        if (lastModifiedDate != null) {
-            response.addHeader(HttpHeader.LAST_MODIFIED, HttpServerUtils.formatDate(lastModifiedDate));
+    /**
+     * Obtains the byte ranges requested for a resource.
+     * The ranges are ignored if the If-Range validator does not match the
+     * current version of the resource or if the Range header is not valid
+     * @param request Http Request
+     * @param size size of the resource
+     * @param eTag entity tag of the resource
+     * @param lastModifiedDate last date the resource was modified
+     * @return list of satisfiable ranges (first and last byte positions), an empty list if no range is satisfiable or null if the whole resource must be sent
+     */
+    protected List<long[]> getRanges (HttpRequest request, long size, String eTag, Date lastModifiedDate) {
+
+        String rangeHeader = request.getHeader(HttpHeader.RANGE);
+        if (rangeHeader == null || !rangeHeader.startsWith(HttpHeader.BYTES_RANGE_UNIT + RANGE_UNIT_SEPARATOR)) {
+            return null;
         }
 
-        if (responseCode == HttpResponseCode.HTTP_OK) {
-            String acceptedEncoding = request.getHeader(HttpHeader.ACCEPT_ENCODING);
-            if (acceptedEncoding != null) {
+        String rangeValidator = request.getHeader(HttpHeader.IF_RANGE);
+        if (rangeValidator != null) {
+            boolean validRange = false;
+            if (rangeValidator.startsWith(E_TAG_QUOTE)) {
+                validRange = !eTag.startsWith(WEAK_E_TAG_PREFIX) && rangeValidator.equals(eTag);
+            }
+            else if (!rangeValidator.startsWith(WEAK_E_TAG_PREFIX) && lastModifiedDate != null) {
+                try {
+                    validRange = HttpServerUtils.getDate(rangeValidator).getTime() / 1000 == lastModifiedDate.getTime() / 1000;
+                }
+                catch (ParseException ex) {}
+            }
+            if (!validRange) {
+                return null;
+            }
+        }
 
-                if (acceptedEncoding.indexOf(HttpHeader.GZIP_CONTENT_ENCODING) >= 0) {
-                    try {
-                        response.addHeader(HttpHeader.CONTENT_ENCODING, HttpHeader.GZIP_CONTENT_ENCODING);
-                        response.addHeader(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING);
-                        try (ByteArrayOutputStream bout = new ByteArrayOutputStream(); GZIPOutputStream gzipper = new GZIPOutputStream(bout))
-                        {
-                            gzipper.write(resourceBytes, 0, resourceBytes.length);
-                            gzipper.close();
-                            resourceBytes = bout.toByteArray();
+        String[] rangeSpecs = rangeHeader.substring(HttpHeader.BYTES_RANGE_UNIT.length() + RANGE_UNIT_SEPARATOR.length()).split(RANGE_LIST_SEPARATOR);
+        if (rangeSpecs.length > MAX_RANGES) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>(rangeSpecs.length);
+        try {
+            for (String rangeSpec : rangeSpecs) {
+                rangeSpec = rangeSpec.trim();
+                int separatorIndex = rangeSpec.indexOf(RANGE_SEPARATOR);
+                if (separatorIndex < 0) {
+                    return null;
+                }
+                long first;
+                long last;
+                if (separatorIndex == 0) {
+                    long suffixLength = Long.parseLong(rangeSpec.substring(1));
+                    first = Math.max(0, size - suffixLength);
+                    last = suffixLength > 0? size - 1 : -1;
+                }
+                else {
+                    first = Long.parseLong(rangeSpec.substring(0, separatorIndex));
+                    if (separatorIndex < rangeSpec.length() - 1) {
+                        last = Long.parseLong(rangeSpec.substring(separatorIndex + 1));
+                        if (last < first) {
+                            return null;
                         }
+                        last = Math.min(last, size - 1);
                     }
-                    catch (IOException ex) {
-                        throw new RuntimeException("Error compressing file !!", ex);
+                    else {
+                        last = size - 1;
                     }
                 }
+                if (first < 0) {
+                    return null;
+                }
+                if (first <= last) {
+                    ranges.add(new long[] {first, last});
+                }
+            }
+        }
+        catch (NumberFormatException ex) {
+            return null;
+        }
+        return ranges;
+    }
+
+    /**
+     * Sets up a response for a request whose ranges can not be satisfied
+     * @param response Http Response
+     * @param size size of the resource
+     */
+    protected void handleRangeNotSatisfiableResponse (HttpResponse response, long size) {
+        response.setResponseCode(HttpResponseCode.HTTP_RANGE_NOT_SATISFIABLE);
+        response.addHeader(HttpHeader.CONTENT_RANGE, String.format(UNSATISFIED_CONTENT_RANGE_TEMPLATE, HttpHeader.BYTES_RANGE_UNIT, size));
+        response.setBody("Requested range not satisfiable !!");
+    }
+
+    /**
+     * Writes the requested ranges of a resource in a partial content response.
+     * A single range is sent as the body of the response, many ranges are sent
+     * as a multipart/byteranges body. Only the bytes of the ranges are read
+     * @param response Http Response
+     * @param ranges ranges to write
+     * @param size size of the resource
+     * @param mimeType mime type of the resource
+     * @param file file of the resource, or null if the resource is in memory
+     * @param bytes bytes of the resource, or null if the resource is a file
+     */
+    protected void writeRanges (HttpResponse response, List<long[]> ranges, long size, String mimeType, File file, byte[] bytes) {
+
+        response.setResponseCode(HttpResponseCode.HTTP_PARTIAL);
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.addHeader(HttpHeader.CONTENT_RANGE, String.format(CONTENT_RANGE_TEMPLATE, HttpHeader.BYTES_RANGE_UNIT, range[0], range[1], size));
+            response.addHeader(HttpHeader.CONTENT_LENGTH, String.valueOf(range[1] - range[0] + 1));
+            writeRange(response, range, file, bytes);
+        }
+        else {
+            String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+            long contentLength = 0;
+            for (long[] range : ranges) {
+                String contentRange = String.format(CONTENT_RANGE_TEMPLATE, HttpHeader.BYTES_RANGE_UNIT, range[0], range[1], size);
+                byte[] partHeader = String.format(MULTIPART_PART_HEADER_TEMPLATE, boundary, HttpHeader.CONTENT_TYPE, mimeType, HttpHeader.CONTENT_RANGE, contentRange).getBytes();
+                partHeaders.add(partHeader);
+                contentLength += partHeader.length + range[1] - range[0] + 1;
+            }
+            byte[] multipartEnd = String.format(MULTIPART_END_TEMPLATE, boundary).getBytes();
+            contentLength += multipartEnd.length;
+
+            response.removeHeader(HttpHeader.CONTENT_TYPE);
+            response.addHeader(HttpHeader.CONTENT_TYPE, String.format(MULTIPART_CONTENT_TYPE_TEMPLATE, HttpHeader.MULTIPART_BYTE_RANGES, boundary));
+            response.addHeader(HttpHeader.CONTENT_LENGTH, String.valueOf(contentLength));
+            for (int i = 0; i < ranges.size(); i++) {
+                response.write(partHeaders.get(i));
+                writeRange(response, ranges.get(i), file, bytes);
+            }
+            response.write(multipartEnd);
+        }
+    }
+
+    /**
+     * Writes a range of a resource in the response
+     * @param response Http Response
+     * @param range range to write
+     * @param file file of the resource, or null if the resource is in memory
+     * @param bytes bytes of the resource, or null if the resource is a file
+     */
+    private void writeRange (HttpResponse response, long[] range, File file, byte[] bytes) {
+        if (file != null) {
+            response.write(file, range[0], range[1] - range[0] + 1);
+        }
+        else {
+            response.write(Arrays.copyOfRange(bytes, (int)range[0], (int)range[1] + 1));
+        }
+    }
+
+    /**
+     * Obtains the strong entity tag of a class path resource.
+     * Class path resources do not change so the entity tag is computed once
+     * @param resourceName name of the resource
+     * @param resourceBytes bytes of the resource
+     * @return entity tag
+     */
+    protected String getResourceETag (String resourceName, byte[] resourceBytes) {
+        FileETag resourceETag = fileETags.get(resourceName);
+        if (resourceETag == null || resourceETag.size != resourceBytes.length) {
+            resourceETag = new FileETag(resourceBytes.length, 0, getChecksum(resourceBytes));
+            if (fileETags.size() >= MAX_FILE_E_TAGS) {
+                fileETags.clear();
+            }
+            fileETags.put(resourceName, resourceETag);
+        }
+        return resourceETag.value;
+    }
+
+    /**
+     * Obtains the opaque part of an entity tag, used for weak comparisons
+     * @param eTag entity tag
+     * @return opaque tag
+     */
+    protected String getOpaqueETag (String eTag) {
+        return eTag.startsWith(WEAK_E_TAG_PREFIX)? eTag.substring(WEAK_E_TAG_PREFIX.length()) : eTag;
+    }
+
+    /**
+     * Handles a response of file content
+     * @param request Http Request
+     * @param resourceBytes bytes of the resource
+     * @param mimeType Mime type of the resource
+     * @param lastModifiedDate last date the resource was modified
+     * @return HttpResponse the response
+     */
+    protected HttpResponse handleFileResponse(HttpRequest request, byte[] resourceBytes, String mimeType, Date lastModifiedDate) {
+        return handleFileResponse(request, resourceBytes, mimeType, lastModifiedDate, getChecksum(resourceBytes));
+    }
+
+    /**
+     * Handles a response of file content with a known entity tag
+     * @param request Http Request
+     * @param resourceBytes bytes of the resource
+     * @param mimeType Mime type of the resource
+     * @param lastModifiedDate last date the resource was modified
+     * @param checksum entity tag of the resource
+     * @return HttpResponse the response
+     */
+    protected HttpResponse handleFileResponse(HttpRequest request, byte[] resourceBytes, String mimeType, Date lastModifiedDate, String checksum) {
+
+        byte[] compressedBytes = null;
+        if (isCompressionAccepted(request) && request.getHeader(HttpHeader.RANGE) == null && getResponseCode(request, checksum, lastModifiedDate) == HttpResponseCode.HTTP_OK) {
+            compressedBytes = compress(resourceBytes);
+        }
+        return handleFileResponse(request, new HttpFolderCache.Entry(resourceBytes, compressedBytes, mimeType, checksum, lastModifiedDate));
+    }
+
+    /**
+     * Handles a response of a resource that is held in memory
+     * @param request Http Request
+     * @param entry entry with the content of the resource
+     * @return HttpResponse the response
+     */
+    protected HttpResponse handleFileResponse(HttpRequest request, HttpFolderCache.Entry entry) {
+
+        int responseCode = getResponseCode(request, entry.getETag(), entry.getLastModifiedDate());
+        HttpResponse response = new HttpResponse();
+        response.setResponseCode(responseCode);
+        response.addHeader(HttpHeader.CONTENT_TYPE, entry.getMimeType());
+        response.addHeader(HttpHeader.E_TAG, entry.getETag());
+        if (entry.getLastModifiedDate() != null) {
+            response.addHeader(HttpHeader.LAST_MODIFIED, HttpServerUtils.formatDate(entry.getLastModifiedDate()));
+        }
+        response.addHeader(HttpHeader.ACCEPT_RANGES, HttpHeader.BYTES_RANGE_UNIT);
+
+        byte[] bytes = entry.getBytes();
+        List<long[]> ranges = responseCode == HttpResponseCode.HTTP_OK? getRanges(request, bytes.length, entry.getETag(), entry.getLastModifiedDate()) : null;
+        if (ranges != null) {
+            if (ranges.isEmpty()) {
+                handleRangeNotSatisfiableResponse(response, bytes.length);
+            }
+            else {
+                writeRanges(response, ranges, bytes.length, entry.getMimeType(), null, bytes);
+            }
+        }
+        else if (responseCode == HttpResponseCode.HTTP_OK) {
+            if (entry.getCompressedBytes() != null && isCompressionAccepted(request)) {
+                response.addHeader(HttpHeader.CONTENT_ENCODING, HttpHeader.GZIP_CONTENT_ENCODING);
+                response.addHeader(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING);
+                response.setBody(entry.getCompressedBytes());
+            }
+            else {
+                response.setBody(entry.getBytes());
             }
-            response.setBody(resourceBytes);
         }
 
         return response;
     }
+
+    /**
+     * Obtains the checksum of the bytes of a resource as a strong entity tag
+     * @param resourceBytes bytes of the resource
+     * @return checksum
+     */
+    protected String getChecksum (byte[] resourceBytes) {
+        try {
+            return E_TAG_QUOTE + Base64.getEncoder().encodeToString(MessageDigest.getInstance(DEFAULT_DIGEST_ENCRYPTION).digest(resourceBytes)) + E_TAG_QUOTE;
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("Error obtaining file checksum", ex);
+        }
+    }
+
+    /**
+     * Obtains the checksum of the content of a file as a strong entity tag.
+     * The file is read in blocks so that it is not loaded in memory
+     * @param file file to obtain the checksum
+     * @return checksum
+     */
+    protected String getChecksum (File file) {
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest digest = MessageDigest.getInstance(DEFAULT_DIGEST_ENCRYPTION);
+            ByteBuffer digestBuffer = ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+            while (fileChannel.read(digestBuffer) > 0) {
+                digestBuffer.flip();
+                digest.update(digestBuffer);
+                digestBuffer.clear();
+            }
+            return E_TAG_QUOTE + Base64.getEncoder().encodeToString(digest.digest()) + E_TAG_QUOTE;
+        }
+        catch (Exception ex) {
+            throw new RuntimeException("Error obtaining file checksum", ex);
+        }
+    }
+
+    /**
+     * Compresses the bytes of a resource with gzip
+     * @param resourceBytes bytes of the resource
+     * @return compressed bytes
+     */
+    protected byte[] compress (byte[] resourceBytes) {
+        try (ByteArrayOutputStream bout = new ByteArrayOutputStream(); GZIPOutputStream gzipper = new GZIPOutputStream(bout))
+        {
+            gzipper.write(resourceBytes, 0, resourceBytes.length);
+            gzipper.close();
+            return bout.toByteArray();
+        }
+        catch (IOException ex) {
+            throw new RuntimeException("Error compressing file !!", ex);
+        }
+    }
+
+    /**
+     * Strong entity tag of a file version
+     */
+    private static final class FileETag {
+
+        private final long size;
+        private final long lastModified;
+        private final String value;
+
+        private FileETag(long size, long lastModified, String value) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
 }
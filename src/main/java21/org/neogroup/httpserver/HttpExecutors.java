@@ -0,0 +1,30 @@
+package org.neogroup.httpserver;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors of the http server that depend on the version of the jvm.
+ * This version is used by java 21 and newer, where every task can run in
+ * its own virtual thread
+ */
+public class HttpExecutors {
+
+    private static final String WORKER_THREAD_NAME_PREFIX = "HttpWorker-";
+
+    /**
+     * Indicates if the jvm supports virtual threads
+     * @return boolean
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return true;
+    }
+
+    /**
+     * Creates an executor that runs every task in a new virtual thread
+     * @return executor service
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(WORKER_THREAD_NAME_PREFIX, 0).factory());
+    }
+}